@@ -1,4 +1,6 @@
 module canvasImageGrid {
+  requires java.desktop;
+  requires java.net.http;
   requires javafx.base;
   requires javafx.controls;
   requires javafx.graphics;
@@ -7,14 +7,14 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
-import java.nio.file.DirectoryStream;
+import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.nio.file.Paths;
+import java.util.Collections;
 
 /**
  * Created by amo on 11.04.14.
@@ -34,6 +34,7 @@ public class ApplicationMainSingleWindow extends Application {
     private static final int HIGHT = 1024;
     private static final int WIDTH = 790;
     private static final double PADDING = 5;
+    private static final Path SESSION = Paths.get(System.getProperty("user.home"), ".canvasimagegrid", "session.snapshot");
     private Label fpsLabel;
 
     @Override
@@ -42,7 +43,6 @@ public class ApplicationMainSingleWindow extends Application {
         long startTime = System.currentTimeMillis();
 
         Path rootFolder = FileSystems.getDefault().getPath("/Users/amo/Pictures/andydd_mila-schulfotos-2016/");
-        final List<Path> subfolders = getSubfolders(rootFolder).parallelStream().filter(file -> file.toString().endsWith("jpg")).sequential().collect(Collectors.toList());
 
         VBox main = new VBox();
         StackPane root = new StackPane();
@@ -61,7 +61,7 @@ public class ApplicationMainSingleWindow extends Application {
 
         stage.show();
         CanvasPanel canvas = CanvasPanel.createCanvasPanel().
-                imagePath(subfolders).
+                imagePath(Collections.emptyList()).
                 imageFactory(factory).
                 width(WIDTH).
                 hight(HIGHT).
@@ -72,7 +72,7 @@ public class ApplicationMainSingleWindow extends Application {
                 selectionListener((x, y, image) -> {
                     if (image.length == 1) {
                         ImageContainer myImage = image[0];
-                        System.out.println("selected image: "+myImage.getImagePath().toString());
+                        System.out.println("selected image: "+myImage.getSource().getName());
                     }
                 });
 
@@ -86,6 +86,32 @@ public class ApplicationMainSingleWindow extends Application {
 
         root.getChildren().addAll(canvas, fpsLabel);
 
+        // show the last session at once, the scan below adds the images found since
+        if (Files.isRegularFile(SESSION)) {
+            final long restoreStart = System.nanoTime();
+            try {
+                canvas.restoreSession(SessionSnapshot.read(SESSION));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.out.println("Session restored in " + (System.nanoTime() - restoreStart) / 1000000 + "ms");
+        }
+        canvas.autosaveSession(SESSION, Duration.seconds(30));
+        stage.setOnCloseRequest(event -> canvas.saveSession(SESSION).exceptionally(error -> {
+            error.printStackTrace();
+            return null;
+        }).join());
+        if (rootFolder.getFileName().toString().toLowerCase().endsWith(".zip")) {
+            // the images are read from the archive, without extracting it
+            final ZipArchive archive = ZipArchive.open(rootFolder);
+            canvas.appendSources(archive.getImages());
+        } else {
+            // the images are added while the folder tree is walked, later changes in the folder are applied to the panel
+            final DirectoryScanner scanner = new DirectoryScanner();
+            new FolderWatcher(canvas, scanner).watch(Collections.singletonList(rootFolder));
+            canvas.scan(scanner, Collections.singletonList(rootFolder));
+        }
+
 
 
 
@@ -93,18 +119,6 @@ public class ApplicationMainSingleWindow extends Application {
 
 
 
-    private List<Path> getSubfolders(Path root) {
-        final List<Path> roots = new ArrayList<>();
-        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root)) {
-            // level one check, can have entries like floppy, so check level two
-            for (final Path pathElement : folders) {
-                roots.add(pathElement);
-            }
-        } catch (final Exception e) {
-            e.printStackTrace();
-        }
-        return roots;
-    }
 
 
 
@@ -8,14 +8,10 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
-import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
 /**
  * Created by amo on 11.04.14.
@@ -45,7 +41,6 @@ public class ApplicationMainSingleWindowFPS extends Application {
         long startTime = System.currentTimeMillis();
 
         Path rootFolder = FileSystems.getDefault().getPath("/Users/amo/Pictures/demo/");
-        final List<Path> subfolders = getSubfolders(rootFolder).parallelStream().filter(file -> file.toString().endsWith("jpg")).sequential().collect(Collectors.toList());
 
         VBox main = new VBox();
         VBox imageBox = new VBox();
@@ -70,7 +65,7 @@ public class ApplicationMainSingleWindowFPS extends Application {
 
 
         CanvasPanel canvas = CanvasPanel.createCanvasPanel().
-                imagePath(subfolders).
+                imagePath(Collections.emptyList()).
                 imageFactory(factory).
                 width(WIDTH).
                 hight(HIGHT).
@@ -85,6 +80,8 @@ public class ApplicationMainSingleWindowFPS extends Application {
 
         canvas.widthProperty().bind(stage.widthProperty().subtract(10));
         canvas.heightProperty().bind(stage.heightProperty().subtract(10));
+        // the images are added while the folder tree is walked
+        canvas.scan(new DirectoryScanner(), Collections.singletonList(rootFolder));
 
 
         fpsLabel = new Label("FPS:");
@@ -106,18 +103,6 @@ public class ApplicationMainSingleWindowFPS extends Application {
     }
 
 
-    private List<Path> getSubfolders(Path root) {
-        final List<Path> roots = new ArrayList<>();
-        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root)) {
-            // level one check, can have entries like floppy, so check level two
-            for (final Path pathElement : folders) {
-                roots.add(pathElement);
-            }
-        } catch (final Exception e) {
-            e.printStackTrace();
-        }
-        return roots;
-    }
 
 
 
@@ -1,6 +1,7 @@
 package org.jacpfx.image.canvas;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -9,14 +10,9 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
-import java.net.MalformedURLException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Collections;
 
 /**
  * Created by amo on 11.04.14.
@@ -42,7 +38,6 @@ public class ApplicationMainWithSelectionWindow extends Application {
         long startTime = System.currentTimeMillis();
 
         Path rootFolder = FileSystems.getDefault().getPath("/Users/amo/Pictures/April_Mai/");
-        final List<Path> subfolders = getSubfolders(rootFolder).parallelStream().filter(file -> file.toString().endsWith("jpg")).sequential().collect(Collectors.toList());
 
         VBox main = new VBox();
         VBox imageBox = new VBox();
@@ -63,8 +58,10 @@ public class ApplicationMainWithSelectionWindow extends Application {
         stage.setScene(scene);
 
         stage.show();
+        // the scheduler of the panel, so the selection previews run before its thumbnails
+        final DecodeScheduler scheduler = new DecodeScheduler(Runtime.getRuntime().availableProcessors());
         CanvasPanel canvas = CanvasPanel.createCanvasPanel().
-                imagePath(subfolders).
+                imagePath(Collections.emptyList()).
                 imageFactory(factory).
                 width(WIDTH).
                 hight(HIGHT).
@@ -75,20 +72,27 @@ public class ApplicationMainWithSelectionWindow extends Application {
                 selectionListener((x, y, image) -> {
                     if (image.length == 1) {
                         ImageContainer myImage = image[0];
-                        try {
-                            Image i = new Image(myImage.getImagePath().toFile().toURI().toURL().toExternalForm(), imageBox.getWidth(), imageBox.getHeight(), true, false, false);
-                            ImageView view = new ImageView(i);
-
-                            imageBox.getChildren().setAll(view);
-                        } catch (MalformedURLException e) {
-                            e.printStackTrace();
-                        }
+                        final double width = imageBox.getWidth();
+                        final double height = imageBox.getHeight();
+                        scheduler.
+                                submitSelection(() -> new Image(myImage.getImagePath().toFile().toURI().toURL().toExternalForm(), width, height, true, false, false)).
+                                whenComplete((i, error) -> Platform.runLater(() -> {
+                                    if (error != null) {
+                                        error.printStackTrace();
+                                        return;
+                                    }
+                                    ImageView view = new ImageView(i);
+
+                                    imageBox.getChildren().setAll(view);
+                                }));
                     }
-                });
+                }, null, scheduler);
 
 
         canvas.widthProperty().bind(root.widthProperty().subtract(10));
         canvas.heightProperty().bind(root.heightProperty().subtract(10));
+        // the images are added while the folder tree is walked
+        canvas.scan(new DirectoryScanner(), Collections.singletonList(rootFolder));
         root.getChildren().add(canvas);
 
 
@@ -96,18 +100,6 @@ public class ApplicationMainWithSelectionWindow extends Application {
 
     }
 
-    private List<java.nio.file.Path> getSubfolders(java.nio.file.Path root) {
-        final List<java.nio.file.Path> roots = new ArrayList<>();
-        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root)) {
-            // level one check, can have entries like floppy, so check level two
-            for (final java.nio.file.Path pathElement : folders) {
-                roots.add(pathElement);
-            }
-        } catch (final Exception e) {
-            e.printStackTrace();
-        }
-        return roots;
-    }
 
 
 
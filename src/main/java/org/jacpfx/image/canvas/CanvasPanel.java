@@ -24,28 +24,54 @@
  */
 package org.jacpfx.image.canvas;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.Scene;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
 import javafx.scene.input.ScrollEvent;
+import javafx.util.Duration;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Created by Andy Moncsek on 11.04.14.
  */
 public class CanvasPanel extends Canvas {
+    private static final System.Logger LOGGER = System.getLogger(CanvasPanel.class.getName());
 
 
     private double offset = 0d;
@@ -64,21 +90,65 @@ public class CanvasPanel extends Canvas {
 
     private List<RowContainer> containers = Collections.emptyList();
     private final ObservableList<ImageContainer> children = FXCollections.observableList(new ArrayList<>());
+    /**
+     * the default cache and scheduler, unless the builder was given instances. The cache keys do not contain the
+     * factory, and the scheduler prioritizes by the viewport of one panel
+     */
+    private final ImageCache imageCache;
+    private final DecodeScheduler decodeScheduler;
+    /**
+     * fires when no layout change or scrolling happened for a while, then the visible images are scaled to their displayed size
+     */
+    private final PauseTransition layoutSettled = new PauseTransition(Duration.millis(300));
+    private List<ImageContainer> visibleImages = Collections.emptyList();
+    private final ImageFactory factory;
+    /**
+     * containers created off the FX thread, added to the children with the next pulse
+     */
+    private final ConcurrentLinkedQueue<ImageContainer> pendingChildren = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean pendingScheduled = new AtomicBoolean();
+    /**
+     * all children by their source key, readable from any thread
+     */
+    private final Map<Object, ImageContainer> childrenByKey = new ConcurrentHashMap<>();
+    /**
+     * the perceptual hashes of the decoded children
+     */
+    private final SimilarityIndex<ImageContainer> similarityIndex = new SimilarityIndex<>();
+    /**
+     * suppresses the layout on each single children change, while a batch of changes is applied
+     */
+    private boolean updatingChildren;
+    /**
+     * counts the renderings, the autosave writes a session only when it changed
+     */
+    private long renderRevision;
+    private volatile long savedRevision = -1;
+    /**
+     * the last session write, the writes run one after the other
+     */
+    private CompletableFuture<Void> sessionWrite = CompletableFuture.completedFuture(null);
+    private Timeline autosave;
 
 
     private SelectionListener selectionListener = (x, y, images) -> {
     };
 
 
-    private CanvasPanel(int x, int y, double padding, double lineBreakLimit, double maxHight, double maxWidth, final List<Path> imageFolder, final ImageFactory factory, SelectionListener selectionListener) {
+    private CanvasPanel(int x, int y, double padding, double lineBreakLimit, double maxHight, double maxWidth, final List<? extends ImageSource> imageFolder, final ImageFactory factory, SelectionListener selectionListener,
+                        final ImageCache imageCache, final DecodeScheduler decodeScheduler) {
         super(x, y);
+        this.imageCache = imageCache != null ? imageCache : ImageCache.getDefault();
+        this.decodeScheduler = decodeScheduler != null ? decodeScheduler : DecodeScheduler.getDefault();
 
         this.paddingProperty.set(padding);
         this.maxImageHightProperty.set(maxHight);
         this.maxImageWidthProperty.set(maxWidth);
         this.lineBreakThresholdProperty.set(lineBreakLimit);
         this.selectionListener = selectionListener;
+        this.factory = factory;
 
+        registerChildPathListener();
         addImages(maxHight, maxWidth, imageFolder, factory);
         registerScroll(this.getGraphicsContext2D());
         registerZoom();
@@ -89,13 +159,18 @@ public class CanvasPanel extends Canvas {
         registerChildListener(this.getGraphicsContext2D());
         registerLineBreakThresholdProperty(this.getGraphicsContext2D());
         registerMouseClickListener(selectionListener);
+        registerLayoutSettled(this.getGraphicsContext2D());
 
     }
 
 
     // Builder
     interface ImagePathBuilder {
-        FactoryBuilder imagePath(final List<Path> imageFolder);
+        FactoryBuilder imageSource(final List<? extends ImageSource> sources);
+
+        default FactoryBuilder imagePath(final List<Path> imageFolder) {
+            return imageSource(imageFolder.stream().map(ImageSource::of).collect(Collectors.toList()));
+        }
     }
 
     interface FactoryBuilder {
@@ -127,11 +202,33 @@ public class CanvasPanel extends Canvas {
     }
 
     interface SelectionListenerBuilder {
-        CanvasPanel selectionListener(final SelectionListener listener);
+        /**
+         * create the panel with the default cache and the default scheduler, shared by all panels created this way
+         */
+        default CanvasPanel selectionListener(final SelectionListener listener) {
+            return selectionListener(listener, null, null);
+        }
+
+        /**
+         * @param listener  the selection listener
+         * @param cache     the cache of the decoded images, not shared with panels using other factories, null for the default cache
+         * @param scheduler the scheduler of the decodes, visible panels showing different images need own schedulers,
+         *                  null for the default scheduler
+         */
+        CanvasPanel selectionListener(final SelectionListener listener, final ImageCache cache, final DecodeScheduler scheduler);
     }
 
     public static ImagePathBuilder createCanvasPanel() {
-        return imagePath -> imageFactory -> width -> hight -> padding -> lineBreakLimit -> maxImageWidth -> maxImageHight -> selectionListsner -> new CanvasPanel(width, hight, padding, lineBreakLimit, maxImageHight, maxImageWidth, imagePath, imageFactory, selectionListsner);
+        return imageSource -> imageFactory -> width -> hight -> padding -> lineBreakLimit -> maxImageWidth -> maxImageHight -> (selectionListsner, cache, scheduler) -> new CanvasPanel(width, hight, padding, lineBreakLimit, maxImageHight, maxImageWidth, imageSource, imageFactory, selectionListsner, cache, scheduler);
+    }
+
+    /**
+     * stop the autosave and the timers of the panel. The scheduler is shared or owned by the caller of the builder,
+     * see {@link DecodeScheduler#shutdown()}
+     */
+    public void dispose() {
+        autosaveSession(null, null);
+        layoutSettled.stop();
     }
 
     private void registerMouseClickListener(SelectionListener selectionListener) {
@@ -150,14 +247,197 @@ public class CanvasPanel extends Canvas {
         }));
     }
 
-    private void addImages(double maxHight, double maxWidth, List<Path> imageFolder, ImageFactory factory) {
-        final List<ImageContainer> all = imageFolder.parallelStream().map(path -> getConatiner(path, factory, maxHight, maxWidth)).collect(Collectors.toList());
-        getChildren().addAll(all);
+    private void addImages(double maxHight, double maxWidth, List<? extends ImageSource> imageFolder, ImageFactory factory) {
+        getChildren().addAll(createContainers(imageFolder, maxHight, maxWidth, true));
+    }
+
+    /**
+     * create the containers and probe the image sizes, in the order of the sources. With
+     * {@link DecodeScheduler.IoOrder#LOCALITY} the probes run in storage order, the parallel workers each read
+     * a contiguous run of adjacent files
+     */
+    private List<ImageContainer> createContainers(final List<? extends ImageSource> sources, final double maxHight, final double maxWidth, final boolean parallel) {
+        final ImageContainer[] containers = new ImageContainer[sources.size()];
+        final List<Integer> order = IntStream.range(0, sources.size()).boxed().collect(Collectors.toList());
+        if (decodeScheduler.getIoOrder() == DecodeScheduler.IoOrder.LOCALITY) {
+            final IoLocation[] locations = sources.parallelStream().map(ImageSource::getLocation).toArray(IoLocation[]::new);
+            order.sort(Comparator.comparing((Integer index) -> locations[index], Comparator.nullsLast(Comparator.<IoLocation>naturalOrder())));
+        }
+        (parallel ? order.parallelStream() : order.stream()).
+                forEach(index -> containers[index] = getConatiner(sources.get(index), factory, maxHight, maxWidth));
+        return Arrays.asList(containers);
+    }
+
+
+    /**
+     * add images, may be called from any thread. The containers (and the image sizes) are created on the calling
+     * thread, the children are updated in one batch on the FX thread
+     *
+     * @param images the image paths
+     */
+    public void appendImages(final List<Path> images) {
+        appendSources(images.stream().map(ImageSource::of).collect(Collectors.toList()));
+    }
+
+    /**
+     * add images of any source, may be called from any thread, see {@link #appendImages(List)}. Sources the panel
+     * already shows, e.g. restored by {@link #restoreSession(SessionSnapshot)}, are skipped without probing them
+     *
+     * @param sources the image sources
+     */
+    public void appendSources(final List<? extends ImageSource> sources) {
+        final double maxHight = maxImageHightProperty.get();
+        final double maxWidth = maxImageWidthProperty.get();
+        final List<ImageSource> added = sources.stream().
+                filter(source -> !childrenByKey.containsKey(source.getKey())).
+                collect(Collectors.toList());
+        if (!added.isEmpty()) pendingChildren.addAll(createContainers(added, maxHight, maxWidth, false));
+        if (pendingChildren.isEmpty() || !pendingScheduled.compareAndSet(false, true)) return;
+        Platform.runLater(this::addPendingChildren);
+    }
+
+    /**
+     * walk the folders with the scanner, the images are added while they are found
+     *
+     * @param scanner the scanner
+     * @param folders the folders to walk
+     * @return the number of images found, completed when the walk is finished
+     */
+    public CompletableFuture<Long> scan(final DirectoryScanner scanner, final List<Path> folders) {
+        return scanner.scan(folders, this::appendImages);
+    }
+
+    private void addPendingChildren() {
+        pendingScheduled.set(false);
+        final List<ImageContainer> batch = new ArrayList<>();
+        final double maxHight = maxImageHightProperty.get();
+        final Set<Object> added = new HashSet<>();
+        for (ImageContainer container = pendingChildren.poll(); container != null; container = pendingChildren.poll()) {
+            // a folder sync and a scan may both find a new image
+            final Object key = container.getSource().getKey();
+            if (childrenByKey.containsKey(key) || !added.add(key)) continue;
+            // the hight may have changed while the container was created
+            container.setMaxHight(maxHight);
+            batch.add(container);
+        }
+        if (!batch.isEmpty()) children.addAll(batch);
     }
 
+    /**
+     * @param path an image path
+     * @return true if the panel shows the image
+     */
+    public boolean containsImage(final Path path) {
+        return containsImage(ImageSource.of(path));
+    }
+
+    /**
+     * @param source an image source
+     * @return true if the panel shows an image with the key of the source
+     */
+    public boolean containsImage(final ImageSource source) {
+        return childrenByKey.containsKey(source.getKey());
+    }
 
-    private ImageContainer getConatiner(Path path, ImageFactory factory, double maxHight, double maxWidth) {
-        return new ImageContainer(path, factory, maxHight, maxWidth);
+    /**
+     * @return the paths of all images from local files, a snapshot readable from any thread
+     */
+    public Set<Path> getImagePaths() {
+        return Collections.unmodifiableSet(childrenByKey.values().stream().
+                map(ImageContainer::getImagePath).
+                filter(Objects::nonNull).
+                collect(Collectors.toSet()));
+    }
+
+    /**
+     * apply file changes with minimal children edits, may be called from any thread. Changed images are
+     * replaced and their decodes invalidated, new images are appended, removed images (or all images below
+     * a removed folder) are removed. The changes are laid out once, the first visible image keeps its position.
+     *
+     * @param changed the added or modified images
+     * @param removed the removed images or folders
+     */
+    public void syncImages(final Collection<Path> changed, final Collection<Path> removed) {
+        if (changed.isEmpty() && removed.isEmpty()) return;
+        final double maxHight = maxImageHightProperty.get();
+        final double maxWidth = maxImageWidthProperty.get();
+        final List<ImageContainer> containers = new ArrayList<>();
+        // probe the new sizes on the calling thread
+        changed.forEach(path -> containers.add(getConatiner(ImageSource.of(path), factory, maxHight, maxWidth)));
+        final List<Path> removedPaths = new ArrayList<>(removed);
+        Platform.runLater(() -> applySync(containers, removedPaths));
+    }
+
+    /**
+     * replace images whose content changed, e.g. remote images after a failed revalidation, may be called from
+     * any thread. The cached thumbnails are invalidated, sources the panel does not show are appended.
+     *
+     * @param changed the changed sources
+     */
+    public void refreshSources(final Collection<? extends ImageSource> changed) {
+        if (changed.isEmpty()) return;
+        final double maxHight = maxImageHightProperty.get();
+        final double maxWidth = maxImageWidthProperty.get();
+        final List<ImageContainer> containers = new ArrayList<>();
+        changed.forEach(source -> containers.add(getConatiner(source, factory, maxHight, maxWidth)));
+        Platform.runLater(() -> applySync(containers, Collections.emptyList()));
+    }
+
+    private void applySync(final List<ImageContainer> changed, final List<Path> removed) {
+        final Set<Object> replaced = new HashSet<>();
+        changed.forEach(container -> replaced.add(container.getSource().getKey()));
+        // the first visible image which stays unchanged anchors the scroll position
+        final ImageContainer anchor = visibleImages.stream().
+                filter(image -> !replaced.contains(image.getSource().getKey()) && !isRemoved(image.getImagePath(), removed)).
+                findFirst().orElse(null);
+        final double anchorY = anchor != null ? anchor.getStartY() : 0d;
+        updatingChildren = true;
+        try {
+            if (!removed.isEmpty()) {
+                final List<ImageContainer> gone = children.stream().
+                        filter(image -> isRemoved(image.getImagePath(), removed)).
+                        collect(Collectors.toList());
+                gone.forEach(image -> imageCache.invalidateSource(image.getCacheKey()));
+                children.removeAll(new HashSet<>(gone));
+            }
+            final Map<Object, Integer> index = new HashMap<>();
+            if (!changed.isEmpty()) {
+                for (int i = 0; i < children.size(); i++) {
+                    index.put(children.get(i).getSource().getKey(), i);
+                }
+            }
+            final List<ImageContainer> added = new ArrayList<>();
+            final double maxHight = maxImageHightProperty.get();
+            for (final ImageContainer container : changed) {
+                container.setMaxHight(maxHight);
+                final Object key = container.getSource().getKey();
+                final Integer position = index.get(key);
+                if (position != null) {
+                    imageCache.invalidateSource(children.get(position).getCacheKey());
+                    children.set(position, container);
+                } else if (index.putIfAbsent(key, -1) == null) {
+                    added.add(container);
+                }
+            }
+            children.addAll(added);
+        } finally {
+            updatingChildren = false;
+        }
+        containers = paintImages(getGraphicsContext2D(), children, anchor, anchorY);
+    }
+
+    private static boolean isRemoved(final Path path, final List<Path> removed) {
+        if (path == null) return false;
+        for (final Path removedPath : removed) {
+            if (path.startsWith(removedPath)) return true;
+        }
+        return false;
+    }
+
+    private ImageContainer getConatiner(ImageSource source, ImageFactory factory, double maxHight, double maxWidth) {
+        final ImageContainer container = new ImageContainer(source, factory, imageCache, decodeScheduler, maxHight, maxWidth);
+        container.setHashListener(this::indexHash);
+        return container;
     }
 
 
@@ -165,8 +445,278 @@ public class CanvasPanel extends Canvas {
         return children;
     }
 
+    /**
+     * The cache holding the decoded (hot) and compressed (warm) thumbnails
+     *
+     * @return the image cache
+     */
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * the share of images, which show the content of an other image and share its decodes, see
+     * {@link ImageCache#setDeduplicate(boolean)}. Call it on the FX thread
+     *
+     * @return the dedup ratio, 0 without duplicates or deduplication
+     */
+    public double getDedupRatio() {
+        if (children.isEmpty()) return 0d;
+        final long unique = children.stream().map(ImageContainer::getCacheKey).distinct().count();
+        return 1d - (double) unique / children.size();
+    }
+
+    /**
+     * the images similar to the image, by the Hamming distance of their perceptual hashes. The hashes are computed
+     * when the thumbnails are decoded, so only images decoded so far are found
+     *
+     * @param image       an image of the panel
+     * @param maxDistance the maximum number of differing bits of 64, e.g. 10 for near duplicates
+     * @return the similar images, nearest first, without the image itself. Empty if the image was not decoded yet
+     */
+    public List<ImageContainer> findSimilar(final ImageContainer image, final int maxDistance) {
+        if (!image.hasPerceptualHash()) return Collections.emptyList();
+        final List<ImageContainer> similar = similarityIndex.find(image.getPerceptualHash(), maxDistance);
+        similar.removeIf(candidate -> candidate == image);
+        return similar;
+    }
+
+    /**
+     * group the decoded images with their similar images, transitively
+     *
+     * @param maxDistance the maximum number of differing bits of 64 between neighbours of a group
+     * @return the groups of at least two images, in the order of the panel
+     */
+    public List<List<ImageContainer>> groupSimilar(final int maxDistance) {
+        final List<List<ImageContainer>> groups = new ArrayList<>();
+        final Set<ImageContainer> grouped = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final ImageContainer image : children) {
+            if (!image.hasPerceptualHash() || !grouped.add(image)) continue;
+            final List<ImageContainer> group = new ArrayList<>();
+            final Deque<ImageContainer> pending = new ArrayDeque<>();
+            pending.add(image);
+            while (!pending.isEmpty()) {
+                final ImageContainer member = pending.poll();
+                group.add(member);
+                for (final ImageContainer similar : similarityIndex.find(member.getPerceptualHash(), maxDistance)) {
+                    if (grouped.add(similar)) pending.add(similar);
+                }
+            }
+            if (group.size() > 1) groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * write the session snapshot in the background: the images with their sizes and hashes, the current layout and
+     * the thumbnails of the visible images, see {@link SessionSnapshot}. Call it on the FX thread
+     *
+     * @param file the snapshot file
+     * @return completed when the snapshot is written
+     */
+    public CompletableFuture<Void> saveSession(final Path file) {
+        final List<SessionSnapshot.Entry> entries = new ArrayList<>(children.size());
+        final Map<ImageContainer, Integer> index = new IdentityHashMap<>();
+        for (final ImageContainer image : children) {
+            final SessionSnapshot.Entry entry = SessionSnapshot.Entry.of(image);
+            if (entry == null) continue;
+            index.put(image, entries.size());
+            entries.add(entry);
+        }
+        // the layout is only valid with all images
+        final List<SessionSnapshot.Row> rows = new ArrayList<>();
+        if (entries.size() == children.size() && containers.stream().mapToInt(row -> row.getImages().size()).sum() == entries.size()) {
+            containers.forEach(row -> rows.add(new SessionSnapshot.Row(row.getImages().size(), row.getRowStartHight(), row.getRowEndHight())));
+        }
+        final List<Integer> thumbnailIndex = new ArrayList<>();
+        final List<ImageKey> thumbnailKeys = new ArrayList<>();
+        final List<Image> thumbnailImages = new ArrayList<>();
+        final double scale = getOutputScale();
+        for (final ImageContainer image : visibleImages) {
+            final Integer position = index.get(image);
+            if (position == null) continue;
+            final ImageKey key = imageCache.findNearest(new ImageKey(image.getCacheKey(), (int) Math.round(image.getScaledY() * scale)));
+            final Image thumbnail = key != null ? imageCache.get(key) : null;
+            if (thumbnail == null) continue;
+            thumbnailIndex.add(position);
+            thumbnailKeys.add(key);
+            thumbnailImages.add(thumbnail);
+        }
+        final double width = getWidth();
+        final double maxHight = maxImageHightProperty.get();
+        final double maxWidth = maxImageWidthProperty.get();
+        final double padding = paddingProperty.get();
+        final double zoom = zoomFactorProperty.get();
+        final double lineBreakThreshold = lineBreakThresholdProperty.get();
+        final double currentOffset = offset;
+        final long revision = renderRevision;
+        sessionWrite = sessionWrite.handle((result, error) -> null).thenRunAsync(() -> {
+            final List<SessionSnapshot.Thumbnail> thumbnails = new ArrayList<>(thumbnailImages.size());
+            for (int i = 0; i < thumbnailImages.size(); i++) {
+                thumbnails.add(new SessionSnapshot.Thumbnail(thumbnailIndex.get(i), thumbnailKeys.get(i).getHight(), PixelBuffer.of(thumbnailImages.get(i))));
+            }
+            try {
+                new SessionSnapshot(width, maxHight, maxWidth, padding, zoom, lineBreakThreshold, currentOffset, entries, rows, thumbnails).write(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            savedRevision = revision;
+        });
+        return sessionWrite;
+    }
+
+    /**
+     * write the session periodically when the panel changed, see {@link #saveSession(Path)}
+     *
+     * @param file     the snapshot file
+     * @param interval the time between the writes, null to stop
+     */
+    public void autosaveSession(final Path file, final Duration interval) {
+        if (autosave != null) autosave.stop();
+        if (interval == null) {
+            autosave = null;
+            return;
+        }
+        autosave = new Timeline(new KeyFrame(interval, event -> {
+            if (renderRevision == savedRevision) return;
+            saveSession(file).whenComplete((result, error) -> {
+                if (error != null) LOGGER.log(System.Logger.Level.WARNING, "cannot write the session to " + file, error);
+            });
+        }));
+        autosave.setCycleCount(Animation.INDEFINITE);
+        autosave.play();
+    }
+
+    /**
+     * show the images of a session snapshot, call it on the FX thread before adding other images. The images are
+     * created with the sizes of the snapshot without reading them, the thumbnails are cached and the layout is used
+     * as is when the panel settings did not change. Afterwards the images are compared with the file system in the
+     * background, modified images are replaced and removed images removed, see {@link #syncImages(Collection, Collection)}.
+     * Images of the snapshot the panel already shows are skipped.
+     *
+     * @param snapshot the snapshot, see {@link SessionSnapshot#read(Path)}
+     * @return completed when the images are validated
+     */
+    public CompletableFuture<Void> restoreSession(final SessionSnapshot snapshot) {
+        final double maxHight = maxImageHightProperty.get();
+        final double maxWidth = maxImageWidthProperty.get();
+        final boolean empty = children.isEmpty();
+        final List<SessionSnapshot.Entry> entries = snapshot.getEntries();
+        final ImageContainer[] restored = new ImageContainer[entries.size()];
+        final List<ImageContainer> added = new ArrayList<>(entries.size());
+        for (int i = 0; i < restored.length; i++) {
+            final SessionSnapshot.Entry entry = entries.get(i);
+            if (childrenByKey.containsKey(entry.getSource().getKey())) continue;
+            final ImageContainer container = entry.createContainer(factory, imageCache, decodeScheduler, snapshot.getMaxHight(), maxWidth);
+            container.setMaxHight(maxHight);
+            container.setHashListener(this::indexHash);
+            restored[i] = container;
+            added.add(container);
+        }
+        for (final SessionSnapshot.Thumbnail thumbnail : snapshot.getThumbnails()) {
+            final ImageContainer container = thumbnail.getIndex() < restored.length ? restored[thumbnail.getIndex()] : null;
+            if (container == null) continue;
+            imageCache.put(new ImageKey(container.getCacheKey(), thumbnail.getHight()), thumbnail.getPixels().toImage());
+        }
+        updatingChildren = true;
+        try {
+            children.addAll(added);
+        } finally {
+            updatingChildren = false;
+        }
+        offset = snapshot.getOffset();
+        final GraphicsContext gc = getGraphicsContext2D();
+        if (empty && added.size() == entries.size() && snapshot.hasLayout(getWidth(), maxHight, paddingProperty.get(),
+                zoomFactorProperty.get(), lineBreakThresholdProperty.get())) {
+            containers = restoreLayout(gc, snapshot, restored);
+        } else {
+            containers = paintImages(gc, children);
+        }
+        return CompletableFuture.runAsync(() -> validateSession(entries, restored));
+    }
+
+    /**
+     * apply the rows of the snapshot without computing the layout
+     */
+    private List<RowContainer> restoreLayout(final GraphicsContext gc, final SessionSnapshot snapshot, final ImageContainer[] restored) {
+        final List<SessionSnapshot.Entry> entries = snapshot.getEntries();
+        final List<RowContainer> rows = new ArrayList<>(snapshot.getRows().size());
+        int index = 0;
+        for (final SessionSnapshot.Row stored : snapshot.getRows()) {
+            final RowContainer row = new RowContainer();
+            row.setMaxWitdht(getWidth());
+            row.setRowStartHight(stored.getStart());
+            row.setRowEndHight(stored.getEnd());
+            for (int i = 0; i < stored.getSize() && index < restored.length; i++, index++) {
+                entries.get(index).layout(restored[index]);
+                row.add(restored[index]);
+            }
+            rows.add(row);
+        }
+        final double height = this.getHeight();
+        currentMaxHight = (computeMaxRowHight(rows) - height) + (paddingProperty.getValue() / 2);
+        offset = Math.min(0d, Math.max(-Math.max(0d, currentMaxHight), offset));
+        final double start = offset * -1;
+        renderCanvas(rows, gc, start, start + height + (height * clippingOffset), offset);
+        return rows;
+    }
+
+    /**
+     * compare the restored images with the file system, runs in the background
+     */
+    private void validateSession(final List<SessionSnapshot.Entry> entries, final ImageContainer[] restored) {
+        final List<Path> changed = new ArrayList<>();
+        final List<Path> removed = new ArrayList<>();
+        final List<ImageSource> changedSources = new ArrayList<>();
+        for (int i = 0; i < restored.length; i++) {
+            if (restored[i] == null) continue;
+            final SessionSnapshot.Entry entry = entries.get(i);
+            final Path path = entry.getSource().getPath();
+            switch (entry.validate()) {
+                case MODIFIED:
+                    if (path != null) {
+                        changed.add(path);
+                    } else {
+                        changedSources.add(entry.getSource());
+                    }
+                    break;
+                case REMOVED:
+                    removed.add(path);
+                    break;
+                default:
+                    break;
+            }
+        }
+        syncImages(changed, removed);
+        refreshSources(changedSources);
+    }
+
+    private double getOutputScale() {
+        final Scene scene = getScene();
+        if (scene == null || scene.getWindow() == null) return 1d;
+        return scene.getWindow().getOutputScaleY();
+    }
+
+    private void indexHash(final ImageContainer image) {
+        // containers not (yet or any longer) shown are indexed when added
+        if (childrenByKey.get(image.getSource().getKey()) == image) similarityIndex.add(image, image.getPerceptualHash());
+    }
+
+    /**
+     * The scheduler running the image decodes, use it to change the number of workers or to decode selection previews
+     *
+     * @return the decode scheduler
+     */
+    public DecodeScheduler getDecodeScheduler() {
+        return decodeScheduler;
+    }
+
     private void registerMaxHightListener(final GraphicsContext gc) {
-        maxImageHightProperty.addListener(change -> containers = paintImages(gc, children));
+        maxImageHightProperty.addListener(change -> {
+            final double maxHight = maxImageHightProperty.get();
+            children.forEach(container -> container.setMaxHight(maxHight));
+            containers = paintImages(gc, children);
+        });
     }
 
     private void registerZoomListener(final GraphicsContext gc) {
@@ -189,7 +739,28 @@ public class CanvasPanel extends Canvas {
 
 
     private void registerChildListener(final GraphicsContext gc) {
-        children.addListener((ListChangeListener) change -> containers = paintImages(gc, children));
+        children.addListener((ListChangeListener) change -> {
+            if (!updatingChildren) containers = paintImages(gc, children);
+        });
+    }
+
+    private void registerChildPathListener() {
+        children.addListener((ListChangeListener<ImageContainer>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(image -> {
+                    childrenByKey.remove(image.getSource().getKey(), image);
+                    similarityIndex.remove(image);
+                });
+                change.getAddedSubList().forEach(image -> {
+                    childrenByKey.put(image.getSource().getKey(), image);
+                    if (image.hasPerceptualHash()) similarityIndex.add(image, image.getPerceptualHash());
+                });
+            }
+        });
+    }
+
+    private void registerLayoutSettled(final GraphicsContext gc) {
+        layoutSettled.setOnFinished(event -> visibleImages.forEach(image -> image.requestExactSize(gc)));
     }
 
     private void registerScroll(final GraphicsContext gc) {
@@ -279,15 +850,34 @@ public class CanvasPanel extends Canvas {
     }
 
     private List<RowContainer> paintImages(final GraphicsContext gc, final List<ImageContainer> all) {
-        if (all == null || all.isEmpty()) return Collections.emptyList();
+        return paintImages(gc, all, null, 0d);
+    }
+
+    /**
+     * layout and render, the anchor image keeps its position on screen
+     *
+     * @param anchor  the image to keep in place, or null
+     * @param anchorY the start of the anchor before the layout
+     */
+    private List<RowContainer> paintImages(final GraphicsContext gc, final List<ImageContainer> all, final ImageContainer anchor, final double anchorY) {
+        if (all == null || all.isEmpty()) {
+            gc.clearRect(0, 0, getWidth(), getHeight());
+            visibleImages = Collections.emptyList();
+            return Collections.emptyList();
+        }
         final List<RowContainer> containers = createContainer(all);
+        // pending decodes are re-prioritized by the new positions
+        decodeScheduler.setPositionsChanged();
         final double allRowHight = computeMaxRowHight(containers);
         final double height = this.getHeight();
         final double currentZoom = zoomFactorProperty.doubleValue();
         if (currentZoom < 1d) offset = offset * currentZoom;
+        currentMaxHight = (allRowHight - height) + (paddingProperty.getValue() / 2);
+        if (anchor != null) {
+            offset = Math.min(0d, Math.max(-Math.max(0d, currentMaxHight), offset - (anchor.getStartY() - anchorY)));
+        }
         final double start = offset * -1;
         final double end = start + height + (height * clippingOffset);
-        currentMaxHight = (allRowHight - height) + (paddingProperty.getValue() / 2);
         renderCanvas(containers, gc, start, end, offset);
 
 
@@ -297,14 +887,21 @@ public class CanvasPanel extends Canvas {
     private void renderCanvas(final List<RowContainer> containers, final GraphicsContext gc, final double start, final double end, final double offset) {
 
         gc.clearRect(0, 0, getWidth(), getHeight());
+        renderRevision++;
+        decodeScheduler.setViewport(start, start + getHeight());
+        final List<ImageContainer> visible = new ArrayList<>();
         containers.forEach(container -> container.
                         getImages().
                         stream().
                         filter(imgElem -> filterImagesVisible(start, end, imgElem)).
-                        forEach(c ->
-                                        c.drawImageToCanvas(gc, container.getRowStartHight() + offset)
+                        forEach(c -> {
+                                    c.drawImageToCanvas(gc, container.getRowStartHight() + offset);
+                                    visible.add(c);
+                                }
                         )
         );
+        visibleImages = visible;
+        layoutSettled.playFromStart();
     }
 
     private boolean filterImagesVisible(double start, double end, ImageContainer imgElem) {
@@ -0,0 +1,119 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * A fast fingerprint of the image content: the size and a 64 bit hash of three sampled blocks (start, middle, end).
+ * Exact copies (exports, copies across folders) have equal fingerprints. Only the samples are compared, so images
+ * of equal size differing only between the samples collide, which is rare for compressed images, as any change
+ * of the pixels or the metadata changes the header or shifts the data behind it. Uncompressed formats (BMP, TIFF)
+ * have equal sizes for equal dimensions and keep the pixels in place, their whole content is hashed.
+ * Deflated ZIP entries would be inflated up to the last sample, they use the CRC-32 of the whole entry from the
+ * central directory instead.
+ */
+public final class ContentFingerprint {
+    private static final int BLOCK = 4096;
+    /**
+     * the read size when the whole content is hashed
+     */
+    private static final int CHUNK = 1024 * 1024;
+
+    private final long size;
+    private final long hash;
+
+    private ContentFingerprint(final long size, final long hash) {
+        this.size = size;
+        this.hash = hash;
+    }
+
+    /**
+     * read the samples of the source
+     *
+     * @param source the image source
+     * @return the fingerprint, null if the size of the source is unknown
+     * @throws IOException
+     */
+    public static ContentFingerprint of(final ImageSource source) throws IOException {
+        final long size = source.getSize();
+        if (size < 0) return null;
+        if (source instanceof ZipImageSource && !((ZipImageSource) source).isStored()) {
+            return new ContentFingerprint(size, ((ZipImageSource) source).getCrc());
+        }
+        final CRC32C crc32c = new CRC32C();
+        final CRC32 crc32 = new CRC32();
+        if (size <= 3 * BLOCK) {
+            update(source.read(0, (int) size), crc32c, crc32);
+        } else if (isUncompressed(source.read(0, 4))) {
+            for (long position = 0; position < size; position += CHUNK) {
+                final ByteBuffer chunk = source.read(position, (int) Math.min(CHUNK, size - position));
+                if (!chunk.hasRemaining()) break;
+                update(chunk, crc32c, crc32);
+            }
+        } else {
+            update(source.read(0, BLOCK), crc32c, crc32);
+            update(source.read(size / 2 - BLOCK / 2, BLOCK), crc32c, crc32);
+            update(source.read(size - BLOCK, BLOCK), crc32c, crc32);
+        }
+        return new ContentFingerprint(size, crc32c.getValue() << 32 | crc32.getValue());
+    }
+
+    /**
+     * @return the fingerprint of known values, e.g. restored from a session
+     */
+    static ContentFingerprint of(final long size, final long hash) {
+        return new ContentFingerprint(size, hash);
+    }
+
+    /**
+     * @param header the first bytes of the source
+     * @return true for BMP and TIFF, which are mostly stored uncompressed
+     */
+    private static boolean isUncompressed(final ByteBuffer header) {
+        if (header.remaining() < 4) return false;
+        final int p = header.position();
+        final int c1 = header.get(p) & 0xFF;
+        final int c2 = header.get(p + 1) & 0xFF;
+        final int c3 = header.get(p + 2) & 0xFF;
+        final int c4 = header.get(p + 3) & 0xFF;
+        return (c1 == 'B' && c2 == 'M')
+                || (c1 == 'I' && c2 == 'I' && c3 == 42 && c4 == 0)
+                || (c1 == 'M' && c2 == 'M' && c3 == 0 && c4 == 42);
+    }
+
+    private static void update(final ByteBuffer block, final CRC32C crc32c, final CRC32 crc32) {
+        crc32c.update(block.duplicate());
+        crc32.update(block.duplicate());
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContentFingerprint)) return false;
+        final ContentFingerprint other = (ContentFingerprint) o;
+        return size == other.size && hash == other.hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash) * 31 + Long.hashCode(size);
+    }
+
+    @Override
+    public String toString() {
+        return "ContentFingerprint{" +
+                "size=" + size +
+                ", hash=" + Long.toHexString(hash) +
+                '}';
+    }
+}
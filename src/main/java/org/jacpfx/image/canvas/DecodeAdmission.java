@@ -0,0 +1,123 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the memory used by concurrent decodes. Each decode acquires its expected decoded size (width * height * 4
+ * of the full image, before any downscaling) from a shared byte budget and waits while the budget is exhausted.
+ * Images above the oversize limit should be decoded subsampled, see {@link SubsampledDecoder}.
+ */
+public class DecodeAdmission {
+    private static final int BYTES_PER_PERMIT = 1024;
+    private static final DecodeAdmission DEFAULT = new DecodeAdmission();
+
+    private final Semaphore permits;
+    private final int maxPermits;
+    private volatile long oversizeBytes;
+
+    /**
+     * @param maxBytes      the budget for all decodes in flight
+     * @param oversizeBytes decodes larger than this should use the subsampled path
+     */
+    public DecodeAdmission(final long maxBytes, final long oversizeBytes) {
+        this.maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / BYTES_PER_PERMIT));
+        this.permits = new Semaphore(maxPermits, true);
+        this.oversizeBytes = oversizeBytes;
+    }
+
+    /**
+     * a quarter of the heap for decodes in flight, images above a quarter of this budget are subsampled
+     */
+    public DecodeAdmission() {
+        this(Runtime.getRuntime().maxMemory() / 4, Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    /**
+     * The admission shared by all schedulers not created with an explicit admission
+     *
+     * @return the default admission
+     */
+    public static DecodeAdmission getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * the decoded size of the full image
+     *
+     * @param metadata the probed image header
+     * @return the size in bytes
+     */
+    public static long estimateBytes(final ImageMetadata metadata) {
+        return (long) metadata.getWidth() * metadata.getHeight() * 4;
+    }
+
+    /**
+     * the decoded size of the full image and the file content read into memory
+     *
+     * @param metadata the probed image header
+     * @param source   the image source
+     * @return the size in bytes
+     * @throws IOException
+     */
+    public static long estimateBytes(final ImageMetadata metadata, final ImageSource source) throws IOException {
+        return estimateBytes(metadata) + ImageReaderPool.getBufferedBytes(source);
+    }
+
+    /**
+     * the size of a subsampled decode, including the converted pixel buffer and the file content read into memory
+     *
+     * @param metadata    the probed image header
+     * @param targetHight the hight of the thumbnail
+     * @param source      the image source
+     * @return the size in bytes
+     * @throws IOException
+     */
+    public static long estimateSubsampledBytes(final ImageMetadata metadata, final int targetHight, final ImageSource source) throws IOException {
+        final int subsampling = SubsampledDecoder.getSubsampling(metadata.getHeight(), targetHight);
+        return estimateBytes(metadata) / ((long) subsampling * subsampling) * 2 + ImageReaderPool.getBufferedBytes(source);
+    }
+
+    public boolean isOversized(final long bytes) {
+        return bytes > oversizeBytes;
+    }
+
+    /**
+     * run the decode when the expected bytes are available, a decode larger than the budget runs alone
+     *
+     * @param bytes  the expected decoded size
+     * @param decode the decode
+     * @param <T>    the result type
+     * @return the decode result
+     * @throws Exception
+     */
+    public <T> T admit(final long bytes, final Callable<T> decode) throws Exception {
+        final int required = (int) Math.max(1, Math.min(maxPermits, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+        permits.acquire(required);
+        try {
+            return decode.call();
+        } finally {
+            permits.release(required);
+        }
+    }
+
+    /**
+     * @return the bytes currently available for decodes
+     */
+    public long getAvailableBytes() {
+        return (long) permits.availablePermits() * BYTES_PER_PERMIT;
+    }
+
+    public long getMaxBytes() {
+        return (long) maxPermits * BYTES_PER_PERMIT;
+    }
+
+    public long getOversizeBytes() {
+        return oversizeBytes;
+    }
+
+    public void setOversizeBytes(final long oversizeBytes) {
+        this.oversizeBytes = oversizeBytes;
+    }
+}
@@ -0,0 +1,444 @@
+package org.jacpfx.image.canvas;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Runs image decodes on own worker threads. Pending thumbnails are ordered by the distance of their position
+ * to the viewport centre, thumbnails inside the viewport always run before thumbnails outside (prefetch).
+ * Prefetch work never occupies all workers, so a visible thumbnail never waits behind prefetch work.
+ * Selection previews have an own lane, running before all thumbnails. Previews of thumbnails inside the viewport
+ * (e.g. embedded EXIF thumbnails) run before the visible thumbnails, previews outside run as prefetch.
+ * With {@link IoOrder#LOCALITY} the thumbnails of a priority band are ordered by their storage location instead.
+ */
+public class DecodeScheduler {
+
+    public enum Lane {
+        /**
+         * previews of selected images
+         */
+        SELECTION,
+        /**
+         * previews of thumbnails inside the viewport
+         */
+        PREVIEW,
+        /**
+         * thumbnails inside the viewport
+         */
+        VISIBLE,
+        /**
+         * thumbnails outside the viewport
+         */
+        PREFETCH
+    }
+
+    public enum IoOrder {
+        /**
+         * by the distance to the viewport centre
+         */
+        VIEWPORT,
+        /**
+         * by priority bands, the viewport and the following viewport heights around it, and by storage location
+         * (folder, inode) in each band. Avoids the seeks of random reads on spinning disks and NAS mounts
+         */
+        LOCALITY
+    }
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Task<?>> selection = new ArrayDeque<>();
+    private PriorityQueue<Task<?>> previews;
+    private PriorityQueue<Task<?>> visible;
+    private PriorityQueue<Task<?>> prefetch;
+    private final AtomicLong sequence = new AtomicLong();
+    private final DecodeAdmission admission;
+
+    private double viewportStart;
+    private double viewportEnd = Double.MAX_VALUE;
+    /**
+     * the layout changed, the positions of the pending thumbnails are read again with the next viewport
+     */
+    private boolean positionsChanged;
+    private IoOrder ioOrder = IoOrder.VIEWPORT;
+    private int workers;
+    private int runningWorkers;
+    private int runningPrefetch;
+    private boolean shutdown;
+
+    /**
+     * the decodes share the default memory admission, see {@link DecodeAdmission#getDefault()}
+     *
+     * @param workers the number of worker threads, at least two, one is always reserved for visible thumbnails and selections
+     */
+    public DecodeScheduler(final int workers) {
+        this(workers, DecodeAdmission.getDefault());
+    }
+
+    /**
+     * @param workers   the number of worker threads, at least two, one is always reserved for visible thumbnails and selections
+     * @param admission the memory admission control for the decodes
+     */
+    public DecodeScheduler(final int workers, final DecodeAdmission admission) {
+        this.admission = admission;
+        this.previews = new PriorityQueue<>(64, createComparator());
+        this.visible = new PriorityQueue<>(64, createComparator());
+        this.prefetch = new PriorityQueue<>(64, createComparator());
+        setWorkers(workers);
+    }
+
+    /**
+     * The scheduler shared by all containers not created with an explicit scheduler
+     *
+     * @return the default scheduler
+     */
+    public static DecodeScheduler getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * submit a thumbnail decode, the lane is chosen by the position relative to the viewport
+     *
+     * @param position the vertical position of the image centre
+     * @param task     the decode
+     * @param <T>      the result type
+     * @return the result, cancel it to drop a pending decode
+     */
+    public <T> CompletableFuture<T> submit(final double position, final Callable<T> task) {
+        return submit(position, null, task);
+    }
+
+    /**
+     * submit a thumbnail decode, the lane is chosen by the position relative to the viewport
+     *
+     * @param position the vertical position of the image centre
+     * @param location the storage location of the image, used by {@link IoOrder#LOCALITY}, may be null
+     * @param task     the decode
+     * @param <T>      the result type
+     * @return the result, cancel it to drop a pending decode
+     */
+    public <T> CompletableFuture<T> submit(final double position, final IoLocation location, final Callable<T> task) {
+        return submit(() -> position, location, task);
+    }
+
+    /**
+     * submit a thumbnail decode, the lane is chosen by the position relative to the viewport. The position is read
+     * again when the viewport or the layout changes, while the decode is pending
+     *
+     * @param position the vertical position of the image centre
+     * @param location the storage location of the image, used by {@link IoOrder#LOCALITY}, may be null
+     * @param task     the decode
+     * @param <T>      the result type
+     * @return the result, cancel it to drop a pending decode
+     */
+    public <T> CompletableFuture<T> submit(final DoubleSupplier position, final IoLocation location, final Callable<T> task) {
+        return submit(new Task<>(position, location, sequence.getAndIncrement(), false, task));
+    }
+
+    /**
+     * submit the decode of a preview, inside the viewport it runs before all thumbnails
+     *
+     * @param position the vertical position of the image centre
+     * @param location the storage location of the image, used by {@link IoOrder#LOCALITY}, may be null
+     * @param task     the decode
+     * @param <T>      the result type
+     * @return the result, cancel it to drop a pending decode
+     */
+    public <T> CompletableFuture<T> submitPreview(final DoubleSupplier position, final IoLocation location, final Callable<T> task) {
+        return submit(new Task<>(position, location, sequence.getAndIncrement(), true, task));
+    }
+
+    private <T> CompletableFuture<T> submit(final Task<T> task) {
+        synchronized (lock) {
+            if (shutdown) {
+                task.result.completeExceptionally(new RejectedExecutionException("the decode scheduler is shut down"));
+                return task.result;
+            }
+            queueFor(task).add(task);
+            lock.notifyAll();
+        }
+        return task.result;
+    }
+
+    /**
+     * submit the decode of a selection preview, running before all thumbnails
+     *
+     * @param task the decode
+     * @param <T>  the result type
+     * @return the result
+     */
+    public <T> CompletableFuture<T> submitSelection(final Callable<T> task) {
+        final Task<T> t = new Task<>(() -> 0, null, sequence.getAndIncrement(), false, task);
+        synchronized (lock) {
+            if (shutdown) {
+                t.result.completeExceptionally(new RejectedExecutionException("the decode scheduler is shut down"));
+                return t.result;
+            }
+            selection.add(t);
+            lock.notifyAll();
+        }
+        return t.result;
+    }
+
+    /**
+     * set the visible area, all pending thumbnails are re-prioritized
+     *
+     * @param start the start of the viewport
+     * @param end   the end of the viewport
+     */
+    public void setViewport(final double start, final double end) {
+        synchronized (lock) {
+            if (start == viewportStart && end == viewportEnd && !positionsChanged) return;
+            viewportStart = start;
+            viewportEnd = end;
+            reorder();
+        }
+    }
+
+    /**
+     * the images moved by a new layout, the next {@link #setViewport(double, double)} re-prioritizes all pending
+     * thumbnails by their current positions, even when the viewport did not change
+     */
+    public void setPositionsChanged() {
+        synchronized (lock) {
+            positionsChanged = true;
+        }
+    }
+
+    /**
+     * set the order of the pending thumbnails, all pending thumbnails are re-prioritized
+     *
+     * @param ioOrder the order
+     */
+    public void setIoOrder(final IoOrder ioOrder) {
+        synchronized (lock) {
+            if (this.ioOrder == ioOrder) return;
+            this.ioOrder = ioOrder;
+            reorder();
+        }
+    }
+
+    public IoOrder getIoOrder() {
+        synchronized (lock) {
+            return ioOrder;
+        }
+    }
+
+    /**
+     * sort the pending thumbnails into new queues by their current positions, called with the lock held
+     */
+    private void reorder() {
+        final List<Task<?>> pending = new ArrayList<>(previews.size() + visible.size() + prefetch.size());
+        pending.addAll(previews);
+        pending.addAll(visible);
+        pending.addAll(prefetch);
+        pending.forEach(Task::updatePosition);
+        positionsChanged = false;
+        previews = new PriorityQueue<>(Math.max(64, pending.size()), createComparator());
+        visible = new PriorityQueue<>(Math.max(64, pending.size()), createComparator());
+        prefetch = new PriorityQueue<>(Math.max(64, pending.size()), createComparator());
+        pending.stream().filter(t -> !t.result.isDone()).forEach(t -> queueFor(t).add(t));
+        lock.notifyAll();
+    }
+
+    /**
+     * change the number of worker threads
+     *
+     * @param workers the number of worker threads, at least two
+     */
+    public void setWorkers(final int workers) {
+        synchronized (lock) {
+            if (shutdown) return;
+            this.workers = Math.max(2, workers);
+            while (runningWorkers < this.workers) {
+                runningWorkers++;
+                final Thread thread = new Thread(this::work, "image-decode-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                thread.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * cancel the pending decodes and stop the workers once their running decodes finished, further submits fail
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            if (shutdown) return;
+            shutdown = true;
+            workers = 0;
+            final List<Task<?>> pending = new ArrayList<>();
+            pending.addAll(selection);
+            pending.addAll(previews);
+            pending.addAll(visible);
+            pending.addAll(prefetch);
+            selection.clear();
+            previews.clear();
+            visible.clear();
+            prefetch.clear();
+            pending.forEach(task -> task.result.cancel(false));
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isShutdown() {
+        synchronized (lock) {
+            return shutdown;
+        }
+    }
+
+    /**
+     * The admission control limiting the memory of concurrent decodes
+     *
+     * @return the decode admission
+     */
+    public DecodeAdmission getAdmission() {
+        return admission;
+    }
+
+    public int getWorkers() {
+        synchronized (lock) {
+            return workers;
+        }
+    }
+
+    /**
+     * @return the number of pending decodes
+     */
+    public int getPending() {
+        synchronized (lock) {
+            return selection.size() + previews.size() + visible.size() + prefetch.size();
+        }
+    }
+
+    private PriorityQueue<Task<?>> queueFor(final Task<?> task) {
+        if (task.position < viewportStart || task.position > viewportEnd) return prefetch;
+        return task.preview ? previews : visible;
+    }
+
+    private Comparator<Task<?>> createComparator() {
+        final double centre = viewportEnd == Double.MAX_VALUE ? viewportStart : (viewportStart + viewportEnd) / 2;
+        if (ioOrder == IoOrder.LOCALITY && viewportEnd != Double.MAX_VALUE && viewportEnd > viewportStart) {
+            // the viewport is band 0, each further band is one viewport hight (half above and half below)
+            final double band = viewportEnd - viewportStart;
+            return Comparator.<Task<?>>comparingLong(t -> (long) ((Math.abs(t.position - centre) + band / 2) / band)).
+                    thenComparing(t -> t.location, Comparator.nullsLast(Comparator.<IoLocation>naturalOrder())).
+                    thenComparingLong(t -> t.sequence);
+        }
+        return Comparator.<Task<?>>comparingDouble(t -> Math.abs(t.position - centre)).thenComparingLong(t -> t.sequence);
+    }
+
+    private void work() {
+        while (true) {
+            final Task<?> task;
+            final boolean isPrefetch;
+            synchronized (lock) {
+                Task<?> next;
+                while ((next = next()) == null) {
+                    if (runningWorkers > workers) {
+                        runningWorkers--;
+                        return;
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        runningWorkers--;
+                        return;
+                    }
+                }
+                task = next;
+                isPrefetch = task.lane == Lane.PREFETCH;
+                if (isPrefetch) runningPrefetch++;
+            }
+            try {
+                task.run();
+            } finally {
+                if (isPrefetch) {
+                    synchronized (lock) {
+                        runningPrefetch--;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * take the next runnable task, prefetch is limited to leave one worker for visible thumbnails, previews and selections
+     */
+    private Task<?> next() {
+        Task<?> next = poll(selection, Lane.SELECTION);
+        if (next == null) next = poll(previews, Lane.PREVIEW);
+        if (next == null) next = poll(visible, Lane.VISIBLE);
+        if (next == null && runningPrefetch < workers - 1) next = poll(prefetch, Lane.PREFETCH);
+        return next;
+    }
+
+    private Task<?> poll(final Queue<Task<?>> queue, final Lane lane) {
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            // skip cancelled tasks
+            if (!task.result.isDone()) {
+                task.lane = lane;
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * started with the first use, panels with own schedulers do not start its workers
+     */
+    private static final class DefaultHolder {
+        private static final DecodeScheduler DEFAULT = new DecodeScheduler(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static final class Task<T> {
+        private final DoubleSupplier positionSupplier;
+        private final IoLocation location;
+        private final long sequence;
+        private final boolean preview;
+        private final Callable<T> callable;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private Lane lane;
+        /**
+         * the position read at submit or the last reorder, fixed while queued
+         */
+        private double position;
+
+        private Task(final DoubleSupplier positionSupplier, final IoLocation location, final long sequence, final boolean preview,
+                     final Callable<T> callable) {
+            this.positionSupplier = positionSupplier;
+            this.location = location;
+            this.sequence = sequence;
+            this.preview = preview;
+            this.callable = callable;
+            this.position = positionSupplier.getAsDouble();
+        }
+
+        private void updatePosition() {
+            if (!result.isDone()) position = positionSupplier.getAsDouble();
+        }
+
+        private void run() {
+            if (result.isDone()) return;
+            try {
+                result.complete(callable.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.jacpfx.image.canvas;
 
+import javafx.application.Platform;
 import javafx.scene.image.Image;
 
 import java.nio.file.Path;
@@ -10,7 +11,13 @@ import java.nio.file.Path;
 public class DefaultImageFactory implements ImageFactory {
     @Override
     public Image createImage(Path imagePath,double maxWidth, double maxHight) throws Exception{
-        return new Image(imagePath.toFile().toURI().toURL().toExternalForm(),0d,maxHight*2,true,false,true);
+        return createImage(imagePath, maxWidth, maxHight, 2d);
 
     }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier) throws Exception {
+        // load in background only on the FX thread, decode workers load synchronously
+        return new Image(imagePath.toFile().toURI().toURL().toExternalForm(), 0d, maxHight * tier, true, false, Platform.isFxApplicationThread());
+    }
 }
@@ -0,0 +1,263 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Walks directory trees in parallel and emits the image files in batches while the walk is running, so the first
+ * images can be shown long before a large tree is walked completely. Every directory is a task on an own fork-join
+ * pool, its parallelism bounds the concurrent directory reads. Hidden and system folders are skipped, symbolic
+ * links are not followed.
+ */
+public class DirectoryScanner {
+    /**
+     * the image extensions accepted without checking the content
+     */
+    public static final Set<String> EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "bmp", "tif", "tiff")));
+    private static final Set<String> SYSTEM_FOLDERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "$recycle.bin", "system volume information", "lost+found", "@eadir")));
+    /**
+     * the virtual file systems, skipped below the root folder only
+     */
+    private static final Set<String> ROOT_SYSTEM_FOLDERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "proc", "sys", "dev", "run")));
+    /**
+     * batches are emitted at least this often while files are found
+     */
+    private static final long MAX_BATCH_DELAY = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final int parallelism;
+    private final int batchSize;
+    private final boolean magicBytes;
+
+    public DirectoryScanner() {
+        this(Runtime.getRuntime().availableProcessors(), 256, false);
+    }
+
+    /**
+     * @param parallelism the maximum number of directories read concurrently
+     * @param batchSize   the number of paths emitted at once
+     * @param magicBytes  detect images by their first bytes instead of the extension, opens every file
+     */
+    public DirectoryScanner(final int parallelism, final int batchSize, final boolean magicBytes) {
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.magicBytes = magicBytes;
+    }
+
+    /**
+     * walk the trees, the batches are emitted on the scanner threads
+     *
+     * @param roots   the folders to walk, files are checked directly
+     * @param batches receives the image paths, called concurrently
+     * @return the number of images found, completed when the walk is finished
+     */
+    public CompletableFuture<Long> scan(final List<Path> roots, final Consumer<List<Path>> batches) {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final Batcher batcher = new Batcher(batches);
+        final CompletableFuture<Long> result = CompletableFuture.supplyAsync(() -> {
+            final List<DirectoryTask> tasks = new ArrayList<>();
+            final List<Path> files = new ArrayList<>();
+            for (final Path root : roots) {
+                if (Files.isDirectory(root)) {
+                    tasks.add(new DirectoryTask(root, batcher));
+                } else if (accept(root)) {
+                    files.add(root);
+                }
+            }
+            batcher.add(files);
+            long count = files.size();
+            for (final DirectoryTask task : RecursiveTask.invokeAll(tasks)) {
+                count += task.join();
+            }
+            batcher.flush();
+            return count;
+        }, pool);
+        result.whenComplete((count, error) -> pool.shutdown());
+        return result;
+    }
+
+    /**
+     * @param file a regular file
+     * @return true if the file is an image
+     */
+    public boolean accept(final Path file) {
+        if (isHidden(file)) return false;
+        return magicBytes ? isImage(file) : hasImageExtension(file);
+    }
+
+    /**
+     * @param directory a directory
+     * @return true if the directory should be walked
+     */
+    public boolean acceptDirectory(final Path directory) {
+        final Path name = directory.getFileName();
+        if (name == null) return true;
+        final String folder = name.toString().toLowerCase(Locale.ROOT);
+        final Path parent = directory.toAbsolutePath().getParent();
+        final boolean belowRoot = parent != null && parent.getParent() == null;
+        return !(isHidden(directory) || SYSTEM_FOLDERS.contains(folder) || (belowRoot && ROOT_SYSTEM_FOLDERS.contains(folder)));
+    }
+
+    public static boolean hasImageExtension(final Path file) {
+        return hasImageExtension(file.getFileName().toString());
+    }
+
+    /**
+     * @param name a file name, e.g. of an archive entry
+     * @return true if the name ends with an image extension
+     */
+    public static boolean hasImageExtension(final String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * check the signature of JPEG, PNG, GIF, BMP and TIFF
+     *
+     * @param file the file
+     * @return true if the file starts with a known image signature
+     */
+    public static boolean isImage(final Path file) {
+        final byte[] header = new byte[4];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read = 0;
+            while (read < header.length) {
+                final int n = is.read(header, read, header.length - read);
+                if (n < 0) return false;
+                read += n;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        final int b0 = header[0] & 0xFF;
+        final int b1 = header[1] & 0xFF;
+        final int b2 = header[2] & 0xFF;
+        final int b3 = header[3] & 0xFF;
+        return (b0 == 0xFF && b1 == 0xD8 && b2 == 0xFF)
+                || (b0 == 137 && b1 == 'P' && b2 == 'N' && b3 == 'G')
+                || (b0 == 'G' && b1 == 'I' && b2 == 'F')
+                || (b0 == 'B' && b1 == 'M')
+                || (b0 == 'M' && b1 == 'M' && b2 == 0 && b3 == 42)
+                || (b0 == 'I' && b1 == 'I' && b2 == 42 && b3 == 0);
+    }
+
+    private static boolean isHidden(final Path path) {
+        final Path name = path.getFileName();
+        if (name == null) return false;
+        if (name.toString().startsWith(".")) return true;
+        try {
+            return Files.isHidden(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads one directory, forks its sub directories
+     */
+    private final class DirectoryTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final Path directory;
+        private final Batcher batcher;
+
+        private DirectoryTask(final Path directory, final Batcher batcher) {
+            this.directory = directory;
+            this.batcher = batcher;
+        }
+
+        @Override
+        protected Long compute() {
+            final List<DirectoryTask> subdirectories = new ArrayList<>();
+            final List<Path> images = new ArrayList<>();
+            long count = 0;
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (final Path entry : entries) {
+                    final BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (!acceptDirectory(entry)) continue;
+                        final DirectoryTask task = new DirectoryTask(entry, batcher);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else if (attributes.isRegularFile() && accept(entry)) {
+                        images.add(entry);
+                        if (images.size() >= batchSize) {
+                            count += images.size();
+                            batcher.add(new ArrayList<>(images));
+                            images.clear();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // no access, skip the directory
+            }
+            if (!images.isEmpty()) {
+                count += images.size();
+                batcher.add(images);
+            }
+            for (final DirectoryTask task : subdirectories) {
+                count += task.join();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Collects the images of all directories, emits a batch when it is full or the last batch is too long ago
+     */
+    private final class Batcher {
+        private final Consumer<List<Path>> batches;
+        private List<Path> pending = new ArrayList<>();
+        private long lastEmit = System.nanoTime();
+
+        private Batcher(final Consumer<List<Path>> batches) {
+            this.batches = batches;
+        }
+
+        private void add(final List<Path> images) {
+            if (images.isEmpty()) return;
+            final List<Path> batch;
+            synchronized (this) {
+                pending.addAll(images);
+                if (pending.size() < batchSize && System.nanoTime() - lastEmit < MAX_BATCH_DELAY) return;
+                batch = pending;
+                pending = new ArrayList<>();
+                lastEmit = System.nanoTime();
+            }
+            batches.accept(batch);
+        }
+
+        private void flush() {
+            final List<Path> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            batches.accept(batch);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Draws the thumbnail embedded in the EXIF data of JPEG files (typically 160x120) as a low resolution preview,
+ * while the decorated factory decodes the thumbnail in full resolution. The embedded thumbnail is located by the
+ * metadata probe and read with one small positioned read, usually within the first 64KB of the file.
+ */
+public class ExifPreviewImageFactory extends ImageFactoryDecorator {
+    /**
+     * larger embedded images are no thumbnails (some cameras embed a full screen preview), skip them
+     */
+    private static final int MAX_THUMBNAIL_BYTES = 64 * 1024;
+
+    public ExifPreviewImageFactory(final ImageFactory delegate) {
+        super(delegate);
+    }
+
+    /**
+     * decode the embedded thumbnail, rotated upright and centre cropped to the aspect ratio of the slot
+     */
+    @Override
+    public Image createPreview(ImageSource source, ImageMetadata metadata, double width, double hight) throws Exception {
+        final ByteBuffer bytes = readThumbnail(source, metadata);
+        if (bytes == null) return super.createPreview(source, metadata, width, hight);
+        final Image thumbnail = new Image(new ByteArrayInputStream(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining()));
+        if (thumbnail.isError() || thumbnail.getWidth() <= 0) return null;
+        final int orientation = metadata.getOrientation();
+        final int thumbnailWidth = (int) thumbnail.getWidth();
+        final int thumbnailHight = (int) thumbnail.getHeight();
+        // the size after the rotation, embedded thumbnails are stored like the image
+        final int uprightWidth = orientation >= 5 ? thumbnailHight : thumbnailWidth;
+        final int uprightHight = orientation >= 5 ? thumbnailWidth : thumbnailHight;
+        final ImagePipeline pipeline = ImagePipeline.create().orient(orientation);
+        if (width > 0 && hight > 0) {
+            // most cameras letterbox the 4:3 thumbnail of 3:2 images, crop to the slot
+            final double aspect = width / hight;
+            final int cropWidth = (int) Math.min(uprightWidth, Math.round(uprightHight * aspect));
+            final int cropHight = (int) Math.min(uprightHight, Math.round(uprightWidth / aspect));
+            if (cropWidth < uprightWidth - 1 || cropHight < uprightHight - 1) {
+                pipeline.crop((uprightWidth - cropWidth) / 2, (uprightHight - cropHight) / 2, cropWidth, cropHight);
+            }
+        }
+        return pipeline.apply(thumbnail);
+    }
+
+    @Override
+    public boolean hasPreviews() {
+        return true;
+    }
+
+    /**
+     * read the bytes of the embedded EXIF thumbnail
+     *
+     * @param source   the image source
+     * @param metadata the probed metadata of the source
+     * @return the JPEG bytes of the thumbnail, null if there is none
+     * @throws IOException
+     */
+    public static ByteBuffer readThumbnail(final ImageSource source, final ImageMetadata metadata) throws IOException {
+        if (metadata == null || !metadata.hasThumbnail() || metadata.getThumbnailLength() > MAX_THUMBNAIL_BYTES) return null;
+        final ByteBuffer buffer = source.read(metadata.getThumbnailOffset(), metadata.getThumbnailLength());
+        if (buffer.remaining() < metadata.getThumbnailLength()) return null;
+        if (!buffer.hasArray()) {
+            // e.g. a slice of a mapped file
+            final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+            copy.put(buffer.duplicate()).flip();
+            return copy;
+        }
+        return buffer;
+    }
+}
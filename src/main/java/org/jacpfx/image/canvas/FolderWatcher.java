@@ -0,0 +1,216 @@
+package org.jacpfx.image.canvas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a panel in sync with its folders. The folder trees are watched with a WatchService, bursts of events
+ * (e.g. a copy of many files, or a file written in chunks) are collected until the folders are quiet for a moment and
+ * then applied as one change: changed images are replaced, new images appended, deleted images removed. When the
+ * event queue overflowed, the folders are scanned again and compared with the panel.
+ */
+public class FolderWatcher implements Closeable {
+    /**
+     * the quiet time after the last event before the changes are applied
+     */
+    private static final long DEBOUNCE = TimeUnit.MILLISECONDS.toNanos(250);
+    /**
+     * the changes of a continuous burst are applied at least this often
+     */
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toNanos(2);
+
+    private final CanvasPanel panel;
+    private final DirectoryScanner scanner;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> folders = new ConcurrentHashMap<>();
+    private final Set<Path> watched = ConcurrentHashMap.newKeySet();
+    private final List<Path> roots = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+
+    /**
+     * @param panel   the panel to update
+     * @param scanner the scanner deciding which files and folders are watched
+     * @throws IOException
+     */
+    public FolderWatcher(final CanvasPanel panel, final DirectoryScanner scanner) throws IOException {
+        this.panel = panel;
+        this.scanner = scanner;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "folder-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * watch the folder trees
+     *
+     * @param folders the folders
+     * @throws IOException
+     */
+    public void watch(final List<Path> folders) throws IOException {
+        for (final Path folder : folders) {
+            roots.add(folder);
+            register(folder);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+    /**
+     * register the folder and all accepted sub folders, which are not yet watched
+     */
+    private void register(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && !scanner.acceptDirectory(dir)) return FileVisitResult.SKIP_SUBTREE;
+                if (watched.add(dir)) {
+                    folders.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run() {
+        final Set<Path> touched = new LinkedHashSet<>();
+        boolean overflow = false;
+        long firstEvent = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final long now = System.nanoTime();
+                final WatchKey key;
+                if (touched.isEmpty() && !overflow) {
+                    key = watchService.take();
+                    firstEvent = System.nanoTime();
+                } else {
+                    final long wait = Math.min(DEBOUNCE, firstEvent + MAX_DELAY - now);
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+                if (key == null) {
+                    // quiet for the debounce time, or the burst takes too long
+                    apply(touched, overflow);
+                    touched.clear();
+                    overflow = false;
+                    continue;
+                }
+                final Path folder = folders.get(key);
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else if (folder != null) {
+                        touched.add(folder.resolve((Path) event.context()));
+                    }
+                }
+                // the folder was deleted
+                if (!key.reset()) {
+                    final Path deleted = folders.remove(key);
+                    if (deleted != null) watched.remove(deleted);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * translate the touched paths to panel changes, by comparing the file system with the panel
+     */
+    private void apply(final Set<Path> touched, final boolean overflow) {
+        if (overflow) {
+            resync();
+            return;
+        }
+        final List<Path> changed = new ArrayList<>();
+        final List<Path> removed = new ArrayList<>();
+        final List<Path> created = new ArrayList<>();
+        for (final Path path : touched) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (scanner.acceptDirectory(path) && !watched.contains(path)) created.add(path);
+            } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (scanner.accept(path)) changed.add(path);
+            } else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                // a deleted image or folder
+                removed.add(path);
+            }
+        }
+        panel.syncImages(changed, removed);
+        for (final Path folder : created) {
+            try {
+                register(folder);
+            } catch (IOException e) {
+                continue;
+            }
+            // files copied before the folder was registered
+            panel.scan(scanner, Collections.singletonList(folder));
+        }
+    }
+
+    /**
+     * events were lost, scan the folders and apply the difference to the panel
+     */
+    private void resync() {
+        final Set<Path> found = ConcurrentHashMap.newKeySet();
+        try {
+            scanner.scan(new ArrayList<>(roots), found::addAll).join();
+        } catch (RuntimeException e) {
+            return;
+        }
+        final Set<Path> known = panel.getImagePaths();
+        final List<Path> added = new ArrayList<>();
+        for (final Path path : found) {
+            if (!known.contains(path)) added.add(path);
+        }
+        final List<Path> removed = new ArrayList<>();
+        for (final Path path : known) {
+            if (!found.contains(path) && isBelowRoot(path)) removed.add(path);
+        }
+        panel.syncImages(added, removed);
+        for (final Path root : roots) {
+            try {
+                // folders created while the events were lost
+                register(root);
+            } catch (IOException e) {
+                // watched after the next overflow
+            }
+        }
+    }
+
+    private boolean isBelowRoot(final Path path) {
+        for (final Path root : roots) {
+            if (path.startsWith(root)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,367 @@
+package org.jacpfx.image.canvas;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads thumbnails from the freedesktop.org thumbnail cache (~/.cache/thumbnails), which file managers on Linux
+ * already filled. The cache file is the MD5 of the file URI, it is valid when its Thumb::MTime matches the
+ * modification time of the image. When no valid thumbnail is large enough, the decorated factory decodes the image,
+ * optionally the result is written back to the cache by a low priority background thread.
+ * Cached thumbnails are upright, so the EXIF orientation is not applied to them. Decorate factories creating the
+ * full image in createImage, crops (e.g. square) must be part of the pipeline.
+ */
+public class FreedesktopThumbnailFactory extends ImageFactoryDecorator {
+    private static final System.Logger LOGGER = System.getLogger(FreedesktopThumbnailFactory.class.getName());
+    /**
+     * the cache folders by the maximum thumbnail size, ascending
+     */
+    private static final String[] FOLDERS = {"normal", "large", "x-large", "xx-large"};
+    private static final int[] SIZES = {128, 256, 512, 1024};
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final String KEY_URI = "Thumb::URI";
+    private static final String KEY_MTIME = "Thumb::MTime";
+    /**
+     * other programs write to the cache, longer text chunks are treated as a corrupt thumbnail
+     */
+    private static final int MAX_TEXT_LENGTH = 64 * 1024;
+    private static final int IHDR_LENGTH = 13;
+    /**
+     * the pending write backs, further thumbnails are dropped instead of holding more decoded images
+     */
+    private static final int MAX_PENDING_WRITES = 32;
+    /**
+     * writes the thumbnails after the images are returned to the decode workers
+     */
+    private static final ExecutorService WRITER = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_WRITES), runnable -> {
+        final Thread thread = new Thread(runnable, "thumbnail-write-back");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private final Path root;
+    private final boolean writeBack;
+    /**
+     * the images loaded from the cache, which are already upright
+     */
+    private final Set<Image> cached = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /**
+     * read only access to the thumbnail cache of the user
+     *
+     * @param delegate the factory decoding images without a cached thumbnail
+     */
+    public FreedesktopThumbnailFactory(final ImageFactory delegate) {
+        this(delegate, getDefaultRoot(), false);
+    }
+
+    /**
+     * @param delegate  the factory decoding images without a cached thumbnail
+     * @param root      the thumbnail cache folder
+     * @param writeBack write the decoded thumbnails to the cache
+     */
+    public FreedesktopThumbnailFactory(final ImageFactory delegate, final Path root, final boolean writeBack) {
+        super(delegate);
+        this.root = root;
+        this.writeBack = writeBack;
+    }
+
+    /**
+     * @return $XDG_CACHE_HOME/thumbnails, by default ~/.cache/thumbnails
+     */
+    public static Path getDefaultRoot() {
+        final String cacheHome = System.getenv("XDG_CACHE_HOME");
+        final Path base = cacheHome != null && !cacheHome.isEmpty()
+                ? Paths.get(cacheHome)
+                : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("thumbnails");
+    }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier) throws Exception {
+        return createImage(imagePath, maxWidth, maxHight, tier, false);
+    }
+
+    /**
+     * huge images profit most from a cached thumbnail, the decorated factory subsamples them on a miss
+     */
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        final int hight = (int) Math.round(maxHight * tier);
+        final Path thumbnail = findThumbnail(imagePath, hight);
+        if (thumbnail != null) {
+            final Image image = new Image(thumbnail.toUri().toString(), 0d, hight, true, false, Platform.isFxApplicationThread());
+            if (!image.isError()) {
+                cached.add(image);
+                return image;
+            }
+        }
+        final Image image = super.createImage(imagePath, maxWidth, maxHight, tier, subsample);
+        if (writeBack) WRITER.execute(() -> writeThumbnail(imagePath, image));
+        return image;
+    }
+
+    @Override
+    public Image postProcess(Image image, double maxHight, double maxWidth, int orientation) {
+        return super.postProcess(image, maxHight, maxWidth, cached.contains(image) ? 1 : orientation);
+    }
+
+    /**
+     * find a valid cached thumbnail, at least as high as requested
+     *
+     * @param imagePath the image file
+     * @param hight     the requested hight
+     * @return the thumbnail file, null if none is valid and large enough
+     */
+    public Path findThumbnail(final Path imagePath, final int hight) {
+        try {
+            final String uri = getUri(imagePath);
+            final String name = getName(uri);
+            final long mtime = getMTime(imagePath);
+            for (int i = 0; i < SIZES.length; i++) {
+                // the hight of a thumbnail is at most its size
+                if (SIZES[i] < hight) continue;
+                final Path thumbnail = root.resolve(FOLDERS[i]).resolve(name);
+                final PngInfo info = PngInfo.read(thumbnail);
+                if (info == null || info.height < hight) continue;
+                if (!String.valueOf(mtime).equals(info.text.get(KEY_MTIME))) continue;
+                final String thumbnailUri = info.text.get(KEY_URI);
+                if (thumbnailUri != null && !thumbnailUri.equals(uri)) continue;
+                return thumbnail;
+            }
+        } catch (IOException e) {
+            // no access to the image or the cache, decode the image
+        }
+        return null;
+    }
+
+    /**
+     * write the decoded image to the largest cache folder it covers, scaled to the folder size
+     */
+    private void writeThumbnail(final Path imagePath, final Image image) {
+        if (image.getProgress() < 1.0 || image.isError() || imagePath.startsWith(root)) return;
+        try {
+            final ImageMetadata metadata = new ImageMetadata(imagePath.toFile());
+            final int orientation = metadata.getOrientation();
+            final PixelBuffer upright = ImagePipeline.create().orient(orientation).apply(PixelBuffer.of(image));
+            // unknown or empty sizes give no aspect ratio to compare
+            if (metadata.getWidth() <= 0 || metadata.getHeight() <= 0 || upright.getWidth() <= 0 || upright.getHeight() <= 0) return;
+            // factories cropping in createImage must not fill the cache
+            final double aspect = (double) metadata.getWidth() / metadata.getHeight();
+            if (Math.abs((double) upright.getWidth() / upright.getHeight() - aspect) > aspect * 0.02d) return;
+            final int longest = Math.max(upright.getWidth(), upright.getHeight());
+            int folder = -1;
+            for (int i = 0; i < SIZES.length; i++) {
+                if (SIZES[i] <= longest) folder = i;
+            }
+            if (folder < 0) return;
+            final String uri = getUri(imagePath);
+            final Path target = root.resolve(FOLDERS[folder]).resolve(getName(uri));
+            final PngInfo existing = PngInfo.read(target);
+            final long mtime = getMTime(imagePath);
+            if (existing != null && String.valueOf(mtime).equals(existing.text.get(KEY_MTIME))) return;
+            final double scale = (double) SIZES[folder] / longest;
+            final PixelBuffer thumbnail = scale < 1d
+                    ? ImageScaler.scaleToHight(upright, Math.max(1, (int) Math.round(upright.getHeight() * scale)), getScalingFilter(), null)
+                    : upright;
+            final Map<String, String> text = new HashMap<>();
+            text.put(KEY_URI, uri);
+            text.put(KEY_MTIME, String.valueOf(mtime));
+            writePng(thumbnail, text, target);
+        } catch (IOException e) {
+            // the cache is optional
+        } catch (RuntimeException e) {
+            // the writer thread discards failures silently, report them
+            LOGGER.log(System.Logger.Level.WARNING, "cannot write the thumbnail of " + imagePath, e);
+        }
+    }
+
+    /**
+     * write to a temporary file and move it in place, so readers never see a partial thumbnail
+     */
+    private void writePng(final PixelBuffer thumbnail, final Map<String, String> text, final Path target) throws IOException {
+        final Path folder = target.getParent();
+        if (!Files.isDirectory(folder)) {
+            Files.createDirectories(folder);
+            setPermissions(folder, "rwx------");
+        }
+        final BufferedImage image = toBufferedImage(thumbnail);
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        final Path temp = Files.createTempFile(folder, "jacpfx", ".png");
+        try {
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+                writer.setOutput(out);
+                final ImageWriteParam param = writer.getDefaultWriteParam();
+                final IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+                final String format = "javax_imageio_png_1.0";
+                final IIOMetadataNode textNode = new IIOMetadataNode("tEXt");
+                text.forEach((key, value) -> {
+                    final IIOMetadataNode entry = new IIOMetadataNode("tEXtEntry");
+                    entry.setAttribute("keyword", key);
+                    entry.setAttribute("value", value);
+                    textNode.appendChild(entry);
+                });
+                final IIOMetadataNode rootNode = new IIOMetadataNode(format);
+                rootNode.appendChild(textNode);
+                metadata.mergeTree(format, rootNode);
+                writer.write(null, new IIOImage(image, null, metadata), param);
+            } finally {
+                writer.dispose();
+            }
+            setPermissions(temp, "rw-------");
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static BufferedImage toBufferedImage(final PixelBuffer buffer) {
+        final int width = buffer.getWidth();
+        final int height = buffer.getHeight();
+        final int[] pixels = buffer.getPixels();
+        final int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = PixelConversions.unpremultiply(pixels[i]);
+        }
+        PixelConversions.count(PixelConversions.Kind.UNPREMULTIPLY, argb.length);
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    private static void setPermissions(final Path path, final String permissions) {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+        } catch (UnsupportedOperationException | IOException e) {
+            // not a POSIX file system
+        }
+    }
+
+    /**
+     * @param imagePath the image file
+     * @return the absolute file URI, e.g. file:///home/user/a%20b.jpg
+     */
+    static String getUri(final Path imagePath) {
+        return imagePath.toAbsolutePath().normalize().toUri().toASCIIString();
+    }
+
+    /**
+     * @param uri the file URI
+     * @return the name of the thumbnail file, the lower case hex MD5 of the URI
+     */
+    static String getName(final String uri) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(uri.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for (final byte b : digest) {
+                name.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long getMTime(final Path imagePath) throws IOException {
+        return Files.getLastModifiedTime(imagePath).to(TimeUnit.SECONDS);
+    }
+
+    /**
+     * The size and the text chunks of a PNG, read up to the first image data. A truncated or corrupt PNG is read as
+     * null, so the image is decoded instead
+     */
+    private static final class PngInfo {
+        private final Map<String, String> text = new HashMap<>();
+        private int width;
+        private int height;
+
+        private static PngInfo read(final Path png) throws IOException {
+            try (InputStream in = Files.newInputStream(png)) {
+                final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+                final byte[] signature = new byte[PNG_SIGNATURE.length];
+                data.readFully(signature);
+                for (int i = 0; i < signature.length; i++) {
+                    if (signature[i] != PNG_SIGNATURE[i]) return null;
+                }
+                final PngInfo info = new PngInfo();
+                while (true) {
+                    final int length = data.readInt();
+                    final byte[] type = new byte[4];
+                    data.readFully(type);
+                    final String chunk = new String(type, StandardCharsets.ISO_8859_1);
+                    if ("IDAT".equals(chunk) || "IEND".equals(chunk)) return info;
+                    if (length < 0) return null;
+                    if ("IHDR".equals(chunk) && length != IHDR_LENGTH) return null;
+                    if ("tEXt".equals(chunk) && length > MAX_TEXT_LENGTH) return null;
+                    if ("IHDR".equals(chunk) || "tEXt".equals(chunk)) {
+                        final byte[] content = new byte[length];
+                        data.readFully(content);
+                        info.read(chunk, content);
+                    } else {
+                        data.skipBytes(length);
+                    }
+                    // crc
+                    data.skipBytes(4);
+                }
+            } catch (NoSuchFileException | EOFException e) {
+                return null;
+            }
+        }
+
+        private void read(final String chunk, final byte[] content) {
+            if ("IHDR".equals(chunk)) {
+                width = (content[0] & 0xFF) << 24 | (content[1] & 0xFF) << 16 | (content[2] & 0xFF) << 8 | content[3] & 0xFF;
+                height = (content[4] & 0xFF) << 24 | (content[5] & 0xFF) << 16 | (content[6] & 0xFF) << 8 | content[7] & 0xFF;
+                return;
+            }
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == 0) {
+                    text.put(new String(content, 0, i, StandardCharsets.ISO_8859_1),
+                            new String(content, i + 1, content.length - i - 1, StandardCharsets.ISO_8859_1));
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * An image on a HTTP server. The header probe and the EXIF thumbnail are fetched with range requests, only the
+ * decode downloads the complete image. All sources share one HttpClient by default, so the requests to a host reuse
+ * the pooled connections, on HTTP/2 they are multiplexed on one connection.
+ * The validators (ETag, Last-Modified) of the last response are kept, {@link #isModified()} checks them with a
+ * conditional GET before cached thumbnails are used again.
+ */
+public final class HttpImageSource implements ImageSource {
+    /**
+     * the first probe window, enough for images without large EXIF data
+     */
+    private static final int HEADER_WINDOW = 16 * 1024;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static volatile HttpClient defaultClient;
+
+    private final HttpClient client;
+    private final URI uri;
+    private volatile long size = -1;
+    private volatile String etag;
+    private volatile String lastModified;
+
+    public HttpImageSource(final URI uri) {
+        this(getDefaultClient(), uri);
+    }
+
+    /**
+     * @param client the client, share it between the sources of a host to reuse the connections
+     * @param uri    the image
+     */
+    public HttpImageSource(final HttpClient client, final URI uri) {
+        this.client = client;
+        this.uri = uri;
+    }
+
+    /**
+     * @return the client shared by the sources without an own client
+     */
+    public static HttpClient getDefaultClient() {
+        HttpClient client = defaultClient;
+        if (client == null) {
+            synchronized (HttpImageSource.class) {
+                client = defaultClient;
+                if (client == null) {
+                    client = HttpClient.newBuilder().
+                            version(HttpClient.Version.HTTP_2).
+                            followRedirects(HttpClient.Redirect.NORMAL).
+                            connectTimeout(Duration.ofSeconds(10)).
+                            build();
+                    defaultClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    @Override
+    public Object getKey() {
+        return uri;
+    }
+
+    @Override
+    public String getName() {
+        return uri.toString();
+    }
+
+    /**
+     * @return the size known from the last response, -1 before the first request
+     */
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public ByteBuffer read(final long position, final int length) throws IOException {
+        if (length <= 0) return ByteBuffer.allocate(0);
+        final HttpResponse<InputStream> response = send(request().
+                header("Range", "bytes=" + position + "-" + (position + length - 1)).
+                build());
+        try (InputStream in = response.body()) {
+            switch (response.statusCode()) {
+                case 206:
+                    update(response.headers(), true);
+                    return readBody(in, length);
+                case 200:
+                    // no range support, read the range from the complete content and abort the download
+                    update(response.headers(), false);
+                    skipFully(in, position);
+                    return readBody(in, length);
+                case 416:
+                    // the range starts behind the end
+                    return ByteBuffer.allocate(0);
+                default:
+                    throw new IOException("HTTP " + response.statusCode() + " " + uri);
+            }
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        final HttpResponse<InputStream> response = send(request().build());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("HTTP " + response.statusCode() + " " + uri);
+        }
+        update(response.headers(), false);
+        return response.body();
+    }
+
+    /**
+     * probe a small window first, most images need a single round trip of a few KB
+     */
+    @Override
+    public ImageMetadata probe() throws IOException {
+        return ImageSource.probe(this, HEADER_WINDOW, PROBE_WINDOW);
+    }
+
+    /**
+     * check the validators of the last response with a conditional GET of the first byte, the image is not
+     * downloaded. When it was modified, the new validators are kept and the thumbnails of the image should be
+     * invalidated, see {@link CanvasPanel#refreshSources(java.util.Collection)}
+     *
+     * @return true if the image was modified, or there are no validators to check
+     * @throws IOException
+     */
+    public boolean isModified() throws IOException {
+        final String tag = etag;
+        final String modified = lastModified;
+        if (tag == null && modified == null) return true;
+        final HttpRequest.Builder request = request().header("Range", "bytes=0-0");
+        if (tag != null) {
+            request.header("If-None-Match", tag);
+        } else {
+            request.header("If-Modified-Since", modified);
+        }
+        final HttpResponse<Void> response = send(request.build(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 304) return false;
+        if (response.statusCode() >= 400) throw new IOException("HTTP " + response.statusCode() + " " + uri);
+        update(response.headers(), response.statusCode() == 206);
+        return true;
+    }
+
+    /**
+     * @return the ETag of the last response, null if unknown
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * @return the Last-Modified date of the last response, null if unknown
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * set the size and the validators of an earlier response, e.g. restored from a session, so
+     * {@link #isModified()} revalidates instead of assuming a change
+     */
+    void restoreValidators(final long size, final String etag, final String lastModified) {
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    private HttpRequest.Builder request() {
+        return HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET();
+    }
+
+    private HttpResponse<InputStream> send(final HttpRequest request) throws IOException {
+        return send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted " + uri);
+        }
+    }
+
+    /**
+     * keep the validators and the size of a response
+     */
+    private void update(final HttpHeaders headers, final boolean partial) {
+        headers.firstValue("ETag").ifPresent(value -> etag = value);
+        headers.firstValue("Last-Modified").ifPresent(value -> lastModified = value);
+        if (partial) {
+            // Content-Range: bytes 0-16383/123456
+            headers.firstValue("Content-Range").ifPresent(range -> {
+                final int slash = range.lastIndexOf('/');
+                if (slash < 0 || range.endsWith("*")) return;
+                try {
+                    size = Long.parseLong(range.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    // unknown size
+                }
+            });
+        } else {
+            headers.firstValueAsLong("Content-Length").ifPresent(length -> size = length);
+        }
+    }
+
+    private static ByteBuffer readBody(final InputStream in, final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(bytes, read, length - read);
+            if (n < 0) break;
+            read += n;
+        }
+        return ByteBuffer.wrap(bytes, 0, read);
+    }
+
+    private static void skipFully(final InputStream in, final long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (in.read() < 0) {
+                return;
+            } else {
+                remaining--;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HttpImageSource)) return false;
+        return uri.equals(((HttpImageSource) o).uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(uri);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpImageSource{" +
+                "uri=" + uri +
+                '}';
+    }
+}
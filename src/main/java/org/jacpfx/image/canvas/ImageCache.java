@@ -0,0 +1,413 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Two tier cache for decoded thumbnails. The hot tier keeps ready to draw images, the warm tier keeps
+ * images evicted from the hot tier as QOI compressed buffers. A warm hit is decompressed and promoted
+ * back to the hot tier, which is much cheaper than decoding the original file again.
+ * Both tiers are LRU ordered and bounded by a byte budget. Compression and decompression run on a worker, never
+ * while holding the lock of the cache.
+ * With deduplication the images are cached by their content, so exact copies share one decode and one entry.
+ */
+public class ImageCache {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    /**
+     * the default worker compressing evicted images and decompressing warm hits
+     */
+    private static final Executor WORKER = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+        final Thread thread = new Thread(runnable, "image-cache-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private static final ImageCache DEFAULT = new ImageCache();
+
+    private final long maxHotBytes;
+    private final long maxWarmBytes;
+    private final Executor worker;
+
+    private final LinkedHashMap<Object, Image> hot = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<Object, byte[]> warm = new LinkedHashMap<>(256, 0.75f, true);
+    /**
+     * the images evicted from the hot tier, until the worker moved them compressed to the warm tier
+     */
+    private final Map<Object, Image> compressing = new HashMap<>();
+    /**
+     * the running decompressions of warm entries
+     */
+    private final Map<Object, CompletableFuture<Image>> promotions = new ConcurrentHashMap<>();
+    /**
+     * the cached hights of each source, for all ImageKey entries in both tiers
+     */
+    private final Map<Object, NavigableSet<Integer>> hights = new HashMap<>();
+    /**
+     * the running loads, joined by containers requesting the same key
+     */
+    private final Map<Object, CompletableFuture<?>> loads = new ConcurrentHashMap<>();
+    private volatile boolean deduplicate;
+
+    private long hotBytes;
+    private long warmBytes;
+
+    private long hotHits;
+    private long warmHits;
+    private long misses;
+
+    /**
+     * a quarter of the heap for decoded images, an eighth for compressed images
+     */
+    public ImageCache() {
+        this(Runtime.getRuntime().maxMemory() / 4, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * @param maxHotBytes  the memory budget for decoded images
+     * @param maxWarmBytes the memory budget for compressed images, 0 disables the warm tier
+     */
+    public ImageCache(final long maxHotBytes, final long maxWarmBytes) {
+        this(maxHotBytes, maxWarmBytes, WORKER);
+    }
+
+    /**
+     * @param maxHotBytes  the memory budget for decoded images
+     * @param maxWarmBytes the memory budget for compressed images, 0 disables the warm tier
+     * @param worker       compresses evicted images and decompresses warm hits
+     */
+    public ImageCache(final long maxHotBytes, final long maxWarmBytes, final Executor worker) {
+        this.maxHotBytes = maxHotBytes;
+        this.maxWarmBytes = maxWarmBytes;
+        this.worker = worker;
+    }
+
+    /**
+     * The cache shared by all containers not created with an explicit cache. The keys do not contain the factory,
+     * so containers of one source with different factories need own caches
+     *
+     * @return the default cache
+     */
+    public static ImageCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * get a decoded image from the hot tier, a warm tier entry is decompressed in background and moved to the hot
+     * tier, see {@link #promote(Object)}
+     *
+     * @param key the image key
+     * @return the image or null
+     */
+    public Image get(final Object key) {
+        synchronized (this) {
+            final Image image = hot.get(key);
+            if (image != null) {
+                hotHits++;
+                return image;
+            }
+            final Image evicted = compressing.remove(key);
+            if (evicted != null) {
+                // evicted but not yet compressed, still decoded
+                hotHits++;
+                putHot(key, evicted);
+                return evicted;
+            }
+            if (!warm.containsKey(key)) {
+                misses++;
+                return null;
+            }
+            warmHits++;
+        }
+        promote(key);
+        return null;
+    }
+
+    /**
+     * decompress a warm tier entry on the worker and move it to the hot tier, joins a running promotion
+     *
+     * @param key the image key
+     * @return the promotion, completed for hot entries, null if the key is not cached
+     */
+    public CompletableFuture<Image> promote(final Object key) {
+        final byte[] compressed;
+        synchronized (this) {
+            final Image image = hot.get(key);
+            if (image != null) return CompletableFuture.completedFuture(image);
+            compressed = warm.get(key);
+            if (compressed == null) {
+                final Image evicted = compressing.remove(key);
+                if (evicted != null) {
+                    putHot(key, evicted);
+                    return CompletableFuture.completedFuture(evicted);
+                }
+                // a promotion just moved it, or nothing is cached
+                return promotions.get(key);
+            }
+        }
+        final CompletableFuture<?>[] started = new CompletableFuture<?>[1];
+        final CompletableFuture<Image> promotion = promotions.computeIfAbsent(key, k -> {
+            final CompletableFuture<Image> decompression = CompletableFuture.supplyAsync(() -> {
+                final Image decompressed = QoiCodec.decodeImage(compressed);
+                synchronized (this) {
+                    // not invalidated or replaced meanwhile
+                    if (warm.get(key) == compressed) {
+                        removeWarm(key);
+                        putHot(key, decompressed);
+                    }
+                }
+                return decompressed;
+            }, worker);
+            started[0] = decompression;
+            return decompression;
+        });
+        if (promotion == started[0]) promotion.whenComplete((result, error) -> promotions.remove(key, promotion));
+        return promotion;
+    }
+
+    /**
+     * add a fully loaded image to the hot tier
+     *
+     * @param key   the image key
+     * @param image the image
+     */
+    public synchronized void put(final Object key, final Image image) {
+        if (image == null || image.isError() || image.getProgress() < 1d) return;
+        removeWarm(key);
+        compressing.remove(key);
+        putHot(key, image);
+    }
+
+    public synchronized boolean contains(final Object key) {
+        return hot.containsKey(key) || warm.containsKey(key) || compressing.containsKey(key);
+    }
+
+    /**
+     * find the smallest cached decode of the same source which is larger than the key
+     *
+     * @param key the image key
+     * @return the key of the larger decode or null
+     */
+    public synchronized ImageKey findLarger(final ImageKey key) {
+        final NavigableSet<Integer> cached = hights.get(key.getSource());
+        final Integer hight = cached != null ? cached.higher(key.getHight()) : null;
+        return hight != null ? new ImageKey(key.getSource(), hight) : null;
+    }
+
+    /**
+     * find the cached decode of the same source with the nearest hight, the larger one wins on equal distance
+     *
+     * @param key the image key
+     * @return the key of the nearest decode or null
+     */
+    public synchronized ImageKey findNearest(final ImageKey key) {
+        final NavigableSet<Integer> cached = hights.get(key.getSource());
+        if (cached == null) return null;
+        final Integer higher = cached.ceiling(key.getHight());
+        final Integer lower = cached.lower(key.getHight());
+        if (higher == null && lower == null) return null;
+        final int hight = higher == null || (lower != null && key.getHight() - lower < higher - key.getHight()) ? lower : higher;
+        return new ImageKey(key.getSource(), hight);
+    }
+
+    /**
+     * remove an image from both tiers
+     *
+     * @param key the image key
+     */
+    public synchronized void invalidate(final Object key) {
+        final Image image = hot.remove(key);
+        if (image != null) hotBytes -= byteSize(image);
+        removeWarm(key);
+        compressing.remove(key);
+        unindex(key);
+    }
+
+    /**
+     * remove all decodes of a source from both tiers, e.g. when the file changed
+     *
+     * @param source the image source
+     */
+    public synchronized void invalidateSource(final Object source) {
+        final NavigableSet<Integer> cached = hights.get(source);
+        if (cached == null) return;
+        for (final Integer hight : new ArrayList<>(cached)) {
+            invalidate(new ImageKey(source, hight));
+        }
+    }
+
+    /**
+     * join the running load of the key, or start it
+     *
+     * @param key    the image key
+     * @param loader starts the load
+     * @param <T>    the result type
+     * @return the running load
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> share(final Object key, final Supplier<CompletableFuture<T>> loader) {
+        final CompletableFuture<?>[] started = new CompletableFuture<?>[1];
+        final CompletableFuture<T> load = (CompletableFuture<T>) loads.computeIfAbsent(key, k -> started[0] = loader.get());
+        if (load == started[0]) load.whenComplete((result, error) -> loads.remove(key, load));
+        return load;
+    }
+
+    /**
+     * cache the images of containers created afterwards by their content fingerprint instead of their source,
+     * costs three small reads per image when the container is created
+     *
+     * @param deduplicate true to share the decodes of exact copies
+     */
+    public void setDeduplicate(final boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    public synchronized void clear() {
+        hot.clear();
+        warm.clear();
+        compressing.clear();
+        hights.clear();
+        hotBytes = 0;
+        warmBytes = 0;
+    }
+
+    private void putHot(final Object key, final Image image) {
+        final Image old = hot.put(key, image);
+        if (old != null) hotBytes -= byteSize(old);
+        hotBytes += byteSize(image);
+        index(key);
+        evictHot();
+    }
+
+    private void evictHot() {
+        final List<Map.Entry<Object, Image>> evicted = new ArrayList<>();
+        final Iterator<Map.Entry<Object, Image>> it = hot.entrySet().iterator();
+        while (hotBytes > maxHotBytes && it.hasNext()) {
+            final Map.Entry<Object, Image> eldest = it.next();
+            it.remove();
+            hotBytes -= byteSize(eldest.getValue());
+            if (maxWarmBytes <= 0) {
+                unindex(eldest.getKey());
+            } else {
+                compressing.put(eldest.getKey(), eldest.getValue());
+                evicted.add(new AbstractMap.SimpleImmutableEntry<>(eldest));
+            }
+        }
+        if (!evicted.isEmpty()) worker.execute(() -> compress(evicted));
+    }
+
+    /**
+     * compress the evicted images on the worker and move them to the warm tier, unless they were requested
+     * or invalidated meanwhile
+     */
+    private void compress(final List<Map.Entry<Object, Image>> evicted) {
+        for (final Map.Entry<Object, Image> entry : evicted) {
+            final Object key = entry.getKey();
+            synchronized (this) {
+                if (compressing.get(key) != entry.getValue()) continue;
+            }
+            final byte[] compressed = QoiCodec.encode(entry.getValue());
+            synchronized (this) {
+                if (!compressing.remove(key, entry.getValue())) continue;
+                if (!putWarm(key, compressed)) unindex(key);
+            }
+        }
+    }
+
+    private boolean putWarm(final Object key, final byte[] compressed) {
+        if (compressed.length > maxWarmBytes) return false;
+        removeWarm(key);
+        warm.put(key, compressed);
+        warmBytes += compressed.length;
+        final Iterator<Map.Entry<Object, byte[]>> it = warm.entrySet().iterator();
+        while (warmBytes > maxWarmBytes && it.hasNext()) {
+            final Map.Entry<Object, byte[]> eldest = it.next();
+            warmBytes -= eldest.getValue().length;
+            it.remove();
+            if (!key.equals(eldest.getKey())) unindex(eldest.getKey());
+        }
+        return warm.containsKey(key);
+    }
+
+    private void index(final Object key) {
+        if (!(key instanceof ImageKey)) return;
+        final ImageKey imageKey = (ImageKey) key;
+        hights.computeIfAbsent(imageKey.getSource(), source -> new TreeSet<>()).add(imageKey.getHight());
+    }
+
+    private void unindex(final Object key) {
+        if (!(key instanceof ImageKey)) return;
+        final ImageKey imageKey = (ImageKey) key;
+        final NavigableSet<Integer> cached = hights.get(imageKey.getSource());
+        if (cached == null) return;
+        cached.remove(imageKey.getHight());
+        if (cached.isEmpty()) hights.remove(imageKey.getSource());
+    }
+
+    private void removeWarm(final Object key) {
+        final byte[] old = warm.remove(key);
+        if (old != null) warmBytes -= old.length;
+    }
+
+    private static long byteSize(final Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    public synchronized long getHotBytes() {
+        return hotBytes;
+    }
+
+    public synchronized long getWarmBytes() {
+        return warmBytes;
+    }
+
+    public synchronized int getHotSize() {
+        return hot.size();
+    }
+
+    public synchronized int getWarmSize() {
+        return warm.size();
+    }
+
+    public synchronized long getHotHits() {
+        return hotHits;
+    }
+
+    public synchronized long getWarmHits() {
+        return warmHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageCache{" +
+                "hot=" + hot.size() + " (" + hotBytes + "/" + maxHotBytes + " bytes)" +
+                ", warm=" + warm.size() + " (" + warmBytes + "/" + maxWarmBytes + " bytes)" +
+                ", hotHits=" + hotHits +
+                ", warmHits=" + warmHits +
+                ", misses=" + misses +
+                '}';
+    }
+}
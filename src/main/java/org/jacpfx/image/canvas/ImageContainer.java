@@ -1,22 +1,36 @@
 package org.jacpfx.image.canvas;
 
-import javafx.scene.SnapshotParameters;
+import javafx.application.Platform;
+import javafx.scene.Scene;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
 
 import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 /**
  * Created by amo on 11.04.14.
  */
 public class ImageContainer implements Cloneable {
+    private static final System.Logger LOGGER = System.getLogger(ImageContainer.class.getName());
+    /**
+     * the sorted tiers of each factory, shared by its containers instead of a reflective lookup per image
+     */
+    private static final Map<ImageFactory, double[]> TIERS = Collections.synchronizedMap(new WeakHashMap<>());
     /**
      * start point x
      */
@@ -50,9 +64,13 @@ public class ImageContainer implements Cloneable {
      */
     private double scaleFactor = 1;
     /**
-     * the path to image
+     * the source of the image
+     */
+    private ImageSource source;
+    /**
+     * the key of the cache entries, the content fingerprint with deduplication, the source key otherwise
      */
-    private Path imagePath;
+    private final Object cacheKey;
 
     /**
      * The image creation factory
@@ -78,22 +96,79 @@ public class ImageContainer implements Cloneable {
     private double lastDrawingStartPosition;
 
     /**
-     * the image ref (maxHight * 2)
+     * the cache holding the decoded images, one per resolution tier (maxHight * tier)
+     */
+    private final ImageCache cache;
+    /**
+     * the scheduler running the decodes
+     */
+    private final DecodeScheduler scheduler;
+    /**
+     * the resolution tiers relative to maxHight, ascending
+     */
+    private final double[] tiers;
+    /**
+     * the decodes currently loading
+     */
+    private final Set<ImageKey> loading = new HashSet<>();
+    /**
+     * the key of the tier selected for the last drawing
      */
-    private transient SoftReference<Image> imageRef = new SoftReference<Image>(null);
-    private transient SoftReference<Image> imageRefOrig = new SoftReference<Image>(null);
+    private ImageKey currentKey;
+    /**
+     * the key of the thumbnail in the displayed size of the last drawing
+     */
+    private ImageKey exactKey;
+    /**
+     * the EXIF orientation of the file, set by the probe before each decode
+     */
+    private volatile int orientation = 1;
+    /**
+     * the header of the source, probed once by the first access
+     */
+    private volatile ImageMetadata metadata;
+    private volatile boolean probed;
+    /**
+     * the image ref of the selected image (with effect)
+     */
+    private transient SoftReference<Image> selectedImageRef = new SoftReference<Image>(null);
+    /**
+     * the low resolution stand-in of the factory, drawn until the first decode is cached
+     */
+    private transient SoftReference<Image> previewRef = new SoftReference<Image>(null);
+    private boolean previewRequested;
 
     private boolean selected;
+    /**
+     * the perceptual hash of the last decode, valid when hashed
+     */
+    private volatile long perceptualHash;
+    private volatile boolean hashed;
+    /**
+     * notified when the hash is set, e.g. to index it
+     */
+    private Consumer<ImageContainer> hashListener;
 
     public ImageContainer(Path imagePath, ImageFactory factory, double maxHight, double maxWidth) {
-        this.imagePath = imagePath;
-        this.factory = factory;
-        this.maxHight = maxHight;
-        this.maxWidth = maxWidth;
-        if (this.imagePath != null) {
+        this(imagePath, factory, ImageCache.getDefault(), DecodeScheduler.getDefault(), maxHight, maxWidth);
+    }
+
+    public ImageContainer(Path imagePath, ImageFactory factory, ImageCache cache, DecodeScheduler scheduler, double maxHight, double maxWidth) {
+        this(imagePath != null ? ImageSource.of(imagePath) : null, factory, cache, scheduler, maxHight, maxWidth);
+    }
+
+    public ImageContainer(ImageSource source, ImageFactory factory, double maxHight, double maxWidth) {
+        this(source, factory, ImageCache.getDefault(), DecodeScheduler.getDefault(), maxHight, maxWidth);
+    }
+
+    public ImageContainer(ImageSource source, ImageFactory factory, ImageCache cache, DecodeScheduler scheduler, double maxHight, double maxWidth) {
+        this(source, createCacheKey(source, cache), factory, cache, scheduler, maxHight, maxWidth);
+        if (this.source != null) {
 
             try {
-                final Map.Entry<Double, Double> entry = factory.getImageSize(imagePath, maxHight);
+                // the probe is kept for the decodes
+                final ImageMetadata probed = probe();
+                final Map.Entry<Double, Double> entry = probed != null ? factory.getImageSize(source, probed, maxHight) : factory.getImageSize(source, maxHight);
                 endX = entry.getKey();
                 endY = entry.getValue();
                 this.landsScape = endX > endY;
@@ -103,65 +178,370 @@ public class ImageContainer implements Cloneable {
         }
 
     }
-    // TODO add offMemory cache: https://github.com/RuedigerMoeller/fast-serialization/blob/master/src/main/java/org/nustaq/offheap/FSTAsciiStringOffheapMap.java
+
+    /**
+     * create a container of known size without probing the image, e.g. restored from a session
+     *
+     * @param fingerprint the fingerprint of the content, used as cache key with deduplication, may be null
+     * @param width       the image width for the maximum hight
+     * @param hight       the image hight for the maximum hight
+     */
+    ImageContainer(ImageSource source, ContentFingerprint fingerprint, double width, double hight, ImageFactory factory, ImageCache cache, DecodeScheduler scheduler, double maxHight, double maxWidth) {
+        this(source, cache.isDeduplicate() && fingerprint != null ? fingerprint : createCacheKey(source, cache), factory, cache, scheduler, maxHight, maxWidth);
+        this.endX = width;
+        this.endY = hight;
+        this.landsScape = endX > endY;
+    }
+
+    private ImageContainer(ImageSource source, Object cacheKey, ImageFactory factory, ImageCache cache, DecodeScheduler scheduler, double maxHight, double maxWidth) {
+        this.source = source;
+        this.cacheKey = cacheKey;
+        this.factory = factory;
+        this.cache = cache;
+        this.scheduler = scheduler;
+        this.tiers = getTiers(factory);
+        this.maxHight = maxHight;
+        this.maxWidth = maxWidth;
+        this.currentKey = getKey(tiers.length - 1);
+    }
+
+    /**
+     * @return the sorted tiers of the factory, the array is shared and must not be modified
+     */
+    private static double[] getTiers(final ImageFactory factory) {
+        return TIERS.computeIfAbsent(factory, f -> {
+            final double[] sorted = f.getResolutionTiers().clone();
+            Arrays.sort(sorted);
+            return sorted;
+        });
+    }
 
     public void drawImageToCanvas(final GraphicsContext gc, final double start) {
         lastDrawingStartPosition = start;
-        if (imageRef.get() == null) {
+        currentKey = getKey(selectTier(getScaledY() * getOutputScale(gc)));
+        exactKey = getExactKey(gc);
+        if (selected && selectedImageRef.get() != null) {
+            gc.drawImage(selectedImageRef.get(), getStartX(), start, getScaledX(), getScaledY());
+            return;
+        }
+        final Image exact = cache.get(exactKey);
+        final Image image = exact != null ? exact : getImage(gc, currentKey);
+        if (image == null) {
+            drawPreview(gc, start);
+            return;
+        }
+        drawImage(gc, image, start);
+    }
 
-            try {
-                final Image img = factory.createImage(imagePath, maxWidth, maxHight);
-                drawAsync(gc, img);
-                drawSync(gc, img);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            // TODO move placeholder creation to factory
-            if (imageRef.get() == null)
-                imageRef = new SoftReference<Image>(new Rectangle(getScaledX(), getScaledY()).snapshot(new SnapshotParameters(), null));
+    /**
+     * request the thumbnail in the displayed size, scaled down from a larger decode by the factory. Call it when the
+     * layout settled, afterwards the image is drawn 1:1 without scaling.
+     *
+     * @param gc the graphics context to draw when scaled
+     */
+    public void requestExactSize(final GraphicsContext gc) {
+        final ImageKey key = getExactKey(gc);
+        if (selected || cache.contains(key) || loading.contains(key)) return;
+        final ImageKey larger = cache.findLarger(key);
+        final CompletableFuture<Image> source = larger != null ? cache.promote(larger) : null;
+        // nothing decoded yet, the next settled layout will try again
+        if (source == null) return;
+        exactKey = key;
+        loading.add(key);
+        scaleAsync(gc, source, key);
+    }
+
+    /**
+     * draw the image in its slot, a thumbnail in the displayed size is drawn 1:1
+     */
+    private void drawImage(final GraphicsContext gc, final Image image, final double start) {
+        final double scale = getOutputScale(gc);
+        if (Math.round(getScaledY() * scale) == (long) image.getHeight()) {
+            gc.drawImage(image, getStartX(), start, image.getWidth() / scale, image.getHeight() / scale);
+        } else {
+            gc.drawImage(image, getStartX(), start, getScaledX(), getScaledY());
+        }
+    }
+
+    /**
+     * get the image of the requested tier, when not yet loaded the tier is requested and the nearest loaded decode is returned
+     *
+     * @param gc  the graphics context to draw when loaded
+     * @param key the key of the requested tier
+     * @return the image or null if nothing is loaded
+     */
+    private Image getImage(final GraphicsContext gc, final ImageKey key) {
+        final Image image = cache.get(key);
+        if (image != null) return image;
+        loadImage(gc, key);
+        final ImageKey nearest = cache.findNearest(key);
+        return nearest != null ? cache.get(nearest) : null;
+    }
+
+    /**
+     * select the smallest tier covering the hight on screen
+     *
+     * @param hight the hight in device pixel
+     * @return the index of the tier
+     */
+    private int selectTier(final double hight) {
+        for (int i = 0; i < tiers.length; i++) {
+            if (maxHight * tiers[i] >= hight) return i;
+        }
+        return tiers.length - 1;
+    }
+
+    private double getOutputScale(final GraphicsContext gc) {
+        final Scene scene = gc.getCanvas().getScene();
+        if (scene == null || scene.getWindow() == null) return 1d;
+        return scene.getWindow().getOutputScaleY();
+    }
+
+    private ImageKey getKey(final int tier) {
+        return new ImageKey(getCacheKey(), (int) Math.round(maxHight * tiers[tier]));
+    }
+
+    private ImageKey getExactKey(final GraphicsContext gc) {
+        return new ImageKey(getCacheKey(), Math.max(1, (int) Math.round(getScaledY() * getOutputScale(gc))));
+    }
+
+    private double getTier(final ImageKey key) {
+        return key.getHight() / maxHight;
+    }
+
+    /**
+     * the factories decode in stored orientation, for orientations 5 - 8 the upright hight is the stored width
+     *
+     * @param key      the key of the requested tier
+     * @param metadata the probed metadata, width and hight are upright
+     * @return the tier of the stored hight, so the upright image has the hight of the key
+     */
+    private double getDecodeTier(final ImageKey key, final ImageMetadata metadata) {
+        final double tier = getTier(key);
+        if (metadata.getOrientation() < 5 || metadata.getWidth() <= 0 || metadata.getHeight() <= 0) return tier;
+        return tier * metadata.getWidth() / metadata.getHeight();
+    }
+
+    /**
+     * load the image for the key, a larger cached decode is downscaled in a worker, otherwise the image is decoded by the factory
+     *
+     * @param gc  the graphics context to draw when loaded
+     * @param key the key of the requested tier
+     */
+    private void loadImage(final GraphicsContext gc, final ImageKey key) {
+        if (!loading.add(key)) return;
+        // a compressed entry is decompressed on a worker
+        final CompletableFuture<Image> compressed = cache.promote(key);
+        if (compressed != null) {
+            drawWhenCompleted(gc, compressed, key);
+            return;
+        }
+        final ImageKey larger = cache.findLarger(key);
+        final CompletableFuture<Image> source = larger != null ? cache.promote(larger) : null;
+        if (source != null) {
+            scaleAsync(gc, source, key);
+            return;
         }
-        gc.drawImage(imageRef.get(), getStartX(), start, getScaledX(), getScaledY());
+        if (cache.findNearest(key) == null) requestPreview(gc);
+        // containers of equal content join the running decode
+        cache.share(key, () -> scheduler.submit(this::getPriorityPosition, getIoLocation(), () -> postProcessWhenLoaded(decode(key)))).
+                whenComplete((decoded, error) -> Platform.runLater(() -> {
+                    if (error != null) {
+                        loadFailed(key, error);
+                    } else if (decoded.processed) {
+                        setPerceptualHash(decoded.hash);
+                        drawImageWhenFinished(gc, decoded.image, key);
+                    } else {
+                        // factories may still load in background
+                        drawAsync(gc, decoded.image, key);
+                        drawSync(gc, decoded.image, key);
+                    }
+                }));
     }
 
-    private void drawSync(GraphicsContext gc, Image img) {
+    /**
+     * post process on the worker, when the factory loaded the image synchronously
+     *
+     * @param img the decoded image
+     * @return the image, post processed if it was loaded
+     */
+    private Decoded postProcessWhenLoaded(final Image img) {
+        if (img.getProgress() < 1.0 || img.isError()) return new Decoded(img, false, 0);
+        final Image processed = factory.postProcess(img, maxHight, maxWidth, orientation);
+        // hashed from the thumbnail in the decode pass, shared with the containers joining the decode
+        return new Decoded(processed, true, PerceptualHash.dHash(processed));
+    }
+
+    /**
+     * decode on a worker, admitted by the expected decoded size, huge images are decoded subsampled
+     *
+     * @param key the key of the requested tier
+     * @return the image
+     * @throws Exception
+     */
+    private Image decode(final ImageKey key) throws Exception {
+        final DecodeAdmission admission = scheduler.getAdmission();
+        final ImageMetadata metadata = probe();
+        if (metadata == null) {
+            orientation = 1;
+            return factory.createImage(source, maxWidth, maxHight, getTier(key));
+        }
+        orientation = metadata.getOrientation();
+        final long bytes = DecodeAdmission.estimateBytes(metadata);
+        if (admission.isOversized(bytes)) {
+            // decoded subsampled by the factory chain, so crops and thumbnail caches apply
+            return admission.admit(DecodeAdmission.estimateSubsampledBytes(metadata, key.getHight(), source),
+                    () -> factory.createImage(source, maxWidth, maxHight, getDecodeTier(key, metadata), true));
+        }
+        return admission.admit(DecodeAdmission.estimateBytes(metadata, source), () -> factory.createImage(source, maxWidth, maxHight, getDecodeTier(key, metadata)));
+    }
+
+    /**
+     * probe the source once, orientation and size do not change per tier
+     *
+     * @return the metadata, null if the format is unknown
+     */
+    private ImageMetadata probe() {
+        if (probed) return metadata;
+        ImageMetadata probedMetadata;
+        try {
+            probedMetadata = source.probe();
+        } catch (IOException e) {
+            // unknown format, leave it to the factory
+            probedMetadata = null;
+        }
+        metadata = probedMetadata;
+        probed = true;
+        return probedMetadata;
+    }
+
+    /**
+     * create the preview of the factory once, drawn until the decode is finished. Factories without previews get no task
+     */
+    private void requestPreview(final GraphicsContext gc) {
+        if (previewRequested || !factory.hasPreviews()) return;
+        previewRequested = true;
+        final double width = getEndX();
+        final double hight = getEndY();
+        scheduler.
+                submitPreview(this::getPriorityPosition, getIoLocation(), () -> {
+                    // the metadata of the constructor probe
+                    final ImageMetadata metadata = probe();
+                    return metadata != null ? factory.createPreview(source, metadata, width, hight) : null;
+                }).
+                whenComplete((preview, error) -> Platform.runLater(() -> {
+                    if (error != null || preview == null) return;
+                    previewRef = new SoftReference<Image>(preview);
+                    // the decode finished first
+                    if (selected || cache.findNearest(currentKey) != null) return;
+                    gc.drawImage(preview, getStartX(), lastDrawingStartPosition, getScaledX(), getScaledY());
+                }));
+    }
+
+    private void drawPreview(final GraphicsContext gc, final double start) {
+        final Image preview = previewRef.get();
+        if (preview == null) {
+            drawPlaceholder(gc, start);
+            return;
+        }
+        gc.drawImage(preview, getStartX(), start, getScaledX(), getScaledY());
+    }
+
+    /**
+     * downscale a larger decode in a worker, once it is decompressed when it was in the warm tier
+     */
+    private void scaleAsync(final GraphicsContext gc, final CompletableFuture<Image> source, final ImageKey key) {
+        drawWhenCompleted(gc, source.thenCompose(larger ->
+                scheduler.submit(this::getPriorityPosition, null, () -> factory.scaleImage(larger, key.getHight()))), key);
+    }
+
+    private void drawWhenCompleted(final GraphicsContext gc, final CompletableFuture<Image> load, final ImageKey key) {
+        load.
+                whenComplete((image, error) -> Platform.runLater(() -> {
+                    if (error != null) {
+                        loadFailed(key, error);
+                    } else {
+                        drawImageWhenFinished(gc, image, key);
+                    }
+                }));
+    }
+
+    /**
+     * @return the vertical centre of the image, used to prioritize the decode, read again after a relayout
+     */
+    private double getPriorityPosition() {
+        return getStartY() + getScaledY() / 2;
+    }
+
+    // TODO move placeholder creation to factory
+    private void drawPlaceholder(final GraphicsContext gc, final double start) {
+        gc.save();
+        gc.setFill(Color.BLACK);
+        gc.fillRect(getStartX(), start, getScaledX(), getScaledY());
+        gc.restore();
+    }
+
+    private void drawSync(GraphicsContext gc, Image img, ImageKey key) {
         if (img.getProgress() >= 1.0) {
-            drawImageWhenFinished(gc, img);
+            drawDecodedWhenFinished(gc, img, key);
         }
     }
 
-    private void drawAsync(GraphicsContext gc, Image img) {
+    private void drawAsync(GraphicsContext gc, Image img, ImageKey key) {
         img.progressProperty().addListener((ov, oldVal, newVal) -> {
             if (newVal.doubleValue() >= 1.0) {
-                drawImageWhenFinished(gc, img);
+                drawDecodedWhenFinished(gc, img, key);
             }
 
         });
     }
 
-    private void drawImageWhenFinished(final GraphicsContext gc, final Image img) {
-        final Image image = factory.postProcess(img, maxHight, maxWidth);
-        gc.drawImage(image, getStartX(), lastDrawingStartPosition, getScaledX(), getScaledY());
-        imageRef = new SoftReference<Image>(image);
+    /**
+     * a failed load keeps its loading flag like a broken image, so it is not requested again on each paint. Only a
+     * cancelled load is requested again
+     */
+    private void loadFailed(final ImageKey key, final Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof CancellationException) {
+            loading.remove(key);
+            return;
+        }
+        LOGGER.log(System.Logger.Level.WARNING, "cannot load " + source.getName() + " at hight " + key.getHight(), cause);
+    }
+
+    private void drawDecodedWhenFinished(final GraphicsContext gc, final Image img, final ImageKey key) {
+        // keep the loading flag for broken images, so they are not requested again on each paint
+        if (!loading.contains(key) || img.isError()) return;
+        drawImageWhenFinished(gc, factory.postProcess(img, maxHight, maxWidth, orientation), key);
+    }
+
+    private void drawImageWhenFinished(final GraphicsContext gc, final Image image, final ImageKey key) {
+        if (!loading.remove(key)) return;
+        cache.put(key, image);
+        // a finished decode of an other tier must not overdraw the requested one
+        if (selected) return;
+        if (key.equals(exactKey) || (key.equals(currentKey) && !cache.contains(exactKey))) {
+            drawImage(gc, image, lastDrawingStartPosition);
+        }
     }
 
 
     // TODO move operation to ImageFactory!!
     public void drawSelectedImageOnConvas(GraphicsContext gc) {
         if (!selected) {
-            imageRefOrig = new SoftReference<Image>(imageRef.get());
-            ////
-            ImageView view = new ImageView(imageRef.get());
+            final Image image = getImage(gc, currentKey);
+            if (image == null) return;
+            ImageView view = new ImageView(image);
             view.setEffect(new DropShadow(20, 10, 10, Color.GRAY));
             final Image imageEffect = view.snapshot(null, null);
             //
             gc.drawImage(imageEffect, getStartX(), lastDrawingStartPosition, getScaledX(), getScaledY());
-            imageRef = new SoftReference<Image>(imageEffect);
+            selectedImageRef = new SoftReference<Image>(imageEffect);
             selected = true;
         } else {
-            imageRef = new SoftReference<Image>(imageRefOrig.get());
-            drawImageToCanvas(gc, lastDrawingStartPosition);
-            imageRefOrig = new SoftReference<Image>(null);
+            selectedImageRef = new SoftReference<Image>(null);
             selected = false;
+            drawImageToCanvas(gc, lastDrawingStartPosition);
         }
 
     }
@@ -214,8 +594,93 @@ public class ImageContainer implements Cloneable {
         return selected;
     }
 
+    public double getMaxHight() {
+        return maxHight;
+    }
+
+    /**
+     * Set the maximum hight, the image size is rescaled without probing the image again.
+     * Decoded images of the old hight stay cached and are downscaled to the new tiers on demand.
+     *
+     * @param maxHight the new maximum hight
+     */
+    public void setMaxHight(double maxHight) {
+        if (maxHight <= 0 || maxHight == this.maxHight) return;
+        final double factor = maxHight / this.maxHight;
+        this.maxHight = maxHight;
+        this.endX = this.endX * factor;
+        this.endY = this.endY * factor;
+        setScaleFactor(this.scaleFactor / factor);
+    }
+
+    /**
+     * @return the image file, null if the source is no local file
+     */
     public Path getImagePath() {
-        return imagePath;
+        return source != null ? source.getPath() : null;
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return the storage location when the scheduler orders by location, read once from the source
+     */
+    private IoLocation getIoLocation() {
+        if (source == null || scheduler.getIoOrder() != DecodeScheduler.IoOrder.LOCALITY) return null;
+        return source.getLocation();
+    }
+
+    /**
+     * @return true if the image was decoded and its perceptual hash is known
+     */
+    public boolean hasPerceptualHash() {
+        return hashed;
+    }
+
+    /**
+     * @return the dHash of the decoded thumbnail, see {@link PerceptualHash}
+     */
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    /**
+     * set the hash, e.g. restored from a previous session
+     *
+     * @param perceptualHash the dHash of the image
+     */
+    public void setPerceptualHash(final long perceptualHash) {
+        final boolean changed = !hashed || this.perceptualHash != perceptualHash;
+        this.perceptualHash = perceptualHash;
+        this.hashed = true;
+        final Consumer<ImageContainer> listener = hashListener;
+        if (changed && listener != null) listener.accept(this);
+    }
+
+    void setHashListener(final Consumer<ImageContainer> hashListener) {
+        this.hashListener = hashListener;
+    }
+
+    /**
+     * @return the key of the cache entries, equal for images of equal content with deduplication
+     */
+    public Object getCacheKey() {
+        return cacheKey;
+    }
+
+    private static Object createCacheKey(final ImageSource source, final ImageCache cache) {
+        if (source == null) return null;
+        if (cache.isDeduplicate()) {
+            try {
+                final ContentFingerprint fingerprint = ContentFingerprint.of(source);
+                if (fingerprint != null) return fingerprint;
+            } catch (IOException e) {
+                // cached by the source
+            }
+        }
+        return source.getKey();
     }
 
     public int getPosition() {
@@ -237,7 +702,7 @@ public class ImageContainer implements Cloneable {
                 ", scaledY=" + scaledY +
                 ", landsScape=" + landsScape +
                 ", scaleFactor=" + scaleFactor +
-                ", imagePath=" + imagePath +
+                ", source=" + source +
                 ", factory=" + factory +
                 ", maxHight=" + maxHight +
                 ", maxWidth=" + maxWidth +
@@ -252,7 +717,10 @@ public class ImageContainer implements Cloneable {
     }
 
     public void clearImageRef() {
-        imageRef.clear();
+        selectedImageRef.clear();
+        // content fingerprints are shared with the duplicates of the image, their decodes stay cached for them
+        if (cacheKey instanceof ContentFingerprint) return;
+        cache.invalidateSource(cacheKey);
     }
 
     public Object clone() {
@@ -260,4 +728,19 @@ public class ImageContainer implements Cloneable {
         this.startY = 0d;
         return this;
     }
+
+    /**
+     * A decoded image and whether it is already post processed
+     */
+    private static final class Decoded {
+        private final Image image;
+        private final boolean processed;
+        private final long hash;
+
+        private Decoded(final Image image, final boolean processed, final long hash) {
+            this.image = image;
+            this.processed = processed;
+            this.hash = hash;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package org.jacpfx.image.canvas;
 import javafx.scene.image.Image;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Map;
 
@@ -11,13 +12,186 @@ import java.util.Map;
  */
 public interface ImageFactory {
 
+    /**
+     * create the image, when called on a decode worker the image should be loaded synchronously
+     * @param imagePath
+     * @param maxWidth
+     * @param maxHight
+     * @return the image
+     * @throws Exception
+     */
     Image createImage(Path imagePath, double maxWidth, double maxHight) throws Exception;
 
+    /**
+     * create the image for a resolution tier, the image hight should be maxHight * tier.
+     * Factories without tier support always create the image in getTargetHight and get the single tier 1,
+     * see {@link #getResolutionTiers()}
+     * @param imagePath
+     * @param maxWidth
+     * @param maxHight
+     * @param tier the tier, relative to maxHight
+     * @return the image
+     * @throws Exception
+     */
+    default Image createImage(Path imagePath, double maxWidth, double maxHight, double tier) throws Exception {
+        return createImage(imagePath, maxWidth, maxHight);
+    }
 
-    default Image postProcess(Image image,double maxHight, double maxWidth) {
+    /**
+     * create the image from a source, files are created by the path based methods, other sources are decoded
+     * synchronously from their stream
+     * @param source the image source
+     * @param maxWidth
+     * @param maxHight
+     * @param tier the tier, relative to maxHight
+     * @return the image
+     * @throws Exception
+     */
+    default Image createImage(ImageSource source, double maxWidth, double maxHight, double tier) throws Exception {
+        final Path path = source.getPath();
+        if (path != null) return createImage(path, maxWidth, maxHight, tier);
+        try (InputStream in = source.openStream()) {
+            return new Image(in, 0d, maxHight * tier, true, false);
+        }
+    }
+
+    /**
+     * create the image for a resolution tier, huge images are decoded subsampled when requested, so only every
+     * n-th pixel is decoded. Factories decoding subsampled anyway or reading cached thumbnails override it
+     * @param imagePath
+     * @param maxWidth
+     * @param maxHight
+     * @param tier the tier, relative to maxHight
+     * @param subsample true if the image is too large for a full decode, see {@link DecodeAdmission#isOversized(long)}
+     * @return the image, crops of the factory are applied by the pipeline
+     * @throws Exception
+     */
+    default Image createImage(Path imagePath, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        if (!subsample) return createImage(imagePath, maxWidth, maxHight, tier);
+        return SubsampledDecoder.decode(imagePath, (int) Math.round(maxHight * tier), false).toImage();
+    }
+
+    /**
+     * create the image from a source for a resolution tier, see {@link #createImage(Path, double, double, double, boolean)}
+     * @param source the image source
+     * @param maxWidth
+     * @param maxHight
+     * @param tier the tier, relative to maxHight
+     * @param subsample true if the image is too large for a full decode
+     * @return the image
+     * @throws Exception
+     */
+    default Image createImage(ImageSource source, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        final Path path = source.getPath();
+        if (path != null) return createImage(path, maxWidth, maxHight, tier, subsample);
+        if (!subsample) return createImage(source, maxWidth, maxHight, tier);
+        return SubsampledDecoder.decode(source, (int) Math.round(maxHight * tier), false).toImage();
+    }
+
+    /**
+     * create the image from a source in getTargetHight
+     * @param source the image source
+     * @param maxWidth
+     * @param maxHight
+     * @return the image
+     * @throws Exception
+     */
+    default Image createImage(ImageSource source, double maxWidth, double maxHight) throws Exception {
+        final Path path = source.getPath();
+        if (path != null) return createImage(path, maxWidth, maxHight);
+        return createImage(source, maxWidth, maxHight, getTargetHight(maxHight) / maxHight);
+    }
+
+    /**
+     * create a low resolution preview, drawn as stand-in until the image is decoded, called on the decode worker
+     * @param source the image source
+     * @param metadata the probed metadata of the source
+     * @param width the width of the slot
+     * @param hight the hight of the slot
+     * @return the preview, or null when the factory creates no previews
+     * @throws Exception
+     */
+    default Image createPreview(ImageSource source, ImageMetadata metadata, double width, double hight) throws Exception {
+        return null;
+    }
+
+    /**
+     * @return true if the factory creates previews, otherwise the containers request none
+     */
+    default boolean hasPreviews() {
+        return false;
+    }
+
+    /**
+     * the resolution tiers relative to maxHight, the renderer picks the smallest tier covering the image hight on screen.
+     * Factories not overriding the tier method {@link #createImage(Path, double, double, double)} decode every tier in
+     * the same size, so they get one tier and no duplicate decodes. Read once per factory, the tiers must not change
+     * @return the tiers
+     */
+    default double[] getResolutionTiers() {
+        try {
+            final boolean tiered = !getClass().getMethod("createImage", Path.class, double.class, double.class, double.class).isDefault();
+            return tiered ? new double[]{0.5d, 1d, 2d} : new double[]{1d};
+        } catch (NoSuchMethodException e) {
+            return new double[]{1d};
+        }
+    }
+
+
+    /**
+     * scale a decoded image down to the hight, keeping the aspect ratio. Used to derive tiers from larger decodes
+     * and for the thumbnails in the exact displayed size, called on the decode worker
+     * @param image the decoded image
+     * @param hight the target hight in pixel
+     * @return the scaled image
+     */
+    default Image scaleImage(Image image, int hight) {
+        return ImageScaler.scaleToHight(PixelBuffer.of(image), hight, getScalingFilter(), null).toImage();
+    }
+
+    /**
+     * the filter used by scaleImage
+     * @return the filter
+     */
+    default ImageScaler.Filter getScalingFilter() {
+        return ImageScaler.Filter.AREA;
+    }
 
+    /**
+     * the post processing stages for the loaded images, fused into one pass over the pixels
+     * @param maxHight
+     * @param maxWidth
+     * @return the pipeline, or null for no post processing
+     */
+    default ImagePipeline getPipeline(double maxHight, double maxWidth) {
+        return null;
+    }
 
-        return image;
+    /**
+     * post process the loaded image, called on the decode worker when the image was loaded synchronously,
+     * so it must not use the scene graph (e.g. snapshot). Runs the pipeline by default.
+     * @param image the loaded image
+     * @param maxHight
+     * @param maxWidth
+     * @return the processed image
+     */
+    default Image postProcess(Image image,double maxHight, double maxWidth) {
+        final ImagePipeline pipeline = getPipeline(maxHight, maxWidth);
+        return pipeline == null ? image : pipeline.apply(image);
+    }
+
+    /**
+     * rotate the loaded image upright and post process it with {@link #postProcess(Image, double, double)}, so
+     * factories overriding it process rotated photos as well
+     * @param image the loaded image
+     * @param maxHight
+     * @param maxWidth
+     * @param orientation the EXIF orientation of the file, see {@link ImageMetadata#getOrientation()}
+     * @return the upright, post processed image
+     */
+    default Image postProcess(Image image, double maxHight, double maxWidth, int orientation) {
+        if (orientation <= 1) return postProcess(image, maxHight, maxWidth);
+        return postProcess(ImagePipeline.create().orient(orientation).apply(image), maxHight, maxWidth);
     }
 
     /**
@@ -28,7 +202,30 @@ public interface ImageFactory {
      * @throws IOException
      */
     default Map.Entry<Double,Double> getImageSize(Path imagePath,double maxHight) throws IOException {
-        ImageMetadata metadata = new ImageMetadata(imagePath.toFile());
+        return getImageSize(ImageSource.of(imagePath), maxHight);
+    }
+
+    /**
+     * retrieve image size from the header of the source, while key = width and value = hight
+     * @param source the image source
+     * @param maxHight
+     * @return
+     * @throws IOException
+     */
+    default Map.Entry<Double,Double> getImageSize(ImageSource source,double maxHight) throws IOException {
+        return getImageSize(source, source.probe(), maxHight);
+    }
+
+    /**
+     * retrieve image size from the probed header, while key = width and value = hight. The containers probe
+     * each source once and pass the metadata, factories computing the size override this method
+     * @param source the image source
+     * @param metadata the probed metadata of the source
+     * @param maxHight
+     * @return
+     * @throws IOException
+     */
+    default Map.Entry<Double,Double> getImageSize(ImageSource source, ImageMetadata metadata, double maxHight) throws IOException {
         return new Map.Entry<Double,Double>(){
 
             @Override
@@ -0,0 +1,126 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Forwards all calls to the decorated factory, extend it to change single aspects of an existing factory
+ */
+public abstract class ImageFactoryDecorator implements ImageFactory {
+    private final ImageFactory delegate;
+
+    protected ImageFactoryDecorator(final ImageFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    public ImageFactory getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight) throws Exception {
+        return delegate.createImage(imagePath, maxWidth, maxHight);
+    }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier) throws Exception {
+        return delegate.createImage(imagePath, maxWidth, maxHight, tier);
+    }
+
+    /**
+     * files are created by the path based methods of this factory, so their overrides apply
+     */
+    @Override
+    public Image createImage(ImageSource source, double maxWidth, double maxHight, double tier) throws Exception {
+        final Path path = source.getPath();
+        if (path != null) return createImage(path, maxWidth, maxHight, tier);
+        return delegate.createImage(source, maxWidth, maxHight, tier);
+    }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        return delegate.createImage(imagePath, maxWidth, maxHight, tier, subsample);
+    }
+
+    @Override
+    public Image createImage(ImageSource source, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        final Path path = source.getPath();
+        if (path != null) return createImage(path, maxWidth, maxHight, tier, subsample);
+        return delegate.createImage(source, maxWidth, maxHight, tier, subsample);
+    }
+
+    @Override
+    public Image createImage(ImageSource source, double maxWidth, double maxHight) throws Exception {
+        final Path path = source.getPath();
+        if (path != null) return createImage(path, maxWidth, maxHight);
+        return delegate.createImage(source, maxWidth, maxHight);
+    }
+
+    @Override
+    public Image createPreview(ImageSource source, ImageMetadata metadata, double width, double hight) throws Exception {
+        return delegate.createPreview(source, metadata, width, hight);
+    }
+
+    @Override
+    public boolean hasPreviews() {
+        return delegate.hasPreviews();
+    }
+
+    @Override
+    public double[] getResolutionTiers() {
+        return delegate.getResolutionTiers();
+    }
+
+    @Override
+    public Image scaleImage(Image image, int hight) {
+        return delegate.scaleImage(image, hight);
+    }
+
+    @Override
+    public ImageScaler.Filter getScalingFilter() {
+        return delegate.getScalingFilter();
+    }
+
+    @Override
+    public ImagePipeline getPipeline(double maxHight, double maxWidth) {
+        return delegate.getPipeline(maxHight, maxWidth);
+    }
+
+    @Override
+    public Image postProcess(Image image, double maxHight, double maxWidth) {
+        return delegate.postProcess(image, maxHight, maxWidth);
+    }
+
+    @Override
+    public Image postProcess(Image image, double maxHight, double maxWidth, int orientation) {
+        return delegate.postProcess(image, maxHight, maxWidth, orientation);
+    }
+
+    @Override
+    public Map.Entry<Double, Double> getImageSize(Path imagePath, double maxHight) throws IOException {
+        return delegate.getImageSize(imagePath, maxHight);
+    }
+
+    @Override
+    public Map.Entry<Double, Double> getImageSize(ImageSource source, double maxHight) throws IOException {
+        return delegate.getImageSize(source, maxHight);
+    }
+
+    @Override
+    public Map.Entry<Double, Double> getImageSize(ImageSource source, ImageMetadata metadata, double maxHight) throws IOException {
+        return delegate.getImageSize(source, metadata, maxHight);
+    }
+
+    @Override
+    public double getTargetHight(double maxHight) {
+        return delegate.getTargetHight(maxHight);
+    }
+
+    @Override
+    public double getTargetWidth(ImageMetadata metadata, double maxHight) {
+        return delegate.getTargetWidth(metadata, maxHight);
+    }
+}
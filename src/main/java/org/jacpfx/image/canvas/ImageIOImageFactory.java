@@ -0,0 +1,72 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * Decodes through javax.imageio with source subsampling, so thumbnails are decoded close to their target size
+ * instead of decoding the full image and scaling it down. In square mode only the centre square of the image is
+ * decoded (source region), no post processing is needed.
+ */
+public class ImageIOImageFactory implements ImageFactory {
+    private final boolean square;
+
+    public ImageIOImageFactory() {
+        this(false);
+    }
+
+    /**
+     * @param square create square thumbnails, like the SquareImageFactory
+     */
+    public ImageIOImageFactory(boolean square) {
+        this.square = square;
+    }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight) throws Exception {
+        return createImage(imagePath, maxWidth, maxHight, 2d);
+    }
+
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier) throws Exception {
+        return SubsampledDecoder.decode(imagePath, (int) Math.round(maxHight * tier), square).toImage();
+    }
+
+    @Override
+    public Image createImage(ImageSource source, double maxWidth, double maxHight, double tier) throws Exception {
+        return SubsampledDecoder.decode(source, (int) Math.round(maxHight * tier), square).toImage();
+    }
+
+    /**
+     * the decodes are subsampled anyway
+     */
+    @Override
+    public Image createImage(Path imagePath, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        return createImage(imagePath, maxWidth, maxHight, tier);
+    }
+
+    @Override
+    public Image createImage(ImageSource source, double maxWidth, double maxHight, double tier, boolean subsample) throws Exception {
+        return createImage(source, maxWidth, maxHight, tier);
+    }
+
+    @Override
+    public Map.Entry<Double, Double> getImageSize(ImageSource source, double maxHight) throws IOException {
+        if (square) return new AbstractMap.SimpleImmutableEntry<>(maxHight, maxHight);
+        return ImageFactory.super.getImageSize(source, maxHight);
+    }
+
+    @Override
+    public Map.Entry<Double, Double> getImageSize(ImageSource source, ImageMetadata metadata, double maxHight) throws IOException {
+        if (square) return new AbstractMap.SimpleImmutableEntry<>(maxHight, maxHight);
+        return ImageFactory.super.getImageSize(source, metadata, maxHight);
+    }
+
+    public boolean isSquare() {
+        return square;
+    }
+}
@@ -0,0 +1,45 @@
+package org.jacpfx.image.canvas;
+
+import java.util.Objects;
+
+/**
+ * Cache key of a decoded image, the image source and the decoded hight in pixel
+ */
+public final class ImageKey {
+    private final Object source;
+    private final int hight;
+
+    public ImageKey(final Object source, final int hight) {
+        this.source = source;
+        this.hight = hight;
+    }
+
+    public Object getSource() {
+        return source;
+    }
+
+    public int getHight() {
+        return hight;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ImageKey)) return false;
+        final ImageKey other = (ImageKey) o;
+        return hight == other.hight && Objects.equals(source, other.source);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(source) + hight;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageKey{" +
+                "source=" + source +
+                ", hight=" + hight +
+                '}';
+    }
+}
@@ -1,14 +1,41 @@
 package org.jacpfx.image.canvas;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * Created by Andy Moncsek on 23.07.15.
  */
 public class ImageMetadata {
+    private static final int APP1 = 0xE1;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int IFD_MAIN = 0;
+    private static final int IFD_EXIF = 1;
+    private static final int IFD_THUMBNAIL = 2;
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
     private int height;
     private int width;
     private String mimeType;
+    /**
+     * EXIF orientation, 1 is upright
+     */
+    private int orientation = 1;
+    private LocalDateTime timestamp;
+    /**
+     * file offset and length of the embedded EXIF thumbnail (JPEG)
+     */
+    private long thumbnailOffset = -1;
+    private int thumbnailLength = -1;
 
     private ImageMetadata() {
 
@@ -30,7 +57,18 @@ public class ImageMetadata {
         }
     }
 
-    private void processStream(InputStream is) throws IOException {
+    /**
+     * probe a header window, e.g. the first bytes of a mapped file or a range request
+     *
+     * @param header the header bytes from position to limit, the buffer is not modified
+     * @throws EOFException if the window ends before the size
+     */
+    public ImageMetadata(ByteBuffer header) throws IOException {
+        processStream(new ByteBufferInputStream(header));
+    }
+
+    private void processStream(InputStream in) throws IOException {
+        final CountingInputStream is = new CountingInputStream(in);
         int c1 = is.read();
         int c2 = is.read();
         int c3 = is.read();
@@ -39,7 +77,7 @@ public class ImageMetadata {
         width = height = -1;
 
         if (c1 == 'G' && c2 == 'I' && c3 == 'F') { // GIF
-            is.skip(3);
+            skipFully(is, 3);
             width = readInt(is,2,false);
             height = readInt(is,2,false);
             mimeType = "image/gif";
@@ -48,25 +86,40 @@ public class ImageMetadata {
                 int marker = is.read();
                 int len = readInt(is,2,true);
                 if (marker == 192 || marker == 193 || marker == 194) {
-                    is.skip(1);
+                    skipFully(is, 1);
                     height = readInt(is,2,true);
                     width = readInt(is,2,true);
                     mimeType = "image/jpeg";
+                    // rotated by 90 degree, the displayed size is swapped
+                    if (orientation >= 5) {
+                        final int stored = width;
+                        width = height;
+                        height = stored;
+                    }
                     break;
                 }
-                is.skip(len - 2);
+                if (marker == APP1 && len > 8) {
+                    final long start = is.getPosition();
+                    final byte[] segment = new byte[len - 2];
+                    readFully(is, segment);
+                    processExif(segment, start);
+                } else {
+                    skipFully(is, len - 2);
+                }
                 c3 = is.read();
             }
+            // a header window ending before the frame header
+            if (c3 < 0 && mimeType == null) throw new EOFException();
         } else if (c1 == 137 && c2 == 80 && c3 == 78) { // PNG
-            is.skip(15);
+            skipFully(is, 15);
             width = readInt(is,2,true);
-            is.skip(2);
+            skipFully(is, 2);
             height = readInt(is,2,true);
             mimeType = "image/png";
         } else if (c1 == 66 && c2 == 77) { // BMP
-            is.skip(15);
+            skipFully(is, 15);
             width = readInt(is,2,false);
-            is.skip(2);
+            skipFully(is, 2);
             height = readInt(is,2,false);
             mimeType = "image/bmp";
         } else {
@@ -77,7 +130,7 @@ public class ImageMetadata {
                 int ifd = 0;
                 int entries;
                 ifd = readInt(is,4,bigEndian);
-                is.skip(ifd - 8);
+                skipFully(is, ifd - 8);
                 entries = readInt(is,2,bigEndian);
                 for (int i = 1; i <= entries; i++) {
                     int tag = readInt(is,2,bigEndian);
@@ -86,7 +139,7 @@ public class ImageMetadata {
                     int valOffset;
                     if ((fieldType == 3 || fieldType == 8)) {
                         valOffset = readInt(is,2,bigEndian);
-                        is.skip(2);
+                        skipFully(is, 2);
                     } else {
                         valOffset = readInt(is,4,bigEndian);
                     }
@@ -107,12 +160,129 @@ public class ImageMetadata {
         }
     }
 
+    /**
+     * read orientation, capture time and the embedded thumbnail from an APP1 segment
+     *
+     * @param segment the segment content
+     * @param start   the file offset of the segment content
+     */
+    private void processExif(final byte[] segment, final long start) {
+        if (segment.length < 14 || !new String(segment, 0, 6, StandardCharsets.ISO_8859_1).equals("Exif\0\0")) return;
+        // offsets in the EXIF data are relative to the TIFF header after "Exif\0\0"
+        final int tiff = 6;
+        final boolean bigEndian = segment[tiff] == 'M';
+        final long ifd0 = readInt(segment, tiff, 4, 4, bigEndian);
+        final long ifd1 = processIfd(segment, tiff, ifd0, bigEndian, IFD_MAIN);
+        // IFD1 describes the thumbnail, its orientation or size must not override the main image
+        if (ifd1 > 0) processIfd(segment, tiff, ifd1, bigEndian, IFD_THUMBNAIL);
+        if (thumbnailOffset >= 0) thumbnailOffset += start + tiff;
+        if (thumbnailOffset >= 0 && thumbnailLength <= 0) thumbnailOffset = -1;
+    }
+
+    /**
+     * read the known tags of an IFD
+     *
+     * @param kind IFD_MAIN for IFD0, IFD_EXIF for the EXIF sub IFD, which is not followed into further sub IFDs,
+     *             IFD_THUMBNAIL for IFD1, of which only the thumbnail offset and length are read
+     * @return the offset of the next IFD, 0 if none
+     */
+    private long processIfd(final byte[] segment, final int tiff, final long ifd, final boolean bigEndian, final int kind) {
+        final long declared = readInt(segment, tiff, ifd, 2, bigEndian);
+        if (declared < 0) return 0;
+        // a corrupt count is limited to the entries within the segment
+        final long entries = Math.min(declared, (segment.length - tiff - ifd - 2) / 12);
+        for (int i = 0; i < entries; i++) {
+            final long entry = ifd + 2 + i * 12L;
+            final int tag = (int) readInt(segment, tiff, entry, 2, bigEndian);
+            final int fieldType = (int) readInt(segment, tiff, entry + 2, 2, bigEndian);
+            final long count = readInt(segment, tiff, entry + 4, 4, bigEndian);
+            final long value = fieldType == 3 ? readInt(segment, tiff, entry + 8, 2, bigEndian) : readInt(segment, tiff, entry + 8, 4, bigEndian);
+            if (kind == IFD_THUMBNAIL) {
+                if (tag == TAG_THUMBNAIL_OFFSET) thumbnailOffset = value;
+                if (tag == TAG_THUMBNAIL_LENGTH) thumbnailLength = (int) value;
+                continue;
+            }
+            switch (tag) {
+                case TAG_ORIENTATION:
+                    if (value >= 1 && value <= 8) orientation = (int) value;
+                    break;
+                case TAG_DATE_TIME:
+                    if (timestamp == null) timestamp = readDate(segment, tiff, value, count);
+                    break;
+                case TAG_DATE_TIME_ORIGINAL:
+                    final LocalDateTime original = readDate(segment, tiff, value, count);
+                    if (original != null) timestamp = original;
+                    break;
+                case TAG_EXIF_IFD:
+                    // only one level, a sub IFD pointing back to its parent must not recurse
+                    if (kind == IFD_MAIN && value != ifd) processIfd(segment, tiff, value, bigEndian, IFD_EXIF);
+                    break;
+                default:
+                    break;
+            }
+        }
+        final long next = readInt(segment, tiff, ifd + 2 + entries * 12, 4, bigEndian);
+        return next > ifd ? next : 0;
+    }
+
+    private LocalDateTime readDate(final byte[] segment, final int tiff, final long offset, final long count) {
+        if (count < 19 || tiff + offset + 19 > segment.length) return null;
+        try {
+            return LocalDateTime.parse(new String(segment, (int) (tiff + offset), 19, StandardCharsets.ISO_8859_1), EXIF_DATE);
+        } catch (DateTimeParseException e) {
+            // cameras without a clock write blanks or zeros
+            return null;
+        }
+    }
+
+    /**
+     * @return the value or -1 when outside of the segment
+     */
+    private long readInt(final byte[] segment, final int tiff, final long offset, final int noOfBytes, final boolean bigEndian) {
+        final long position = tiff + offset;
+        if (offset < 0 || position + noOfBytes > segment.length) return -1;
+        long ret = 0;
+        for (int i = 0; i < noOfBytes; i++) {
+            final int b = segment[(int) position + (bigEndian ? i : noOfBytes - 1 - i)] & 0xFF;
+            ret = (ret << 8) | b;
+        }
+        return ret;
+    }
+
+    private void readFully(final InputStream is, final byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            final int n = is.read(buffer, read, buffer.length - read);
+            if (n < 0) throw new EOFException();
+            read += n;
+        }
+    }
+
+    /**
+     * skip does not have to skip all bytes, e.g. a BufferedInputStream stops at the end of its buffer
+     */
+    private static void skipFully(final InputStream is, final long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = is.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (is.read() < 0) {
+                return;
+            } else {
+                remaining--;
+            }
+        }
+    }
+
     private int readInt(InputStream is, int noOfBytes, boolean bigEndian) throws IOException {
         int ret = 0;
         int sv = bigEndian ? ((noOfBytes - 1) * 8) : 0;
         int cnt = bigEndian ? -8 : 8;
         for(int i=0;i<noOfBytes;i++) {
-            ret |= is.read() << sv;
+            final int b = is.read();
+            if (b < 0) throw new EOFException();
+            ret |= b << sv;
             sv += cnt;
         }
         return ret;
@@ -133,10 +303,78 @@ public class ImageMetadata {
         return mimeType;
     }
 
+    /**
+     * @return the EXIF orientation (1 - 8), 1 if unknown. Width and height are already swapped for 5 - 8
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return the EXIF capture time, null if unknown
+     */
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the file offset of the embedded EXIF thumbnail, -1 if there is none
+     */
+    public long getThumbnailOffset() {
+        return thumbnailOffset;
+    }
+
+    /**
+     * @return the length of the embedded EXIF thumbnail, -1 if there is none
+     */
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    public boolean hasThumbnail() {
+        return thumbnailOffset >= 0;
+    }
+
 
 
     @Override
     public String toString() {
-        return "MIME Type : " + mimeType + "\t Width : " + width + "\t Height : " + height;
+        return "MIME Type : " + mimeType + "\t Width : " + width + "\t Height : " + height + "\t Orientation : " + orientation;
+    }
+
+    /**
+     * Counts the bytes read, to know the file offsets of the EXIF data
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long position;
+
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) position++;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        private long getPosition() {
+            return position;
+        }
     }
 }
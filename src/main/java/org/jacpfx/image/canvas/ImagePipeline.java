@@ -0,0 +1,475 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composable post processing of decoded images. Crop, resize and EXIF orientation are declared as geometry stages,
+ * sharpen and colour adjustment as filter stages. All stages are fused into a single pass over an int[] ARGB
+ * buffer: the geometry stages are composed into one transform from target to source coordinates, every target
+ * pixel is sampled once (box filtered when downscaling), sharpened from a rolling window of three rows and colour
+ * adjusted before it is written. The source is read with one getPixels call and the result written with one
+ * setPixels call. The pixels are premultiplied, see {@link PixelConversions}. Geometry stages apply in declaration order, sharpen always runs before the colour adjustment.
+ */
+public class ImagePipeline {
+
+    private static final ThreadLocal<int[][]> BUFFERS = ThreadLocal.withInitial(() -> new int[][]{new int[0], new int[0], new int[0]});
+
+    private final List<Geometry> geometry = new ArrayList<>();
+    private double sharpen;
+    private int[] toneTable;
+    private double saturation = 1d;
+
+    /**
+     * @return an empty pipeline
+     */
+    public static ImagePipeline create() {
+        return new ImagePipeline();
+    }
+
+    /**
+     * crop a fixed region
+     *
+     * @param x      the left edge
+     * @param y      the top edge
+     * @param width  the width
+     * @param height the height
+     * @return this pipeline
+     */
+    public ImagePipeline crop(final int x, final int y, final int width, final int height) {
+        geometry.add(new Geometry() {
+            @Override
+            public int[] size(int inWidth, int inHeight) {
+                return new int[]{Math.max(1, Math.min(width, inWidth - x)), Math.max(1, Math.min(height, inHeight - y))};
+            }
+
+            @Override
+            public double[] transform(int inWidth, int inHeight) {
+                return new double[]{1, 0, x, 0, 1, y};
+            }
+        });
+        return this;
+    }
+
+    /**
+     * crop the centre square
+     *
+     * @return this pipeline
+     */
+    public ImagePipeline centreSquare() {
+        geometry.add(new Geometry() {
+            @Override
+            public int[] size(int inWidth, int inHeight) {
+                final int side = Math.min(inWidth, inHeight);
+                return new int[]{side, side};
+            }
+
+            @Override
+            public double[] transform(int inWidth, int inHeight) {
+                final int side = Math.min(inWidth, inHeight);
+                return new double[]{1, 0, (inWidth - side) / 2, 0, 1, (inHeight - side) / 2};
+            }
+        });
+        return this;
+    }
+
+    /**
+     * resize to a fixed size
+     *
+     * @param width  the target width
+     * @param height the target height
+     * @return this pipeline
+     */
+    public ImagePipeline resize(final int width, final int height) {
+        geometry.add(new Geometry() {
+            @Override
+            public int[] size(int inWidth, int inHeight) {
+                return new int[]{Math.max(1, width), Math.max(1, height)};
+            }
+
+            @Override
+            public double[] transform(int inWidth, int inHeight) {
+                return scaleTransform(inWidth, inHeight, Math.max(1, width), Math.max(1, height));
+            }
+        });
+        return this;
+    }
+
+    /**
+     * resize to the target hight, keeping the aspect ratio
+     *
+     * @param hight the target hight
+     * @return this pipeline
+     */
+    public ImagePipeline resizeToHight(final int hight) {
+        geometry.add(new Geometry() {
+            @Override
+            public int[] size(int inWidth, int inHeight) {
+                return new int[]{Math.max(1, (int) Math.round(inWidth * (double) hight / inHeight)), Math.max(1, hight)};
+            }
+
+            @Override
+            public double[] transform(int inWidth, int inHeight) {
+                final int[] size = size(inWidth, inHeight);
+                return scaleTransform(inWidth, inHeight, size[0], size[1]);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * rotate and mirror according to the EXIF orientation (1 - 8), so the image is shown upright
+     *
+     * @param orientation the EXIF orientation
+     * @return this pipeline
+     */
+    public ImagePipeline orient(final int orientation) {
+        if (orientation <= 1 || orientation > 8) return this;
+        geometry.add(new Geometry() {
+            @Override
+            public int[] size(int inWidth, int inHeight) {
+                return orientation >= 5 ? new int[]{inHeight, inWidth} : new int[]{inWidth, inHeight};
+            }
+
+            @Override
+            public double[] transform(int inWidth, int inHeight) {
+                final int w = inWidth - 1;
+                final int h = inHeight - 1;
+                switch (orientation) {
+                    case 2: // mirror horizontal
+                        return new double[]{-1, 0, w, 0, 1, 0};
+                    case 3: // rotate 180
+                        return new double[]{-1, 0, w, 0, -1, h};
+                    case 4: // mirror vertical
+                        return new double[]{1, 0, 0, 0, -1, h};
+                    case 5: // transpose
+                        return new double[]{0, 1, 0, 1, 0, 0};
+                    case 6: // rotate 90 clockwise
+                        return new double[]{0, 1, 0, -1, 0, h};
+                    case 7: // transverse
+                        return new double[]{0, -1, w, -1, 0, h};
+                    default: // 8, rotate 90 counter clockwise
+                        return new double[]{0, -1, w, 1, 0, 0};
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * sharpen with a 3x3 unsharp kernel
+     *
+     * @param amount the strength, 0 disables sharpening
+     * @return this pipeline
+     */
+    public ImagePipeline sharpen(final double amount) {
+        this.sharpen = Math.max(0d, amount);
+        return this;
+    }
+
+    /**
+     * adjust the colours
+     *
+     * @param brightness added brightness, -1 to 1
+     * @param contrast   contrast factor, 1 keeps the contrast
+     * @param saturation saturation factor, 1 keeps the saturation, 0 is grayscale
+     * @return this pipeline
+     */
+    public ImagePipeline adjust(final double brightness, final double contrast, final double saturation) {
+        this.saturation = saturation;
+        if (brightness == 0d && contrast == 1d) {
+            this.toneTable = null;
+            return this;
+        }
+        final int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = clamp((int) Math.round((i - 128) * contrast + 128 + brightness * 255));
+        }
+        this.toneTable = table;
+        return this;
+    }
+
+    /**
+     * append the stages of an other pipeline, its filter stages replace the filter stages of this pipeline
+     *
+     * @param next the pipeline to append, may be null
+     * @return this pipeline
+     */
+    public ImagePipeline then(final ImagePipeline next) {
+        if (next == null) return this;
+        geometry.addAll(next.geometry);
+        if (next.sharpen != 0d) sharpen = next.sharpen;
+        if (next.toneTable != null) toneTable = next.toneTable;
+        if (next.saturation != 1d) saturation = next.saturation;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return geometry.isEmpty() && sharpen == 0d && toneTable == null && saturation == 1d;
+    }
+
+    /**
+     * run the pipeline on a loaded image, with one read of the source and one write of the result. Only the region
+     * sampled by the geometry stages is read, e.g. the square of a centre crop
+     *
+     * @param image the source image
+     * @return the processed image, or the source if no stage changes it
+     */
+    public Image apply(final Image image) {
+        final PixelReader reader = image.getPixelReader();
+        if (reader == null || isEmpty()) return image;
+        final int width = (int) image.getWidth();
+        final int height = (int) image.getHeight();
+        if (isIdentity(width, height)) return image;
+        final int[] region = getSourceRegion(width, height);
+        final int[][] buffers = BUFFERS.get();
+        if (buffers[0].length < region[2] * region[3]) buffers[0] = new int[region[2] * region[3]];
+        final PixelBuffer src = PixelBuffer.of(image, region[0], region[1], region[2], region[3], buffers[0]);
+        final int[] size = getSize(width, height);
+        if (buffers[1].length < size[0] * size[1]) buffers[1] = new int[size[0] * size[1]];
+        return apply(src, region[0], region[1], width, height, buffers[1]).toImage();
+    }
+
+    /**
+     * run the pipeline on a pixel buffer
+     *
+     * @param src the source pixels
+     * @return the processed pixels
+     */
+    public PixelBuffer apply(final PixelBuffer src) {
+        final int[] size = getSize(src.getWidth(), src.getHeight());
+        return apply(src, new int[size[0] * size[1]]);
+    }
+
+    /**
+     * the size of the result for a source size
+     *
+     * @param width  the source width
+     * @param height the source height
+     * @return {width, height}
+     */
+    public int[] getSize(final int width, final int height) {
+        int[] size = {width, height};
+        for (final Geometry stage : geometry) {
+            size = stage.size(size[0], size[1]);
+        }
+        return size;
+    }
+
+    /**
+     * the source region read by the geometry stages
+     *
+     * @param width  the source width
+     * @param height the source height
+     * @return {x, y, width, height}
+     */
+    int[] getSourceRegion(final int width, final int height) {
+        final int[] size = getSize(width, height);
+        final double[] m = getTransform(width, height);
+        final double footprintX = Math.abs(m[0]) + Math.abs(m[1]);
+        final double footprintY = Math.abs(m[3]) + Math.abs(m[4]);
+        // affine, so the extremes are at the corners of the target
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            final int x = (corner & 1) == 0 ? 0 : size[0] - 1;
+            final int y = (corner & 2) == 0 ? 0 : size[1] - 1;
+            final double sx = m[0] * x + m[1] * y + m[2];
+            final double sy = m[3] * x + m[4] * y + m[5];
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+        }
+        final int x0 = clamp((int) Math.floor(minX - footprintX / 2 + 0.5), 0, width - 1);
+        final int x1 = clamp((int) Math.floor(maxX + footprintX / 2 + 0.5), x0 + 1, width);
+        final int y0 = clamp((int) Math.floor(minY - footprintY / 2 + 0.5), 0, height - 1);
+        final int y1 = clamp((int) Math.floor(maxY + footprintY / 2 + 0.5), y0 + 1, height);
+        return new int[]{x0, y0, x1 - x0, y1 - y0};
+    }
+
+    private PixelBuffer apply(final PixelBuffer src, final int[] out) {
+        return apply(src, 0, 0, src.getWidth(), src.getHeight(), out);
+    }
+
+    /**
+     * @param src        the source pixels, a region of the source
+     * @param srcX       the left edge of the region in the source
+     * @param srcY       the top edge of the region in the source
+     * @param fullWidth  the width of the source
+     * @param fullHeight the height of the source
+     */
+    PixelBuffer apply(final PixelBuffer src, final int srcX, final int srcY, final int fullWidth, final int fullHeight, final int[] out) {
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int[] in = src.getPixels();
+        final int[] size = getSize(fullWidth, fullHeight);
+        final int width = size[0];
+        final int height = size[1];
+        final double[] m = getTransform(fullWidth, fullHeight);
+        // the source footprint of one target pixel, axis aligned as all stages rotate by multiples of 90 degree
+        final double footprintX = Math.abs(m[0]) + Math.abs(m[1]);
+        final double footprintY = Math.abs(m[3]) + Math.abs(m[4]);
+
+        if (sharpen == 0d) {
+            final int[] row = out;
+            for (int y = 0; y < height; y++) {
+                sampleRow(in, srcX, srcY, srcWidth, srcHeight, m, footprintX, footprintY, y, width, row, y * width);
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    row[i] = adjust(row[i]);
+                }
+            }
+            return new PixelBuffer(width, height, out);
+        }
+
+        // rolling window of the sampled rows above, at and below the current row
+        final int[][] buffers = BUFFERS.get();
+        if (buffers[2].length < width * 3) buffers[2] = new int[width * 3];
+        final int[] window = buffers[2];
+        sampleRow(in, srcX, srcY, srcWidth, srcHeight, m, footprintX, footprintY, 0, width, window, 0);
+        if (height > 1) sampleRow(in, srcX, srcY, srcWidth, srcHeight, m, footprintX, footprintY, 1, width, window, width);
+        for (int y = 0; y < height; y++) {
+            final int up = ((Math.max(0, y - 1)) % 3) * width;
+            final int centre = (y % 3) * width;
+            final int down = ((Math.min(height - 1, y + 1)) % 3) * width;
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                final int left = centre + Math.max(0, x - 1);
+                final int right = centre + Math.min(width - 1, x + 1);
+                out[i] = adjust(sharpen(window[centre + x], window[up + x], window[down + x], window[left], window[right]));
+            }
+            if (y + 2 < height) {
+                sampleRow(in, srcX, srcY, srcWidth, srcHeight, m, footprintX, footprintY, y + 2, width, window, ((y + 2) % 3) * width);
+            }
+        }
+        return new PixelBuffer(width, height, out);
+    }
+
+    /**
+     * sample a target row from the source region, the transform maps to source coordinates, the region starts at
+     * srcX, srcY
+     */
+    private void sampleRow(final int[] in, final int srcX, final int srcY, final int srcWidth, final int srcHeight, final double[] m,
+                           final double footprintX, final double footprintY,
+                           final int y, final int width, final int[] out, final int offset) {
+        for (int x = 0; x < width; x++) {
+            final double sx = m[0] * x + m[1] * y + m[2];
+            final double sy = m[3] * x + m[4] * y + m[5];
+            out[offset + x] = sample(in, srcX, srcY, srcWidth, srcHeight, sx, sy, footprintX, footprintY);
+        }
+    }
+
+    /**
+     * the mean of the source pixels covered by the footprint around the point, the nearest pixel when not downscaling
+     */
+    private static int sample(final int[] in, final int srcX, final int srcY, final int width, final int height,
+                              final double x, final double y, final double footprintX, final double footprintY) {
+        final int x0 = clamp((int) Math.floor(x - footprintX / 2 + 0.5) - srcX, 0, width - 1);
+        final int x1 = clamp((int) Math.floor(x + footprintX / 2 + 0.5) - srcX, x0 + 1, width);
+        final int y0 = clamp((int) Math.floor(y - footprintY / 2 + 0.5) - srcY, 0, height - 1);
+        final int y1 = clamp((int) Math.floor(y + footprintY / 2 + 0.5) - srcY, y0 + 1, height);
+        if (x1 - x0 == 1 && y1 - y0 == 1) return in[y0 * width + x0];
+        int alpha = 0;
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        for (int sy = y0; sy < y1; sy++) {
+            for (int sx = x0, i = sy * width + x0; sx < x1; sx++, i++) {
+                final int color = in[i];
+                alpha += (color >>> 24);
+                red += (color >>> 16 & 0xFF);
+                green += (color >>> 8 & 0xFF);
+                blue += (color & 0xFF);
+            }
+        }
+        final int count = (x1 - x0) * (y1 - y0);
+        return (alpha / count) << 24 | (red / count) << 16 | (green / count) << 8 | (blue / count);
+    }
+
+    private int sharpen(final int centre, final int up, final int down, final int left, final int right) {
+        final double weight = 1 + 4 * sharpen;
+        // premultiplied colour channels must not exceed alpha
+        final int alpha = centre >>> 24;
+        final int red = clamp((int) Math.round((centre >>> 16 & 0xFF) * weight - sharpen * ((up >>> 16 & 0xFF) + (down >>> 16 & 0xFF) + (left >>> 16 & 0xFF) + (right >>> 16 & 0xFF))), 0, alpha);
+        final int green = clamp((int) Math.round((centre >>> 8 & 0xFF) * weight - sharpen * ((up >>> 8 & 0xFF) + (down >>> 8 & 0xFF) + (left >>> 8 & 0xFF) + (right >>> 8 & 0xFF))), 0, alpha);
+        final int blue = clamp((int) Math.round((centre & 0xFF) * weight - sharpen * ((up & 0xFF) + (down & 0xFF) + (left & 0xFF) + (right & 0xFF))), 0, alpha);
+        return (centre & 0xff000000) | red << 16 | green << 8 | blue;
+    }
+
+    private int adjust(final int premultiplied) {
+        if (toneTable == null && saturation == 1d) return premultiplied;
+        // the tone table works on straight colours, translucent pixels are converted for the adjustment
+        final boolean opaque = premultiplied >>> 24 == 0xFF;
+        final int color = opaque ? premultiplied : PixelConversions.unpremultiply(premultiplied);
+        int red = color >>> 16 & 0xFF;
+        int green = color >>> 8 & 0xFF;
+        int blue = color & 0xFF;
+        if (toneTable != null) {
+            red = toneTable[red];
+            green = toneTable[green];
+            blue = toneTable[blue];
+        }
+        if (saturation != 1d) {
+            final double luma = 0.299 * red + 0.587 * green + 0.114 * blue;
+            red = clamp((int) Math.round(luma + (red - luma) * saturation));
+            green = clamp((int) Math.round(luma + (green - luma) * saturation));
+            blue = clamp((int) Math.round(luma + (blue - luma) * saturation));
+        }
+        final int adjusted = (color & 0xff000000) | red << 16 | green << 8 | blue;
+        return opaque ? adjusted : PixelConversions.premultiply(adjusted);
+    }
+
+    /**
+     * compose all geometry stages to one affine transform from target to source coordinates
+     *
+     * @return {a, b, c, d, e, f} with sourceX = a * x + b * y + c and sourceY = d * x + e * y + f
+     */
+    private double[] getTransform(final int width, final int height) {
+        double[] m = {1, 0, 0, 0, 1, 0};
+        int[] size = {width, height};
+        for (final Geometry stage : geometry) {
+            final double[] t = stage.transform(size[0], size[1]);
+            m = new double[]{
+                    m[0] * t[0] + m[1] * t[3], m[0] * t[1] + m[1] * t[4], m[0] * t[2] + m[1] * t[5] + m[2],
+                    m[3] * t[0] + m[4] * t[3], m[3] * t[1] + m[4] * t[4], m[3] * t[2] + m[4] * t[5] + m[5]};
+            size = stage.size(size[0], size[1]);
+        }
+        return m;
+    }
+
+    private boolean isIdentity(final int width, final int height) {
+        if (sharpen != 0d || toneTable != null || saturation != 1d) return false;
+        final int[] size = getSize(width, height);
+        final double[] m = getTransform(width, height);
+        return size[0] == width && size[1] == height
+                && m[0] == 1 && m[1] == 0 && m[2] == 0 && m[3] == 0 && m[4] == 1 && m[5] == 0;
+    }
+
+    private static double[] scaleTransform(final int inWidth, final int inHeight, final int outWidth, final int outHeight) {
+        final double scaleX = (double) inWidth / outWidth;
+        final double scaleY = (double) inHeight / outHeight;
+        // map pixel centres
+        return new double[]{scaleX, 0, 0.5 * scaleX - 0.5, 0, scaleY, 0.5 * scaleY - 0.5};
+    }
+
+    private static int clamp(final int value) {
+        return clamp(value, 0, 255);
+    }
+
+    private static int clamp(final int value, final int min, final int max) {
+        return value < min ? min : value > max ? max : value;
+    }
+
+    /**
+     * A geometry stage, described by its output size and the affine transform from output to input coordinates
+     */
+    private interface Geometry {
+        int[] size(int inWidth, int inHeight);
+
+        double[] transform(int inWidth, int inHeight);
+    }
+}
@@ -0,0 +1,257 @@
+package org.jacpfx.image.canvas;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Per thread decoder state for javax.imageio decodes. Each decode worker keeps its ImageReaders (one per format),
+ * the buffer holding the file content, the decode destination and the int[] pixel arrays, and reuses them for the
+ * next image. After warm up a thumbnail decode allocates nearly nothing besides the final image. File buffers
+ * above 2MB are released after the decode, so large photos do not stay pinned per worker. Stored ZIP entries are
+ * decoded from the mapped archive without a copy.
+ * The returned pixel buffers are owned by the pool and only valid until the next decode on the same thread.
+ */
+public final class ImageReaderPool {
+    /**
+     * larger files are streamed from disk instead of being read into the reused buffer
+     */
+    private static final int MAX_BUFFERED_FILE = 16 * 1024 * 1024;
+    /**
+     * larger file buffers are released after each decode
+     */
+    private static final int MAX_RETAINED_FILE_BUFFER = 2 * 1024 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ThreadLocal<ImageReaderPool> POOL = ThreadLocal.withInitial(ImageReaderPool::new);
+
+    private final List<ImageReader> readers = new ArrayList<>();
+    private final ByteBufferImageInputStream stream = new ByteBufferImageInputStream();
+    private byte[] fileBuffer = new byte[0];
+    private BufferedImage destination;
+    private int[] pixels = new int[0];
+    private int[] scaled = new int[0];
+
+    private ImageReaderPool() {
+
+    }
+
+    /**
+     * @return the pool of the current thread
+     */
+    public static ImageReaderPool get() {
+        return POOL.get();
+    }
+
+    /**
+     * @param source the image source
+     * @return the bytes read into the heap while decoding the source, 0 for large files streamed from disk, mapped
+     * sources and sources of unknown size
+     */
+    static long getBufferedBytes(final ImageSource source) throws IOException {
+        final long size = source.getSize();
+        if (size <= 0 || isMapped(source)) return 0;
+        if (size > MAX_BUFFERED_FILE && source.getPath() != null) return 0;
+        return size;
+    }
+
+    /**
+     * @return true for stored ZIP entries, which are read as slices of the mapped archive
+     */
+    private static boolean isMapped(final ImageSource source) throws IOException {
+        return source instanceof ZipImageSource && ((ZipImageSource) source).isStored() && source.getSize() <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * decode with subsampling and scale down to the target hight
+     *
+     * @param imagePath   the image
+     * @param targetHight the target hight
+     * @param square      decode only the centre square of the image (source region)
+     * @return the pixels, valid until the next decode on this thread
+     * @throws IOException
+     */
+    public PixelBuffer decode(final Path imagePath, final int targetHight, final boolean square) throws IOException {
+        return decode(ImageSource.of(imagePath), targetHight, square);
+    }
+
+    /**
+     * decode with subsampling and scale down to the target hight
+     *
+     * @param source      the image source
+     * @param targetHight the target hight
+     * @param square      decode only the centre square of the image (source region)
+     * @return the pixels, valid until the next decode on this thread
+     * @throws IOException
+     */
+    public PixelBuffer decode(final ImageSource source, final int targetHight, final boolean square) throws IOException {
+        final ImageInputStream in = open(source);
+        try {
+            final ImageReader reader = getReader(in);
+            if (reader == null) throw new IOException("Unsupported image type " + source.getName());
+            try {
+                reader.setInput(in, true, true);
+                return decode(reader, targetHight, square);
+            } finally {
+                reader.reset();
+            }
+        } finally {
+            if (in != stream) in.close();
+            releaseFileBuffer();
+        }
+    }
+
+    private void releaseFileBuffer() {
+        // a mapped slice must not keep the archive mapped
+        stream.reset(EMPTY);
+        if (fileBuffer.length <= MAX_RETAINED_FILE_BUFFER) return;
+        fileBuffer = new byte[0];
+    }
+
+    private PixelBuffer decode(final ImageReader reader, final int targetHight, final boolean square) throws IOException {
+        final int width = reader.getWidth(0);
+        final int height = reader.getHeight(0);
+        final ImageReadParam param = reader.getDefaultReadParam();
+        final Rectangle region;
+        if (square) {
+            final int side = Math.min(width, height);
+            region = new Rectangle((width - side) / 2, (height - side) / 2, side, side);
+            param.setSourceRegion(region);
+        } else {
+            region = new Rectangle(0, 0, width, height);
+        }
+        final int subsampling = SubsampledDecoder.getSubsampling(region.height, targetHight);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        final int outWidth = (region.width + subsampling - 1) / subsampling;
+        final int outHeight = (region.height + subsampling - 1) / subsampling;
+        final BufferedImage dest = getDestination(reader, outWidth, outHeight);
+        if (dest != null) param.setDestination(dest);
+        final BufferedImage image = reader.read(0, param);
+        pixels = ensure(pixels, outWidth * outHeight);
+        final PixelBuffer decoded = SubsampledDecoder.toPixelBuffer(image, outWidth, outHeight, pixels);
+        if (decoded.getHeight() <= targetHight) return decoded;
+        final int scaledWidth = Math.max(1, (int) Math.round(decoded.getWidth() * (double) targetHight / decoded.getHeight()));
+        scaled = ensure(scaled, scaledWidth * targetHight);
+        return ImageScaler.scale(decoded, scaledWidth, targetHight, scaled);
+    }
+
+    /**
+     * reuse the last destination when it is large enough and has the type the reader delivers
+     */
+    private BufferedImage getDestination(final ImageReader reader, final int width, final int height) throws IOException {
+        final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) return null;
+        final ImageTypeSpecifier type = types.next();
+        final int imageType = type.getBufferedImageType();
+        if (imageType == BufferedImage.TYPE_CUSTOM) return null;
+        if (destination == null || destination.getType() != imageType || destination.getWidth() < width || destination.getHeight() < height) {
+            final int destWidth = destination != null && destination.getType() == imageType ? Math.max(width, destination.getWidth()) : width;
+            final int destHeight = destination != null && destination.getType() == imageType ? Math.max(height, destination.getHeight()) : height;
+            destination = type.createBufferedImage(destWidth, destHeight);
+        }
+        return destination;
+    }
+
+    private ImageReader getReader(final ImageInputStream in) throws IOException {
+        for (final ImageReader reader : readers) {
+            if (reader.getOriginatingProvider() != null && reader.getOriginatingProvider().canDecodeInput(in)) return reader;
+        }
+        final Iterator<ImageReader> found = ImageIO.getImageReaders(in);
+        if (!found.hasNext()) return null;
+        final ImageReader reader = found.next();
+        readers.add(reader);
+        return reader;
+    }
+
+    private ImageInputStream open(final ImageSource source) throws IOException {
+        final long size = source.getSize();
+        final Path path = source.getPath();
+        if (size > MAX_BUFFERED_FILE && path != null) {
+            final ImageInputStream in = ImageIO.createImageInputStream(path.toFile());
+            if (in == null) throw new IOException("Cannot open " + source.getName());
+            return in;
+        }
+        if (isMapped(source)) {
+            stream.reset(source.read(0, (int) size));
+            return stream;
+        }
+        try (ReadableByteChannel channel = source.openChannel()) {
+            // sources of unknown size grow the buffer while reading
+            if (fileBuffer.length < size) fileBuffer = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(fileBuffer);
+            while (channel.read(buffer) >= 0) {
+                if (buffer.hasRemaining()) continue;
+                if (size >= 0 && buffer.position() >= size) break;
+                fileBuffer = Arrays.copyOf(fileBuffer, Math.max(64 * 1024, fileBuffer.length * 2));
+                buffer = ByteBuffer.wrap(fileBuffer, buffer.position(), fileBuffer.length - buffer.position());
+            }
+            stream.reset(ByteBuffer.wrap(fileBuffer, 0, buffer.position()));
+            return stream;
+        }
+    }
+
+    private static int[] ensure(final int[] array, final int size) {
+        return array.length >= size ? array : new int[size];
+    }
+
+    /**
+     * Image input stream over the reused file buffer or a mapped slice
+     */
+    private static final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+        private ByteBuffer data = EMPTY;
+        private int offset;
+        private int length;
+
+        private void reset(final ByteBuffer data) {
+            this.data = data;
+            this.offset = data.position();
+            this.length = data.remaining();
+            this.streamPos = 0;
+            this.bitOffset = 0;
+            this.flushedPos = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            bitOffset = 0;
+            return streamPos < length ? data.get(offset + (int) streamPos++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            bitOffset = 0;
+            if (len == 0) return 0;
+            final int available = (int) (length - streamPos);
+            if (available <= 0) return -1;
+            final int count = Math.min(len, available);
+            final ByteBuffer view = data.duplicate();
+            view.position(offset + (int) streamPos);
+            view.get(b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void close() {
+            // the buffer is reused or mapped, nothing to release
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.jacpfx.image.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Downscales premultiplied ARGB pixel buffers, used to derive smaller thumbnails from already decoded images instead of
+ * decoding the file again. The work is split into row bands on the fork-join pool.
+ */
+public final class ImageScaler {
+
+    /**
+     * the downscaling filters
+     */
+    public enum Filter {
+        /**
+         * every target pixel is the mean of the source pixels it covers, fast and without ringing
+         */
+        AREA,
+        /**
+         * separable Lanczos filter with three lobes, sharper than area averaging
+         */
+        LANCZOS
+    }
+
+    /**
+     * the fixed point precision of the Lanczos weights
+     */
+    private static final int WEIGHT_BITS = 14;
+    private static final int LANCZOS_LOBES = 3;
+
+    private ImageScaler() {
+
+    }
+
+    /**
+     * scale to the target hight, keeping the aspect ratio
+     *
+     * @param src   the source pixels
+     * @param hight the target hight
+     * @return the scaled pixels
+     */
+    public static PixelBuffer scaleToHight(final PixelBuffer src, final int hight) {
+        return scaleToHight(src, hight, null);
+    }
+
+    /**
+     * scale to the target hight, keeping the aspect ratio
+     *
+     * @param src   the source pixels
+     * @param hight the target hight
+     * @param dest  an array to reuse for the result, when large enough
+     * @return the scaled pixels
+     */
+    public static PixelBuffer scaleToHight(final PixelBuffer src, final int hight, final int[] dest) {
+        return scaleToHight(src, hight, Filter.AREA, dest);
+    }
+
+    /**
+     * scale to the target hight with the filter, keeping the aspect ratio
+     *
+     * @param src    the source pixels
+     * @param hight  the target hight
+     * @param filter the filter
+     * @param dest   an array to reuse for the result, when large enough
+     * @return the scaled pixels
+     */
+    public static PixelBuffer scaleToHight(final PixelBuffer src, final int hight, final Filter filter, final int[] dest) {
+        final int width = Math.max(1, (int) Math.round(src.getWidth() * (double) hight / src.getHeight()));
+        return scale(src, width, Math.max(1, hight), filter, dest);
+    }
+
+    /**
+     * area averaging downscale, every target pixel is the mean of the source pixels it covers
+     *
+     * @param src    the source pixels
+     * @param width  the target width
+     * @param height the target height
+     * @return the scaled pixels
+     */
+    public static PixelBuffer scale(final PixelBuffer src, final int width, final int height) {
+        return scale(src, width, height, null);
+    }
+
+    /**
+     * area averaging downscale, every target pixel is the mean of the source pixels it covers
+     *
+     * @param src    the source pixels
+     * @param width  the target width
+     * @param height the target height
+     * @param dest   an array to reuse for the result, when large enough
+     * @return the scaled pixels
+     */
+    public static PixelBuffer scale(final PixelBuffer src, final int width, final int height, final int[] dest) {
+        return scale(src, width, height, Filter.AREA, dest);
+    }
+
+    /**
+     * downscale with the filter
+     *
+     * @param src    the source pixels
+     * @param width  the target width
+     * @param height the target height
+     * @param filter the filter
+     * @param dest   an array to reuse for the result, when large enough
+     * @return the scaled pixels
+     */
+    public static PixelBuffer scale(final PixelBuffer src, final int width, final int height, final Filter filter, final int[] dest) {
+        final int[] out = dest != null && dest.length >= width * height ? dest : new int[width * height];
+        if (filter == Filter.LANCZOS) {
+            lanczos(src, width, height, out);
+        } else {
+            final int rowPixels = src.getWidth() * Math.max(1, src.getHeight() / height);
+            PixelKernels.forEachBand(height, rowPixels, (from, to) -> areaRows(src, width, height, out, from, to));
+        }
+        return new PixelBuffer(width, height, out);
+    }
+
+    private static void areaRows(final PixelBuffer src, final int width, final int height, final int[] out, final int from, final int to) {
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int[] in = src.getPixels();
+        final PixelOps ops = PixelOps.get();
+        // column sums of the source rows covered by a target row, then the sum of each target pixel
+        final int[] alpha = new int[srcWidth];
+        final int[] red = new int[srcWidth];
+        final int[] green = new int[srcWidth];
+        final int[] blue = new int[srcWidth];
+        for (int y = from; y < to; y++) {
+            final int y0 = y * srcHeight / height;
+            final int y1 = Math.max(y0 + 1, (y + 1) * srcHeight / height);
+            Arrays.fill(alpha, 0);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            for (int sy = y0; sy < y1; sy++) {
+                ops.accumulate(in, sy * srcWidth, srcWidth, alpha, red, green, blue, 1);
+            }
+            for (int x = 0; x < width; x++) {
+                final int x0 = x * srcWidth / width;
+                final int x1 = Math.max(x0 + 1, (x + 1) * srcWidth / width);
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int sx = x0; sx < x1; sx++) {
+                    a += alpha[sx];
+                    r += red[sx];
+                    g += green[sx];
+                    b += blue[sx];
+                }
+                final int count = (y1 - y0) * (x1 - x0);
+                out[y * width + x] = (a / count) << 24
+                        | (r / count) << 16
+                        | (g / count) << 8
+                        | (b / count);
+            }
+        }
+    }
+
+    /**
+     * separable Lanczos: a horizontal pass into a buffer of target width and source height, then a vertical pass
+     */
+    private static void lanczos(final PixelBuffer src, final int width, final int height, final int[] out) {
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int[] in = src.getPixels();
+        final Weights horizontal = new Weights(srcWidth, width);
+        final Weights vertical = new Weights(srcHeight, height);
+        final int[] temp = new int[width * srcHeight];
+        PixelKernels.forEachBand(srcHeight, srcWidth, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    temp[y * width + x] = convolve(in, y * srcWidth + horizontal.first[x], 1, horizontal, x);
+                }
+            }
+        });
+        PixelKernels.forEachBand(height, width * vertical.taps, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    out[y * width + x] = convolve(temp, vertical.first[y] * width + x, width, vertical, y);
+                }
+            }
+        });
+    }
+
+    private static int convolve(final int[] in, final int start, final int step, final Weights weights, final int index) {
+        int alpha = 0;
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        final int offset = index * weights.taps;
+        for (int k = 0, i = start; k < weights.count[index]; k++, i += step) {
+            final int weight = weights.weights[offset + k];
+            final int color = in[i];
+            alpha += weight * (color >>> 24);
+            red += weight * (color >>> 16 & 0xFF);
+            green += weight * (color >>> 8 & 0xFF);
+            blue += weight * (color & 0xFF);
+        }
+        // premultiplied colour channels must not exceed alpha
+        final int a = clamp(alpha, 255);
+        return a << 24 | clamp(red, a) << 16 | clamp(green, a) << 8 | clamp(blue, a);
+    }
+
+    private static int clamp(final int value, final int max) {
+        final int rounded = (value + (1 << (WEIGHT_BITS - 1))) >> WEIGHT_BITS;
+        return rounded < 0 ? 0 : rounded > max ? max : rounded;
+    }
+
+    private static double lanczos(final double x) {
+        if (x == 0d) return 1d;
+        if (Math.abs(x) >= LANCZOS_LOBES) return 0d;
+        final double pix = Math.PI * x;
+        return LANCZOS_LOBES * Math.sin(pix) * Math.sin(pix / LANCZOS_LOBES) / (pix * pix);
+    }
+
+    /**
+     * the normalized fixed point filter weights of every target pixel along one axis
+     */
+    private static final class Weights {
+        private final int taps;
+        private final int[] first;
+        private final int[] count;
+        private final int[] weights;
+
+        private Weights(final int srcSize, final int size) {
+            final double scale = (double) srcSize / size;
+            final double stretch = Math.max(1d, scale);
+            final double support = LANCZOS_LOBES * stretch;
+            this.taps = (int) Math.ceil(support) * 2 + 1;
+            this.first = new int[size];
+            this.count = new int[size];
+            this.weights = new int[size * taps];
+            final double[] values = new double[taps];
+            for (int i = 0; i < size; i++) {
+                final double centre = (i + 0.5d) * scale - 0.5d;
+                final int start = Math.min(srcSize - 1, Math.max(0, (int) Math.floor(centre - support) + 1));
+                final int end = Math.min(srcSize - 1, (int) Math.floor(centre + support));
+                final int n = Math.max(1, Math.min(taps, end - start + 1));
+                double sum = 0d;
+                for (int k = 0; k < n; k++) {
+                    values[k] = lanczos((start + k - centre) / stretch);
+                    sum += values[k];
+                }
+                first[i] = start;
+                count[i] = n;
+                int total = 0;
+                int largest = 0;
+                for (int k = 0; k < n; k++) {
+                    final int weight = sum != 0d ? (int) Math.round(values[k] / sum * (1 << WEIGHT_BITS)) : (k == 0 ? 1 << WEIGHT_BITS : 0);
+                    weights[i * taps + k] = weight;
+                    total += weight;
+                    if (weight > weights[i * taps + largest]) largest = k;
+                }
+                // the weights sum up to exactly one, so flat areas keep their colour
+                weights[i * taps + largest] += (1 << WEIGHT_BITS) - total;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.jacpfx.image.canvas;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * The origin of an image: a file, an archive entry, a buffer or a remote blob. All image I/O of the panels goes
+ * through this interface, so a source can implement each access in its cheapest way, e.g. a positioned read for
+ * the header probe or a zero copy slice of a mapped file.
+ * Files are supported by {@link #of(Path)}.
+ */
+public interface ImageSource {
+    /**
+     * the first header window read by {@link #probe()}, enough for PNG, GIF and JPEG files without large EXIF data
+     */
+    int PROBE_HEADER_WINDOW = 4 * 1024;
+    /**
+     * the second header window read by {@link #probe()}, large enough for the EXIF data of most cameras
+     */
+    int PROBE_WINDOW = 64 * 1024;
+
+    /**
+     * a stable key identifying the image content, used for the decode caches. Equal sources must have equal keys
+     *
+     * @return the key
+     */
+    Object getKey();
+
+    /**
+     * @return a name for logging and error messages
+     */
+    String getName();
+
+    /**
+     * @return the size in bytes, -1 if unknown
+     * @throws IOException
+     */
+    long getSize() throws IOException;
+
+    /**
+     * read a range of the content
+     *
+     * @param position the start of the range
+     * @param length   the length of the range
+     * @return the bytes, position 0 and limit at the end of the read bytes, fewer than requested at the end of the content
+     * @throws IOException
+     */
+    ByteBuffer read(long position, int length) throws IOException;
+
+    /**
+     * @return a stream of the complete content
+     * @throws IOException
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * @return a channel over the complete content
+     * @throws IOException
+     */
+    default ReadableByteChannel openChannel() throws IOException {
+        return Channels.newChannel(openStream());
+    }
+
+    /**
+     * the local file, for optimizations bound to files (e.g. thumbnail caches or folder sync)
+     *
+     * @return the file or null if the source is no local file
+     */
+    default Path getPath() {
+        return null;
+    }
+
+    /**
+     * the position on the storage, to read adjacent images in order
+     *
+     * @return the location, null if the source has no storage order (e.g. remote images)
+     */
+    default IoLocation getLocation() {
+        return null;
+    }
+
+    /**
+     * read the image metadata from a small header window, grown when the header is larger
+     *
+     * @return the metadata
+     * @throws IOException if the format is unknown
+     */
+    default ImageMetadata probe() throws IOException {
+        return probe(this, PROBE_HEADER_WINDOW, PROBE_WINDOW);
+    }
+
+    /**
+     * read the image metadata from header windows of ascending size, a window is only read when the header did not
+     * fit in the previous one. Sources with larger headers are read as stream
+     *
+     * @param source  the image source
+     * @param windows the window sizes, ascending
+     * @return the metadata
+     * @throws IOException if the format is unknown
+     */
+    static ImageMetadata probe(final ImageSource source, final int... windows) throws IOException {
+        for (final int window : windows) {
+            final ByteBuffer header = source.read(0, window);
+            try {
+                return new ImageMetadata(header);
+            } catch (EOFException e) {
+                // the window covered the complete content
+                if (header.remaining() < window) throw e;
+            }
+        }
+        try (InputStream in = source.openStream()) {
+            return new ImageMetadata(in);
+        }
+    }
+
+    /**
+     * @param path the image file
+     * @return the source of the file
+     */
+    static ImageSource of(final Path path) {
+        return new PathImageSource(path);
+    }
+}
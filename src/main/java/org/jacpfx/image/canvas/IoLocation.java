@@ -0,0 +1,93 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * The position of an image on its storage: the group (a folder or an archive) and the position in the group (the
+ * inode of a file, the offset of an archive entry). Reads in this order are close to sequential on spinning disks
+ * and NAS mounts, see {@link DecodeScheduler.IoOrder#LOCALITY}.
+ */
+public final class IoLocation implements Comparable<IoLocation> {
+    private final String group;
+    private final long position;
+    private final String name;
+
+    /**
+     * @param group    the folder or archive
+     * @param position the position in the group, -1 if unknown
+     * @param name     the name, orders images of unknown position
+     */
+    public IoLocation(final String group, final long position, final String name) {
+        this.group = group;
+        this.position = position;
+        this.name = name;
+    }
+
+    /**
+     * the location of a file, by its folder and inode. File systems without inodes are ordered by name,
+     * which is close to the allocation order of files copied as a folder
+     *
+     * @param path the file
+     * @return the location
+     */
+    public static IoLocation of(final Path path) {
+        final Path parent = path.toAbsolutePath().getParent();
+        final Path fileName = path.getFileName();
+        return new IoLocation(parent != null ? parent.toString() : "", getInode(path), fileName != null ? fileName.toString() : "");
+    }
+
+    private static long getInode(final Path path) {
+        try {
+            final Object inode = Files.getAttribute(path, "unix:ino", LinkOption.NOFOLLOW_LINKS);
+            return inode instanceof Number ? ((Number) inode).longValue() : -1;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return -1;
+        }
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int compareTo(final IoLocation other) {
+        final int groups = group.compareTo(other.group);
+        if (groups != 0) return groups;
+        final int positions = Long.compare(position, other.position);
+        return positions != 0 ? positions : name.compareTo(other.name);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IoLocation)) return false;
+        final IoLocation other = (IoLocation) o;
+        return position == other.position && group.equals(other.group) && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(group, position, name);
+    }
+
+    @Override
+    public String toString() {
+        return "IoLocation{" +
+                "group='" + group + '\'' +
+                ", position=" + position +
+                ", name='" + name + '\'' +
+                '}';
+    }
+}
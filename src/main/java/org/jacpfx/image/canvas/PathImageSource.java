@@ -0,0 +1,138 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A local image file, the key is the path. The size and modification time of the file are kept by the first probe,
+ * they validate the probed header in a {@link SessionSnapshot}.
+ */
+public final class PathImageSource implements ImageSource {
+    private final Path path;
+    private volatile IoLocation location;
+    private volatile long probedSize = -1;
+    private volatile long probedModified = -1;
+
+    public PathImageSource(final Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public Object getKey() {
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        return path.toString();
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return Files.size(path);
+    }
+
+    @Override
+    public ByteBuffer read(final long position, final int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * read the validators before the header, a change while probing is detected on the next validation
+     */
+    @Override
+    public ImageMetadata probe() throws IOException {
+        if (probedModified < 0) {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            probedSize = attributes.size();
+            probedModified = attributes.lastModifiedTime().toMillis();
+        }
+        return ImageSource.super.probe();
+    }
+
+    /**
+     * @return the size of the file at the first probe, -1 if not probed
+     */
+    public long getProbedSize() {
+        return probedSize;
+    }
+
+    /**
+     * @return the modification time of the file in milliseconds at the first probe, -1 if not probed
+     */
+    public long getProbedModified() {
+        return probedModified;
+    }
+
+    /**
+     * restore the validators of a snapshot, the sizes of the snapshot are used instead of a probe
+     */
+    void restoreValidators(final long size, final long modified) {
+        this.probedSize = size;
+        this.probedModified = modified;
+    }
+
+    /**
+     * @return the folder and inode of the file, read once
+     */
+    @Override
+    public IoLocation getLocation() {
+        IoLocation result = location;
+        if (result == null) {
+            result = IoLocation.of(path);
+            location = result;
+        }
+        return result;
+    }
+
+    @Override
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PathImageSource)) return false;
+        return path.equals(((PathImageSource) o).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "PathImageSource{" +
+                "path=" + path +
+                '}';
+    }
+}
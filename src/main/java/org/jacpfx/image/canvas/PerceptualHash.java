@@ -0,0 +1,98 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+
+/**
+ * Difference hash (dHash) of an image: the image is reduced to 9x8 luminance cells, each bit tells whether a cell
+ * is darker than its right neighbour. Similar images (rescaled, recompressed, slightly edited) have hashes with a
+ * small Hamming distance. The cells are averaged from a few samples each, so hashing a decoded thumbnail costs
+ * about a thousand pixel reads.
+ */
+public final class PerceptualHash {
+    /**
+     * the number of bits of a hash
+     */
+    public static final int BITS = 64;
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    /**
+     * the samples per cell in each direction
+     */
+    private static final int SAMPLES = 4;
+
+    private PerceptualHash() {
+
+    }
+
+    /**
+     * @param image a loaded image
+     * @return the hash
+     */
+    public static long dHash(final Image image) {
+        final PixelReader reader = image.getPixelReader();
+        if (reader == null) throw new IllegalArgumentException("Image not loaded");
+        // the reader returns non premultiplied colours
+        return dHash((int) image.getWidth(), (int) image.getHeight(), (x, y) -> premultiply(reader.getArgb(x, y)));
+    }
+
+    /**
+     * @param buffer premultiplied pixels
+     * @return the hash
+     */
+    public static long dHash(final PixelBuffer buffer) {
+        final int[] pixels = buffer.getPixels();
+        final int width = buffer.getWidth();
+        return dHash(width, buffer.getHeight(), (x, y) -> pixels[y * width + x]);
+    }
+
+    /**
+     * @return the number of differing bits, 0 for equal hashes
+     */
+    public static int distance(final long hash, final long other) {
+        return Long.bitCount(hash ^ other);
+    }
+
+    private static long dHash(final int width, final int height, final Pixels pixels) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Empty image");
+        final double[] luma = new double[COLUMNS * ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                double sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    final int y = Math.min(height - 1, (int) ((row + (sy + 0.5d) / SAMPLES) * height / ROWS));
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        final int x = Math.min(width - 1, (int) ((column + (sx + 0.5d) / SAMPLES) * width / COLUMNS));
+                        final int argb = pixels.get(x, y);
+                        sum += 0.299d * (argb >> 16 & 0xFF) + 0.587d * (argb >> 8 & 0xFF) + 0.114d * (argb & 0xFF);
+                    }
+                }
+                luma[row * COLUMNS + column] = sum;
+            }
+        }
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                hash <<= 1;
+                if (luma[row * COLUMNS + column] < luma[row * COLUMNS + column + 1]) hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * transparent pixels count as black, like the premultiplied pixels of the decoders
+     */
+    private static int premultiply(final int argb) {
+        final int a = argb >>> 24;
+        if (a == 0xFF) return argb;
+        final int r = (argb >> 16 & 0xFF) * a / 255;
+        final int g = (argb >> 8 & 0xFF) * a / 255;
+        final int b = (argb & 0xFF) * a / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private interface Pixels {
+        int get(int x, int y);
+    }
+}
@@ -0,0 +1,108 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+
+/**
+ * A plain int[] pixel buffer, used to move image data between decoders, caches and the canvas
+ * without going through the scene graph. The pixels are premultiplied ARGB (IntArgbPre), see {@link PixelConversions}.
+ */
+public final class PixelBuffer {
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public PixelBuffer(final int width, final int height, final int[] pixels) {
+        if (pixels.length < width * height)
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public PixelBuffer(final int width, final int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    /**
+     * read all pixels of a (fully loaded) image with one bulk getPixels call
+     *
+     * @param image the source image
+     * @return the pixel buffer
+     */
+    public static PixelBuffer of(final Image image) {
+        return of(image, null);
+    }
+
+    /**
+     * read all pixels of a (fully loaded) image with one bulk getPixels call, a copy for IntArgbPre images,
+     * otherwise (e.g. the BGRA bytes of decoded images) counted as conversion
+     *
+     * @param image the source image
+     * @param dest  an array to reuse, when large enough
+     * @return the pixel buffer
+     */
+    public static PixelBuffer of(final Image image, final int[] dest) {
+        return of(image, 0, 0, (int) image.getWidth(), (int) image.getHeight(), dest);
+    }
+
+    /**
+     * read a region of a (fully loaded) image with one bulk getPixels call, see {@link #of(Image, int[])}
+     *
+     * @param image  the source image
+     * @param x      the left edge of the region
+     * @param y      the top edge of the region
+     * @param width  the width of the region
+     * @param height the height of the region
+     * @param dest   an array to reuse, when large enough
+     * @return the pixel buffer of the region
+     */
+    public static PixelBuffer of(final Image image, final int x, final int y, final int width, final int height, final int[] dest) {
+        final int[] pixels = dest != null && dest.length >= width * height ? dest : new int[width * height];
+        final PixelReader reader = image.getPixelReader();
+        if (!PixelConversions.isIntArgbPre(reader)) PixelConversions.count(PixelConversions.Kind.READ, (long) width * height);
+        reader.getPixels(x, y, width, height, PixelConversions.getFormat(), pixels, 0, width);
+        return new PixelBuffer(width, height, pixels);
+    }
+
+    /**
+     * write the buffer to a new image with one bulk setPixels call, counted as conversion, the image stores the
+     * pixels as premultiplied BGRA bytes
+     *
+     * @return the image
+     */
+    public WritableImage toImage() {
+        final WritableImage image = new WritableImage(width, height);
+        PixelConversions.count(PixelConversions.Kind.WRITE, (long) width * height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelConversions.getFormat(), pixels, 0, width);
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return the memory used by the pixels in bytes
+     */
+    public long getByteSize() {
+        return (long) width * height * 4;
+    }
+
+    @Override
+    public String toString() {
+        return "PixelBuffer{" +
+                "width=" + width +
+                ", height=" + height +
+                '}';
+    }
+}
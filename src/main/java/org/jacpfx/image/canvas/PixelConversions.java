@@ -0,0 +1,179 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritablePixelFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The pixel buffers are premultiplied int pixels (IntArgbPre), the layout the decoders, the kernels and the scaler
+ * work on. This is not the layout of JavaFX images, which store premultiplied BGRA bytes (ByteBgraPre): every pass
+ * between a buffer and an image (decode result, post processing) swizzles the channels and is counted here, like
+ * the conversions of decoders delivering other formats. The warm tier compresses and restores the BGRA bytes of the
+ * images directly, see {@link QoiCodec#encode(javafx.scene.image.Image)}. Drawing images of the hot tier and moving
+ * them between the tiers converts nothing, so scrolling over decoded thumbnails must not increase the counters.
+ */
+public final class PixelConversions {
+
+    /**
+     * the kinds of conversion passes
+     */
+    public enum Kind {
+        /**
+         * decoder output (e.g. BGR bytes or gray) converted to premultiplied pixels
+         */
+        DECODE,
+        /**
+         * an image with an other pixel format read to premultiplied pixels or bytes
+         */
+        READ,
+        /**
+         * straight alpha pixels premultiplied
+         */
+        PREMULTIPLY,
+        /**
+         * premultiplied pixels written to an image, which stores them as premultiplied BGRA bytes
+         */
+        WRITE,
+        /**
+         * premultiplied pixels converted back to straight alpha
+         */
+        UNPREMULTIPLY
+    }
+
+    private static final Map<Kind, LongAdder> PASSES = new EnumMap<>(Kind.class);
+    private static final Map<Kind, LongAdder> PIXELS = new EnumMap<>(Kind.class);
+
+    static {
+        for (final Kind kind : Kind.values()) {
+            PASSES.put(kind, new LongAdder());
+            PIXELS.put(kind, new LongAdder());
+        }
+    }
+
+    private PixelConversions() {
+
+    }
+
+    /**
+     * the pixel format all buffers use
+     *
+     * @return IntArgbPre
+     */
+    public static WritablePixelFormat<IntBuffer> getFormat() {
+        return PixelFormat.getIntArgbPreInstance();
+    }
+
+    /**
+     * the pixel format JavaFX images store
+     *
+     * @return ByteBgraPre
+     */
+    public static WritablePixelFormat<ByteBuffer> getByteFormat() {
+        return PixelFormat.getByteBgraPreInstance();
+    }
+
+    /**
+     * @param reader the reader of an image
+     * @return true if reading the image as IntArgbPre is a plain copy, BGRA bytes are swizzled to ARGB ints
+     */
+    public static boolean isIntArgbPre(final PixelReader reader) {
+        return reader.getPixelFormat().getType() == PixelFormat.Type.INT_ARGB_PRE;
+    }
+
+    /**
+     * @param reader the reader of an image
+     * @return true if reading the image as ByteBgraPre is a plain copy, e.g. for all writable images
+     */
+    public static boolean isByteBgraPre(final PixelReader reader) {
+        return reader.getPixelFormat().getType() == PixelFormat.Type.BYTE_BGRA_PRE;
+    }
+
+    /**
+     * count a conversion pass
+     *
+     * @param kind   the kind of conversion
+     * @param pixels the converted pixels
+     */
+    public static void count(final Kind kind, final long pixels) {
+        PASSES.get(kind).increment();
+        PIXELS.get(kind).add(pixels);
+    }
+
+    /**
+     * @param kind the kind of conversion
+     * @return the conversion passes since the last reset
+     */
+    public static long getPasses(final Kind kind) {
+        return PASSES.get(kind).sum();
+    }
+
+    /**
+     * @param kind the kind of conversion
+     * @return the converted pixels since the last reset
+     */
+    public static long getPixels(final Kind kind) {
+        return PIXELS.get(kind).sum();
+    }
+
+    /**
+     * @return all conversion passes since the last reset
+     */
+    public static long getPasses() {
+        long passes = 0;
+        for (final LongAdder adder : PASSES.values()) {
+            passes += adder.sum();
+        }
+        return passes;
+    }
+
+    public static void reset() {
+        PASSES.values().forEach(LongAdder::reset);
+        PIXELS.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * premultiply straight alpha pixels in place, counted as PREMULTIPLY
+     *
+     * @param pixels the pixels
+     * @param length the number of pixels
+     */
+    public static void premultiply(final int[] pixels, final int length) {
+        PixelOps.get().premultiply(pixels, pixels, 0, length);
+        count(Kind.PREMULTIPLY, length);
+    }
+
+    /**
+     * @param color a premultiplied pixel
+     * @return the straight alpha pixel
+     */
+    static int unpremultiply(final int color) {
+        final int alpha = color >>> 24;
+        if (alpha == 0xFF) return color;
+        if (alpha == 0) return 0;
+        return alpha << 24
+                | Math.min(255, ((color >>> 16 & 0xFF) * 255 + alpha / 2) / alpha) << 16
+                | Math.min(255, ((color >>> 8 & 0xFF) * 255 + alpha / 2) / alpha) << 8
+                | Math.min(255, ((color & 0xFF) * 255 + alpha / 2) / alpha);
+    }
+
+    /**
+     * @param color a straight alpha pixel
+     * @return the premultiplied pixel
+     */
+    static int premultiply(final int color) {
+        return ScalarPixelOps.premultiply(color);
+    }
+
+    /**
+     * @return the passes per kind, for logging
+     */
+    public static String getSummary() {
+        return "PixelConversions" + PASSES;
+    }
+}
@@ -0,0 +1,301 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pixel kernels on whole premultiplied ARGB buffers. The image is read with one getPixels call, the kernels run on the int[]
+ * buffer split into row bands on the fork-join pool and the result is written with one setPixels call.
+ */
+public final class PixelKernels {
+    /**
+     * bands smaller than this amount of pixels are not split further
+     */
+    private static final int MIN_BAND_PIXELS = 16 * 1024;
+
+    private PixelKernels() {
+
+    }
+
+    /**
+     * read all pixels of an image
+     *
+     * @param image the image
+     * @return the pixels
+     */
+    public static PixelBuffer read(final Image image) {
+        return PixelBuffer.of(image);
+    }
+
+    /**
+     * write all pixels to an image of the same size
+     *
+     * @param src  the pixels
+     * @param dest the image
+     */
+    public static void write(final PixelBuffer src, final WritableImage dest) {
+        dest.getPixelWriter().setPixels(0, 0, src.getWidth(), src.getHeight(), PixelConversions.getFormat(), src.getPixels(), 0, src.getWidth());
+    }
+
+    /**
+     * bulk copy of the pixels
+     *
+     * @param src  the source pixels
+     * @param dest an array to reuse for the result, when large enough
+     * @return the copy
+     */
+    public static PixelBuffer copy(final PixelBuffer src, final int[] dest) {
+        final int size = src.getWidth() * src.getHeight();
+        final int[] out = ensure(dest, size);
+        System.arraycopy(src.getPixels(), 0, out, 0, size);
+        return new PixelBuffer(src.getWidth(), src.getHeight(), out);
+    }
+
+    /**
+     * box blur, every pixel is the mean of the (2 * radius + 1) x (2 * radius + 1) pixels around it, clipped at the image border
+     *
+     * @param src    the source pixels
+     * @param radius the kernel radius
+     * @return the blurred pixels
+     */
+    public static PixelBuffer boxBlur(final PixelBuffer src, final int radius) {
+        return boxBlur(src, radius, null);
+    }
+
+    /**
+     * box blur, every pixel is the mean of the (2 * radius + 1) x (2 * radius + 1) pixels around it, clipped at the image border.
+     * The blur is separated in a horizontal and a vertical pass, both keep running sums, so the cost per pixel does
+     * not depend on the radius. Radii beyond the image size blur like the image size.
+     *
+     * @param src    the source pixels
+     * @param radius the kernel radius
+     * @param dest   an array to reuse for the result, when large enough
+     * @return the blurred pixels
+     */
+    public static PixelBuffer boxBlur(final PixelBuffer src, final int radius, final int[] dest) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int[] out = ensure(dest, width * height);
+        if (radius <= 0) return copy(src, out);
+        // the window is clipped at the border, a larger radius covers the whole row or column anyway
+        final int clamped = Math.min(radius, Math.max(width, height));
+        final int[] in = src.getPixels();
+        final int[] temp = new int[width * height];
+        forEachBand(height, width, (from, to) -> blurRows(in, temp, width, clamped, from, to));
+        forEachBand(height, width, (from, to) -> blurColumns(temp, out, width, height, clamped, from, to));
+        return new PixelBuffer(width, height, out);
+    }
+
+    /**
+     * mosaic, every block of size x size pixels is filled with its mean colour
+     *
+     * @param src  the source pixels
+     * @param size the block size
+     * @return the mosaic pixels
+     */
+    public static PixelBuffer mosaic(final PixelBuffer src, final int size) {
+        return mosaic(src, size, null);
+    }
+
+    /**
+     * mosaic, every block of size x size pixels is filled with its mean colour, the blocks at the right and
+     * bottom border are smaller
+     *
+     * @param src  the source pixels
+     * @param size the block size
+     * @param dest an array to reuse for the result, when large enough
+     * @return the mosaic pixels
+     */
+    public static PixelBuffer mosaic(final PixelBuffer src, final int size, final int[] dest) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int[] out = ensure(dest, width * height);
+        if (size <= 1) return copy(src, out);
+        final int[] in = src.getPixels();
+        final int blockRows = (height + size - 1) / size;
+        // bands of block rows, so no block is split
+        forEachBand(blockRows, width * size, (from, to) -> mosaicRows(in, out, width, height, size, from, to));
+        return new PixelBuffer(width, height, out);
+    }
+
+    /**
+     * premultiply the colour channels with alpha
+     *
+     * @param src  the ARGB pixels
+     * @param dest an array to reuse for the result, when large enough, may be the source array
+     * @return the premultiplied pixels
+     */
+    public static PixelBuffer premultiply(final PixelBuffer src, final int[] dest) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int[] out = ensure(dest, width * height);
+        final int[] in = src.getPixels();
+        forEachBand(height, width, (from, to) -> PixelOps.get().premultiply(in, out, from * width, to * width));
+        return new PixelBuffer(width, height, out);
+    }
+
+    private static void blurRows(final int[] in, final int[] out, final int width, final int radius, final int from, final int to) {
+        int lastCount = 0;
+        long reciprocal = 0;
+        for (int y = from; y < to; y++) {
+            final int row = y * width;
+            int alpha = 0;
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+            // window [x - radius, x + radius] clipped to the row
+            for (int x = 0; x < Math.min(radius, width); x++) {
+                final int color = in[row + x];
+                alpha += color >>> 24;
+                red += color >>> 16 & 0xFF;
+                green += color >>> 8 & 0xFF;
+                blue += color & 0xFF;
+            }
+            for (int x = 0; x < width; x++) {
+                final int enter = x + radius;
+                if (enter < width) {
+                    final int color = in[row + enter];
+                    alpha += color >>> 24;
+                    red += color >>> 16 & 0xFF;
+                    green += color >>> 8 & 0xFF;
+                    blue += color & 0xFF;
+                }
+                final int leave = x - radius - 1;
+                if (leave >= 0) {
+                    final int color = in[row + leave];
+                    alpha -= color >>> 24;
+                    red -= color >>> 16 & 0xFF;
+                    green -= color >>> 8 & 0xFF;
+                    blue -= color & 0xFF;
+                }
+                final int count = Math.min(width - 1, x + radius) - Math.max(0, x - radius) + 1;
+                if (count >= ScalarPixelOps.MAX_RECIPROCAL_DIVISOR) {
+                    // rows wider than 4096 pixels with a radius of 2048 or more
+                    out[row + x] = (alpha / count) << 24 | (red / count) << 16 | (green / count) << 8 | (blue / count);
+                    continue;
+                }
+                if (count != lastCount) {
+                    reciprocal = ScalarPixelOps.reciprocal(count);
+                    lastCount = count;
+                }
+                out[row + x] = ScalarPixelOps.divide(alpha, reciprocal) << 24 | ScalarPixelOps.divide(red, reciprocal) << 16
+                        | ScalarPixelOps.divide(green, reciprocal) << 8 | ScalarPixelOps.divide(blue, reciprocal);
+            }
+        }
+    }
+
+    private static void blurColumns(final int[] in, final int[] out, final int width, final int height, final int radius, final int from, final int to) {
+        final PixelOps ops = PixelOps.get();
+        // running sums per column, started with the window of the row before the band
+        final int[] alpha = new int[width];
+        final int[] red = new int[width];
+        final int[] green = new int[width];
+        final int[] blue = new int[width];
+        for (int y = Math.max(0, from - radius - 1); y < Math.min(height, from + radius); y++) {
+            ops.accumulate(in, y * width, width, alpha, red, green, blue, 1);
+        }
+        for (int y = from; y < to; y++) {
+            final int enter = y + radius;
+            if (enter < height) ops.accumulate(in, enter * width, width, alpha, red, green, blue, 1);
+            final int leave = y - radius - 1;
+            if (leave >= 0) ops.accumulate(in, leave * width, width, alpha, red, green, blue, -1);
+            final int count = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+            ops.pack(alpha, red, green, blue, count, out, y * width, width);
+        }
+    }
+
+    private static void mosaicRows(final int[] in, final int[] out, final int width, final int height, final int size, final int from, final int to) {
+        final PixelOps ops = PixelOps.get();
+        final int[] alpha = new int[width];
+        final int[] red = new int[width];
+        final int[] green = new int[width];
+        final int[] blue = new int[width];
+        for (int block = from; block < to; block++) {
+            final int y0 = block * size;
+            final int y1 = Math.min(height, y0 + size);
+            // column sums of the block row, then the sum of each block
+            Arrays.fill(alpha, 0);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            for (int y = y0; y < y1; y++) {
+                ops.accumulate(in, y * width, width, alpha, red, green, blue, 1);
+            }
+            for (int x0 = 0; x0 < width; x0 += size) {
+                final int x1 = Math.min(width, x0 + size);
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int x = x0; x < x1; x++) {
+                    a += alpha[x];
+                    r += red[x];
+                    g += green[x];
+                    b += blue[x];
+                }
+                final int count = (x1 - x0) * (y1 - y0);
+                final int mean = (a / count) << 24 | (r / count) << 16 | (g / count) << 8 | (b / count);
+                for (int y = y0; y < y1; y++) {
+                    Arrays.fill(out, y * width + x0, y * width + x1, mean);
+                }
+            }
+        }
+    }
+
+    /**
+     * run the task on row bands, split on the fork-join pool while a band is large enough
+     *
+     * @param rows         the number of rows
+     * @param pixelsPerRow the pixels in one row
+     * @param task         the task for a band
+     */
+    static void forEachBand(final int rows, final int pixelsPerRow, final BandTask task) {
+        final int minRows = Math.max(1, MIN_BAND_PIXELS / Math.max(1, pixelsPerRow));
+        if (rows <= minRows) {
+            task.run(0, rows);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new Bands(task, 0, rows, minRows));
+    }
+
+    private static int[] ensure(final int[] array, final int size) {
+        return array != null && array.length >= size ? array : new int[size];
+    }
+
+    /**
+     * A kernel working on the rows [from, to)
+     */
+    @FunctionalInterface
+    interface BandTask {
+        void run(int from, int to);
+    }
+
+    private static final class Bands extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final BandTask task;
+        private final int from;
+        private final int to;
+        private final int minRows;
+
+        private Bands(final BandTask task, final int from, final int to, final int minRows) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.minRows = minRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= minRows) {
+                task.run(from, to);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new Bands(task, from, middle, minRows), new Bands(task, middle, to, minRows));
+        }
+    }
+}
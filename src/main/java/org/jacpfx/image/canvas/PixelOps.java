@@ -0,0 +1,108 @@
+package org.jacpfx.image.canvas;
+
+import java.util.Optional;
+
+/**
+ * The inner loops of the pixel kernels, which work on whole rows of ARGB pixels. A SIMD implementation based on
+ * the Vector API is used when the jdk.incubator.vector module is available (--add-modules jdk.incubator.vector),
+ * otherwise the scalar implementation. Set the system property "jacpfx.image.vector" to false to force scalar code.
+ */
+interface PixelOps {
+
+    /**
+     * @return the best implementation available at runtime
+     */
+    static PixelOps get() {
+        return Holder.OPS;
+    }
+
+    /**
+     * @return a scalar implementation
+     */
+    static PixelOps scalar() {
+        return Holder.SCALAR;
+    }
+
+    /**
+     * add (sign 1) or subtract (sign -1) the channels of a row to the per column sums
+     *
+     * @param in     the pixels
+     * @param offset the start of the row
+     * @param width  the row width
+     * @param alpha  the alpha sums
+     * @param red    the red sums
+     * @param green  the green sums
+     * @param blue   the blue sums
+     * @param sign   1 or -1
+     */
+    void accumulate(int[] in, int offset, int width, int[] alpha, int[] red, int[] green, int[] blue, int sign);
+
+    /**
+     * divide the per column sums by count and pack them to ARGB pixels
+     *
+     * @param alpha  the alpha sums
+     * @param red    the red sums
+     * @param green  the green sums
+     * @param blue   the blue sums
+     * @param count  the divisor
+     * @param out    the pixels
+     * @param offset the start of the row in out
+     * @param width  the row width
+     */
+    void pack(int[] alpha, int[] red, int[] green, int[] blue, int count, int[] out, int offset, int width);
+
+    /**
+     * premultiply the colour channels with alpha
+     *
+     * @param in   the ARGB pixels
+     * @param out  the premultiplied pixels, may be the same array
+     * @param from the first index
+     * @param to   the end index
+     */
+    void premultiply(int[] in, int[] out, int from, int to);
+
+    /**
+     * @return a description of the implementation, e.g. the vector width
+     */
+    String describe();
+
+    /**
+     * lazy initialisation of the implementation
+     */
+    final class Holder {
+        private static final System.Logger LOGGER = System.getLogger(PixelOps.class.getName());
+        private static final PixelOps SCALAR = new ScalarPixelOps();
+        private static final PixelOps OPS = load();
+
+        private Holder() {
+
+        }
+
+        private static PixelOps load() {
+            final PixelOps ops = loadVector();
+            LOGGER.log(System.Logger.Level.INFO, "pixel kernels: " + ops.describe());
+            return ops;
+        }
+
+        private static PixelOps loadVector() {
+            if (!Boolean.parseBoolean(System.getProperty("jacpfx.image.vector", "true"))) return SCALAR;
+            final Optional<Module> vector = ModuleLayer.boot().findModule("jdk.incubator.vector");
+            if (!vector.isPresent()) {
+                LOGGER.log(System.Logger.Level.DEBUG, "jdk.incubator.vector is not in the boot layer, using scalar kernels");
+                return SCALAR;
+            }
+            try {
+                // the module does not require the incubator module, which would warn on every compile, read it now.
+                // VectorPixelOps is loaded by name, so the scalar path never links against the incubator module
+                PixelOps.class.getModule().addReads(vector.get());
+                return (PixelOps) Class.forName("org.jacpfx.image.canvas.VectorPixelOps").getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "VectorPixelOps is not compiled (build with -Pvector), using scalar kernels");
+                return SCALAR;
+            } catch (Exception | LinkageError e) {
+                LOGGER.log(System.Logger.Level.WARNING, "cannot load VectorPixelOps, using scalar kernels", e);
+                return SCALAR;
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.jacpfx.image.canvas;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+
+import java.util.Arrays;
+
+/**
+ * Lossless codec for the "Quite OK Image" format (https://qoiformat.org), used to keep evicted thumbnails
+ * compressed in memory. Encoding and decoding are a single linear pass over the pixels, which is far cheaper
+ * than decoding the original JPEG again. The premultiplied pixels are stored as they are, so neither direction
+ * converts the pixel format. Images are encoded from and decoded to their premultiplied BGRA bytes, the pixel
+ * buffers from and to IntArgbPre ints.
+ */
+public final class QoiCodec {
+    private static final int HEADER_SIZE = 14;
+    private static final byte[] PADDING = {0, 0, 0, 0, 0, 0, 0, 1};
+
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xc0;
+    private static final int OP_RGB = 0xfe;
+    private static final int OP_RGBA = 0xff;
+    private static final int MASK_2 = 0xc0;
+
+    private QoiCodec() {
+
+    }
+
+    /**
+     * encode premultiplied ARGB pixels
+     *
+     * @param buffer the pixels
+     * @return the QOI encoded bytes
+     */
+    public static byte[] encode(final PixelBuffer buffer) {
+        return encode(buffer.getWidth(), buffer.getHeight(), buffer.getPixels(), null);
+    }
+
+    /**
+     * encode the premultiplied BGRA bytes of an image, read with one bulk getPixels call. This copies the bytes of
+     * images stored as ByteBgraPre, other images are counted as conversion
+     *
+     * @param image the image
+     * @return the QOI encoded bytes
+     */
+    public static byte[] encode(final Image image) {
+        final int width = (int) image.getWidth();
+        final int height = (int) image.getHeight();
+        final byte[] bgra = new byte[width * height * 4];
+        final PixelReader reader = image.getPixelReader();
+        if (!PixelConversions.isByteBgraPre(reader)) PixelConversions.count(PixelConversions.Kind.READ, (long) width * height);
+        reader.getPixels(0, 0, width, height, PixelConversions.getByteFormat(), bgra, 0, width * 4);
+        return encode(width, height, bgra);
+    }
+
+    /**
+     * encode premultiplied BGRA bytes
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param bgra   the pixels, four bytes each
+     * @return the QOI encoded bytes
+     */
+    static byte[] encode(final int width, final int height, final byte[] bgra) {
+        return encode(width, height, null, bgra);
+    }
+
+    /**
+     * the single pass over either ARGB ints or BGRA bytes, the other array is null
+     */
+    private static byte[] encode(final int width, final int height, final int[] pixels, final byte[] bgra) {
+        final int size = width * height;
+        final byte[] out = new byte[HEADER_SIZE + size * 5 + PADDING.length];
+        int p = writeHeader(out, width, height);
+
+        final int[] index = new int[64];
+        int prev = 0xff000000;
+        int run = 0;
+        for (int i = 0; i < size; i++) {
+            final int px = pixels != null ? pixels[i] : getBgra(bgra, i << 2);
+            if (px == prev) {
+                run++;
+                if (run == 62 || i == size - 1) {
+                    out[p++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0) {
+                out[p++] = (byte) (OP_RUN | (run - 1));
+                run = 0;
+            }
+            final int hash = hash(px);
+            if (index[hash] == px) {
+                out[p++] = (byte) (OP_INDEX | hash);
+            } else {
+                index[hash] = px;
+                final int r = px >>> 16 & 0xff;
+                final int g = px >>> 8 & 0xff;
+                final int b = px & 0xff;
+                final int a = px >>> 24;
+                if (a == prev >>> 24) {
+                    final int vr = (byte) (r - (prev >>> 16 & 0xff));
+                    final int vg = (byte) (g - (prev >>> 8 & 0xff));
+                    final int vb = (byte) (b - (prev & 0xff));
+                    final int vgr = vr - vg;
+                    final int vgb = vb - vg;
+                    if (vr > -3 && vr < 2 && vg > -3 && vg < 2 && vb > -3 && vb < 2) {
+                        out[p++] = (byte) (OP_DIFF | (vr + 2) << 4 | (vg + 2) << 2 | (vb + 2));
+                    } else if (vgr > -9 && vgr < 8 && vg > -33 && vg < 32 && vgb > -9 && vgb < 8) {
+                        out[p++] = (byte) (OP_LUMA | (vg + 32));
+                        out[p++] = (byte) ((vgr + 8) << 4 | (vgb + 8));
+                    } else {
+                        out[p++] = (byte) OP_RGB;
+                        out[p++] = (byte) r;
+                        out[p++] = (byte) g;
+                        out[p++] = (byte) b;
+                    }
+                } else {
+                    out[p++] = (byte) OP_RGBA;
+                    out[p++] = (byte) r;
+                    out[p++] = (byte) g;
+                    out[p++] = (byte) b;
+                    out[p++] = (byte) a;
+                }
+            }
+            prev = px;
+        }
+        System.arraycopy(PADDING, 0, out, p, PADDING.length);
+        return Arrays.copyOf(out, p + PADDING.length);
+    }
+
+    /**
+     * decode QOI bytes to premultiplied ARGB pixels
+     *
+     * @param data the encoded image
+     * @return the pixels
+     */
+    public static PixelBuffer decode(final byte[] data) {
+        final int width = readWidth(data);
+        final int height = readHeight(data, width);
+        final int[] pixels = new int[width * height];
+        decode(data, pixels, null);
+        return new PixelBuffer(width, height, pixels);
+    }
+
+    /**
+     * decode QOI bytes to an image, the premultiplied BGRA bytes are written with one bulk setPixels call in the
+     * format the image stores
+     *
+     * @param data the encoded image
+     * @return the image
+     */
+    public static WritableImage decodeImage(final byte[] data) {
+        final int width = readWidth(data);
+        final int height = readHeight(data, width);
+        final byte[] bgra = new byte[width * height * 4];
+        decode(data, null, bgra);
+        final WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelConversions.getByteFormat(), bgra, 0, width * 4);
+        return image;
+    }
+
+    /**
+     * decode QOI bytes to premultiplied BGRA bytes
+     *
+     * @param data the encoded image
+     * @return the pixels, four bytes each
+     */
+    static byte[] decodeBgra(final byte[] data) {
+        final int width = readWidth(data);
+        final byte[] bgra = new byte[width * readHeight(data, width) * 4];
+        decode(data, null, bgra);
+        return bgra;
+    }
+
+    private static int readWidth(final byte[] data) {
+        if (data.length < HEADER_SIZE + PADDING.length || data[0] != 'q' || data[1] != 'o' || data[2] != 'i' || data[3] != 'f')
+            throw new IllegalArgumentException("not a QOI image");
+        return readInt(data, 4);
+    }
+
+    /**
+     * @return the height, checked against the encoded size
+     */
+    private static int readHeight(final byte[] data, final int width) {
+        final int height = readInt(data, 8);
+        final int end = data.length - PADDING.length;
+        // a run covers at most 62 pixels per byte, larger sizes are corrupt and must not be allocated
+        if (width < 0 || height < 0 || (long) width * height > (long) (end - HEADER_SIZE) * 62)
+            throw new IllegalArgumentException("corrupt QOI size " + width + "x" + height);
+        return height;
+    }
+
+    /**
+     * the single pass writing either ARGB ints or BGRA bytes, the other array is null
+     */
+    private static void decode(final byte[] data, final int[] pixels, final byte[] bgra) {
+        final int size = pixels != null ? pixels.length : bgra.length >> 2;
+        final int end = data.length - PADDING.length;
+        final int[] index = new int[64];
+
+        int p = HEADER_SIZE;
+        int px = 0xff000000;
+        int run = 0;
+        for (int i = 0; i < size; i++) {
+            if (run > 0) {
+                run--;
+            } else if (p < end) {
+                final int b1 = data[p++] & 0xff;
+                if (b1 == OP_RGB) {
+                    px = (px & 0xff000000) | (data[p] & 0xff) << 16 | (data[p + 1] & 0xff) << 8 | (data[p + 2] & 0xff);
+                    p += 3;
+                } else if (b1 == OP_RGBA) {
+                    px = (data[p + 3] & 0xff) << 24 | (data[p] & 0xff) << 16 | (data[p + 1] & 0xff) << 8 | (data[p + 2] & 0xff);
+                    p += 4;
+                } else if ((b1 & MASK_2) == OP_INDEX) {
+                    px = index[b1];
+                } else if ((b1 & MASK_2) == OP_DIFF) {
+                    px = withRgb(px,
+                            (px >>> 16) + ((b1 >> 4) & 0x03) - 2,
+                            (px >>> 8) + ((b1 >> 2) & 0x03) - 2,
+                            px + (b1 & 0x03) - 2);
+                } else if ((b1 & MASK_2) == OP_LUMA) {
+                    final int b2 = data[p++] & 0xff;
+                    final int vg = (b1 & 0x3f) - 32;
+                    px = withRgb(px,
+                            (px >>> 16) + vg - 8 + ((b2 >> 4) & 0x0f),
+                            (px >>> 8) + vg,
+                            px + vg - 8 + (b2 & 0x0f));
+                } else {
+                    run = b1 & 0x3f;
+                }
+                index[hash(px)] = px;
+            }
+            if (pixels != null) {
+                pixels[i] = px;
+            } else {
+                putBgra(bgra, i << 2, px);
+            }
+        }
+    }
+
+
+    private static int withRgb(final int px, final int r, final int g, final int b) {
+        return (px & 0xff000000) | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff);
+    }
+
+    private static int getBgra(final byte[] bgra, final int offset) {
+        return (bgra[offset + 3] & 0xff) << 24 | (bgra[offset + 2] & 0xff) << 16 | (bgra[offset + 1] & 0xff) << 8 | (bgra[offset] & 0xff);
+    }
+
+    private static void putBgra(final byte[] bgra, final int offset, final int px) {
+        bgra[offset] = (byte) px;
+        bgra[offset + 1] = (byte) (px >>> 8);
+        bgra[offset + 2] = (byte) (px >>> 16);
+        bgra[offset + 3] = (byte) (px >>> 24);
+    }
+
+    private static int hash(final int px) {
+        return ((px >>> 16 & 0xff) * 3 + (px >>> 8 & 0xff) * 5 + (px & 0xff) * 7 + (px >>> 24) * 11) & 63;
+    }
+
+    private static int writeHeader(final byte[] out, final int width, final int height) {
+        out[0] = 'q';
+        out[1] = 'o';
+        out[2] = 'i';
+        out[3] = 'f';
+        writeInt(out, 4, width);
+        writeInt(out, 8, height);
+        out[12] = 4; // RGBA
+        out[13] = 0; // sRGB with linear alpha
+        return HEADER_SIZE;
+    }
+
+    private static void writeInt(final byte[] out, final int offset, final int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(final byte[] data, final int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,82 @@
+package org.jacpfx.image.canvas;
+
+/**
+ * Scalar implementation of the pixel kernel loops
+ */
+final class ScalarPixelOps implements PixelOps {
+    /**
+     * divisors below this value divide the sum of 8 bit channels exactly by multiplication with the reciprocal
+     */
+    static final int MAX_RECIPROCAL_DIVISOR = 4096;
+
+    @Override
+    public void accumulate(final int[] in, final int offset, final int width,
+                           final int[] alpha, final int[] red, final int[] green, final int[] blue, final int sign) {
+        for (int x = 0; x < width; x++) {
+            final int color = in[offset + x];
+            alpha[x] += sign * (color >>> 24);
+            red[x] += sign * (color >>> 16 & 0xFF);
+            green[x] += sign * (color >>> 8 & 0xFF);
+            blue[x] += sign * (color & 0xFF);
+        }
+    }
+
+    @Override
+    public void pack(final int[] alpha, final int[] red, final int[] green, final int[] blue, final int count,
+                     final int[] out, final int offset, final int width) {
+        if (count >= MAX_RECIPROCAL_DIVISOR) {
+            for (int x = 0; x < width; x++) {
+                out[offset + x] = (alpha[x] / count) << 24 | (red[x] / count) << 16 | (green[x] / count) << 8 | (blue[x] / count);
+            }
+            return;
+        }
+        final long reciprocal = reciprocal(count);
+        for (int x = 0; x < width; x++) {
+            out[offset + x] = divide(alpha[x], reciprocal) << 24 | divide(red[x], reciprocal) << 16
+                    | divide(green[x], reciprocal) << 8 | divide(blue[x], reciprocal);
+        }
+    }
+
+    @Override
+    public void premultiply(final int[] in, final int[] out, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            out[i] = premultiply(in[i]);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "scalar";
+    }
+
+    static int premultiply(final int color) {
+        final int alpha = color >>> 24;
+        if (alpha == 0xFF) return color;
+        return alpha << 24
+                | multiply(color >>> 16 & 0xFF, alpha) << 16
+                | multiply(color >>> 8 & 0xFF, alpha) << 8
+                | multiply(color & 0xFF, alpha);
+    }
+
+    /**
+     * value * alpha / 255, rounded
+     */
+    static int multiply(final int value, final int alpha) {
+        final int t = value * alpha + 128;
+        return (t + (t >>> 8)) >>> 8;
+    }
+
+    /**
+     * the 32 bit fixed point reciprocal, rounded up
+     */
+    static long reciprocal(final int count) {
+        return ((1L << 32) + count - 1) / count;
+    }
+
+    /**
+     * sum / count for sums of at most 255 * count and count below MAX_RECIPROCAL_DIVISOR
+     */
+    static int divide(final int sum, final long reciprocal) {
+        return (int) ((sum * reciprocal) >>> 32);
+    }
+}
@@ -0,0 +1,494 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of a {@link CanvasPanel} in one memory-mapped file, to show the last viewport on the next start without
+ * scanning, probing, laying out and decoding again. The snapshot holds the images with their sizes, validators and
+ * perceptual hashes, the rows of the last layout with the panel width and the scroll offset, and the QOI compressed
+ * thumbnails of the visible images. Local files and HTTP images are written, images of other sources (archive
+ * entries) are added again by the application.
+ * <p>
+ * The file is written to a temporary file and moved in place, a crash while writing keeps the previous snapshot.
+ */
+public final class SessionSnapshot {
+    private static final int MAGIC = 0x43494753;
+    private static final int VERSION = 1;
+    private static final byte PATH = 1;
+    private static final byte HTTP = 2;
+    private static final int HASHED = 1;
+    private static final int FINGERPRINT = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 7 * 8 + 3 * 4;
+    private static final int ENTRY_SIZE = 1 + 1 + 5 * 8 + 4 + 5 * 8;
+
+    private final double width;
+    private final double maxHight;
+    private final double maxWidth;
+    private final double padding;
+    private final double zoom;
+    private final double lineBreakThreshold;
+    private final double offset;
+    private final List<Entry> entries;
+    private final List<Row> rows;
+    private final List<Thumbnail> thumbnails;
+
+    SessionSnapshot(final double width, final double maxHight, final double maxWidth, final double padding, final double zoom,
+                    final double lineBreakThreshold, final double offset, final List<Entry> entries, final List<Row> rows,
+                    final List<Thumbnail> thumbnails) {
+        this.width = width;
+        this.maxHight = maxHight;
+        this.maxWidth = maxWidth;
+        this.padding = padding;
+        this.zoom = zoom;
+        this.lineBreakThreshold = lineBreakThreshold;
+        this.offset = offset;
+        this.entries = entries;
+        this.rows = rows;
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * map and read a snapshot, the thumbnails are decompressed on the calling thread
+     *
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file is no snapshot of this version
+     */
+    public static SessionSnapshot read(final Path file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("No session snapshot " + file);
+            if (buffer.getInt() != VERSION) throw new IOException("Unsupported session snapshot version " + file);
+            final double width = buffer.getDouble();
+            final double maxHight = buffer.getDouble();
+            final double maxWidth = buffer.getDouble();
+            final double padding = buffer.getDouble();
+            final double zoom = buffer.getDouble();
+            final double lineBreakThreshold = buffer.getDouble();
+            final double offset = buffer.getDouble();
+            final int entryCount = buffer.getInt();
+            final int rowCount = buffer.getInt();
+            final int thumbnailCount = buffer.getInt();
+            final List<Entry> entries = new ArrayList<>(checkCount(buffer, entryCount));
+            for (int i = 0; i < entryCount; i++) {
+                entries.add(readEntry(buffer));
+            }
+            final List<Row> rows = new ArrayList<>(checkCount(buffer, rowCount));
+            for (int i = 0; i < rowCount; i++) {
+                rows.add(new Row(buffer.getInt(), buffer.getDouble(), buffer.getDouble()));
+            }
+            final List<Thumbnail> thumbnails = new ArrayList<>(checkCount(buffer, thumbnailCount));
+            for (int i = 0; i < thumbnailCount; i++) {
+                final int index = buffer.getInt();
+                final int hight = buffer.getInt();
+                final byte[] data = new byte[checkLength(buffer, buffer.getInt())];
+                buffer.get(data);
+                thumbnails.add(new Thumbnail(index, hight, QoiCodec.decode(data)));
+            }
+            return new SessionSnapshot(width, maxHight, maxWidth, padding, zoom, lineBreakThreshold, offset,
+                    entries, rows, thumbnails);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt session snapshot " + file, e);
+        }
+    }
+
+    private static Entry readEntry(final ByteBuffer buffer) {
+        final byte kind = buffer.get();
+        final byte flags = buffer.get();
+        final String location = readString(buffer);
+        final double width = buffer.getDouble();
+        final double hight = buffer.getDouble();
+        final double startX = buffer.getDouble();
+        final double startY = buffer.getDouble();
+        final double scaleFactor = buffer.getDouble();
+        final int position = buffer.getInt();
+        final long size = buffer.getLong();
+        final long modified = buffer.getLong();
+        final long hash = buffer.getLong();
+        final long fingerprintSize = buffer.getLong();
+        final long fingerprintHash = buffer.getLong();
+        final ImageSource source;
+        if (kind == PATH) {
+            final PathImageSource path = new PathImageSource(Paths.get(location));
+            path.restoreValidators(size, modified);
+            source = path;
+        } else if (kind == HTTP) {
+            final HttpImageSource http = new HttpImageSource(URI.create(location));
+            http.restoreValidators(size, readString(buffer), readString(buffer));
+            source = http;
+        } else {
+            throw new IllegalArgumentException("Unknown source " + kind);
+        }
+        final ContentFingerprint fingerprint = (flags & FINGERPRINT) != 0 ? ContentFingerprint.of(fingerprintSize, fingerprintHash) : null;
+        return new Entry(source, fingerprint, width, hight, startX, startY, scaleFactor, position,
+                (flags & HASHED) != 0, hash, size, modified);
+    }
+
+    /**
+     * write the snapshot, the validators of the local files are those of their probe
+     *
+     * @param file the snapshot file, its folder is created if missing
+     * @throws IOException
+     */
+    public void write(final Path file) throws IOException {
+        final List<byte[]> locations = new ArrayList<>(entries.size());
+        // the validators of the HTTP images change with each response, they are read once
+        final List<String[]> validators = new ArrayList<>(entries.size());
+        final List<byte[]> compressed = new ArrayList<>(thumbnails.size());
+        long size = HEADER_SIZE + (long) rows.size() * (4 + 8 + 8);
+        for (final Entry entry : entries) {
+            final byte[] location = entry.getLocation().getBytes(StandardCharsets.UTF_8);
+            locations.add(location);
+            size += ENTRY_SIZE + 4 + location.length;
+            if (entry.source instanceof HttpImageSource) {
+                final HttpImageSource http = (HttpImageSource) entry.source;
+                final String[] validator = {http.getETag(), http.getLastModified()};
+                validators.add(validator);
+                size += stringSize(validator[0]) + stringSize(validator[1]);
+            } else {
+                validators.add(null);
+            }
+        }
+        for (final Thumbnail thumbnail : thumbnails) {
+            final byte[] data = QoiCodec.encode(thumbnail.pixels);
+            compressed.add(data);
+            size += 4 + 4 + 4 + data.length;
+        }
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(VERSION).
+                    putDouble(width).putDouble(maxHight).putDouble(maxWidth).putDouble(padding).
+                    putDouble(zoom).putDouble(lineBreakThreshold).putDouble(offset).
+                    putInt(entries.size()).putInt(rows.size()).putInt(thumbnails.size());
+            for (int i = 0; i < entries.size(); i++) {
+                writeEntry(buffer, entries.get(i), locations.get(i), validators.get(i));
+            }
+            for (final Row row : rows) {
+                buffer.putInt(row.size).putDouble(row.start).putDouble(row.end);
+            }
+            for (int i = 0; i < thumbnails.size(); i++) {
+                final Thumbnail thumbnail = thumbnails.get(i);
+                final byte[] data = compressed.get(i);
+                buffer.putInt(thumbnail.index).putInt(thumbnail.hight).putInt(data.length).put(data);
+            }
+            buffer.force();
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeEntry(final ByteBuffer buffer, final Entry entry, final byte[] location, final String[] validator) {
+        final HttpImageSource http = entry.source instanceof HttpImageSource ? (HttpImageSource) entry.source : null;
+        long size = -1;
+        long modified = -1;
+        if (http != null) {
+            size = http.getSize();
+        } else if (entry.source instanceof PathImageSource) {
+            // the validators of the probe the sizes are based on, unprobed files are validated as modified on restore
+            size = ((PathImageSource) entry.source).getProbedSize();
+            modified = ((PathImageSource) entry.source).getProbedModified();
+        }
+        final ContentFingerprint fingerprint = entry.fingerprint;
+        buffer.put(http != null ? HTTP : PATH).
+                put((byte) ((entry.hashed ? HASHED : 0) | (fingerprint != null ? FINGERPRINT : 0)));
+        putBytes(buffer, location);
+        buffer.putDouble(entry.width).putDouble(entry.hight).
+                putDouble(entry.startX).putDouble(entry.startY).putDouble(entry.scaleFactor).
+                putInt(entry.position).
+                putLong(size).putLong(modified).putLong(entry.hash).
+                putLong(fingerprint != null ? fingerprint.getSize() : 0).
+                putLong(fingerprint != null ? fingerprint.getHash() : 0);
+        if (http != null) {
+            writeString(buffer, validator[0]);
+            writeString(buffer, validator[1]);
+        }
+    }
+
+    private static int stringSize(final String value) {
+        return 4 + (value != null ? value.getBytes(StandardCharsets.UTF_8).length : 0);
+    }
+
+    private static void writeString(final ByteBuffer buffer, final String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            putBytes(buffer, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void putBytes(final ByteBuffer buffer, final byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * a corrupt length must not allocate more than the snapshot holds
+     *
+     * @return the length, if the remaining bytes hold it
+     */
+    private static int checkLength(final ByteBuffer buffer, final int length) {
+        if (length < 0 || length > buffer.remaining()) throw new IllegalArgumentException("Length " + length + " exceeds the snapshot");
+        return length;
+    }
+
+    /**
+     * @return the count, if the remaining bytes hold at least one byte per element
+     */
+    private static int checkCount(final ByteBuffer buffer, final int count) {
+        if (count < 0 || count > buffer.remaining()) throw new IllegalArgumentException("Count " + count + " exceeds the snapshot");
+        return count;
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) return null;
+        final byte[] bytes = new byte[checkLength(buffer, length)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the snapshot holds a complete layout for the panel settings, which can be used as is
+     */
+    boolean hasLayout(final double width, final double maxHight, final double padding, final double zoom, final double lineBreakThreshold) {
+        if (rows.isEmpty()) return false;
+        return this.width == width && this.maxHight == maxHight && this.padding == padding && this.zoom == zoom &&
+                this.lineBreakThreshold == lineBreakThreshold;
+    }
+
+    /**
+     * @return the number of images
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getMaxHight() {
+        return maxHight;
+    }
+
+    public double getMaxWidth() {
+        return maxWidth;
+    }
+
+    public double getOffset() {
+        return offset;
+    }
+
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    List<Row> getRows() {
+        return Collections.unmodifiableList(rows);
+    }
+
+    List<Thumbnail> getThumbnails() {
+        return Collections.unmodifiableList(thumbnails);
+    }
+
+    @Override
+    public String toString() {
+        return "SessionSnapshot{" +
+                "images=" + entries.size() +
+                ", rows=" + rows.size() +
+                ", thumbnails=" + thumbnails.size() +
+                ", width=" + width +
+                ", offset=" + offset +
+                '}';
+    }
+
+    /**
+     * The state of a file compared to the snapshot
+     */
+    enum Validation {
+        VALID, MODIFIED, REMOVED
+    }
+
+    /**
+     * An image with its size and layout
+     */
+    static final class Entry {
+        private final ImageSource source;
+        private final ContentFingerprint fingerprint;
+        private final double width;
+        private final double hight;
+        private final double startX;
+        private final double startY;
+        private final double scaleFactor;
+        private final int position;
+        private final boolean hashed;
+        private final long hash;
+        /**
+         * the validators of a local file, read on restore only
+         */
+        private final long size;
+        private final long modified;
+
+        private Entry(final ImageSource source, final ContentFingerprint fingerprint, final double width, final double hight,
+                      final double startX, final double startY, final double scaleFactor, final int position,
+                      final boolean hashed, final long hash, final long size, final long modified) {
+            this.source = source;
+            this.fingerprint = fingerprint;
+            this.width = width;
+            this.hight = hight;
+            this.startX = startX;
+            this.startY = startY;
+            this.scaleFactor = scaleFactor;
+            this.position = position;
+            this.hashed = hashed;
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * @param image an image of the panel
+         * @return the entry, null if the source can not be written
+         */
+        static Entry of(final ImageContainer image) {
+            final ImageSource source = image.getSource();
+            if (!(source instanceof HttpImageSource) && (source == null || source.getPath() == null)) return null;
+            final Object cacheKey = image.getCacheKey();
+            return new Entry(source, cacheKey instanceof ContentFingerprint ? (ContentFingerprint) cacheKey : null,
+                    image.getEndX(), image.getEndY(), image.getStartX(), image.getStartY(), image.getScaleFactor(),
+                    image.getPosition(), image.hasPerceptualHash(), image.getPerceptualHash(), -1, -1);
+        }
+
+        /**
+         * create the container with the size of the snapshot, without reading the image
+         */
+        ImageContainer createContainer(final ImageFactory factory, final ImageCache cache, final DecodeScheduler scheduler,
+                                       final double maxHight, final double maxWidth) {
+            final ImageContainer container = new ImageContainer(source, fingerprint, width, hight, factory, cache, scheduler, maxHight, maxWidth);
+            if (hashed) container.setPerceptualHash(hash);
+            return container;
+        }
+
+        /**
+         * apply the layout of the snapshot
+         */
+        void layout(final ImageContainer container) {
+            container.setStartX(startX);
+            container.setStartY(startY);
+            container.setScaleFactor(scaleFactor);
+            container.setPosition(position);
+        }
+
+        /**
+         * compare the file with the snapshot, local files by size and modification time, HTTP images by a
+         * conditional request. Unreachable HTTP images are kept
+         *
+         * @return the state of the image
+         */
+        Validation validate() {
+            if (source instanceof HttpImageSource) {
+                try {
+                    return ((HttpImageSource) source).isModified() ? Validation.MODIFIED : Validation.VALID;
+                } catch (IOException e) {
+                    return Validation.VALID;
+                }
+            }
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(source.getPath(), BasicFileAttributes.class);
+                return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified ? Validation.VALID : Validation.MODIFIED;
+            } catch (NoSuchFileException e) {
+                return Validation.REMOVED;
+            } catch (IOException e) {
+                return Validation.MODIFIED;
+            }
+        }
+
+        ImageSource getSource() {
+            return source;
+        }
+
+        private String getLocation() {
+            return source instanceof HttpImageSource ? ((HttpImageSource) source).getUri().toString() : source.getPath().toString();
+        }
+    }
+
+    /**
+     * A row of the layout, the number of images and the vertical bounds
+     */
+    static final class Row {
+        private final int size;
+        private final double start;
+        private final double end;
+
+        Row(final int size, final double start, final double end) {
+            this.size = size;
+            this.start = start;
+            this.end = end;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        double getStart() {
+            return start;
+        }
+
+        double getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * A decoded thumbnail of an image, by the index of the image
+     */
+    static final class Thumbnail {
+        private final int index;
+        private final int hight;
+        private final PixelBuffer pixels;
+
+        Thumbnail(final int index, final int hight, final PixelBuffer pixels) {
+            this.index = index;
+            this.hight = hight;
+            this.pixels = pixels;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        int getHight() {
+            return hight;
+        }
+
+        PixelBuffer getPixels() {
+            return pixels;
+        }
+    }
+}
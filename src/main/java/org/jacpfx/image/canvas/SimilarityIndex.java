@@ -0,0 +1,165 @@
+package org.jacpfx.image.canvas;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BK-tree over perceptual hashes, finds all items within a Hamming distance without comparing all hashes.
+ * Each child of a node holds the hashes at one distance to the node, so by the triangle inequality a query
+ * only visits the children at distance d - max to d + max. Items are identified by identity, removed items leave
+ * their node in the tree until it is rebuilt.
+ *
+ * @param <T> the item type
+ */
+public class SimilarityIndex<T> {
+    private final Map<T, Node<T>> nodes = new IdentityHashMap<>();
+    private Node<T> root;
+    private int removed;
+
+    /**
+     * add an item, an item already in the index is moved to the new hash
+     *
+     * @param item the item
+     * @param hash the perceptual hash of the item
+     */
+    public synchronized void add(final T item, final long hash) {
+        final Node<T> existing = nodes.get(item);
+        if (existing != null) {
+            if (existing.hash == hash) return;
+            remove(item);
+        }
+        if (root == null) {
+            root = new Node<>(hash);
+            root.items.add(item);
+            nodes.put(item, root);
+            return;
+        }
+        Node<T> node = root;
+        while (true) {
+            final int distance = PerceptualHash.distance(node.hash, hash);
+            if (distance == 0) {
+                node.items.add(item);
+                nodes.put(item, node);
+                return;
+            }
+            final Node<T> child = node.children != null ? node.children[distance] : null;
+            if (child == null) {
+                final Node<T> created = new Node<>(hash);
+                created.items.add(item);
+                node.addChild(distance, created);
+                nodes.put(item, created);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * @param item the item to remove
+     */
+    public synchronized void remove(final T item) {
+        final Node<T> node = nodes.remove(item);
+        if (node == null) return;
+        node.items.removeIf(candidate -> candidate == item);
+        // empty nodes still route the queries, rebuild when they dominate
+        if (node.items.isEmpty() && ++removed > 64 && removed > nodes.size()) rebuild();
+    }
+
+    public synchronized boolean contains(final T item) {
+        return nodes.containsKey(item);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        root = null;
+        removed = 0;
+    }
+
+    /**
+     * find the items within the distance
+     *
+     * @param hash        the perceptual hash
+     * @param maxDistance the maximum number of differing bits
+     * @return the items, nearest first
+     */
+    public synchronized List<T> find(final long hash, final int maxDistance) {
+        final List<Match<T>> matches = new ArrayList<>();
+        if (root != null) {
+            final Deque<Node<T>> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                final Node<T> node = pending.pop();
+                final int distance = PerceptualHash.distance(node.hash, hash);
+                if (distance <= maxDistance) {
+                    for (final T item : node.items) {
+                        matches.add(new Match<>(item, distance));
+                    }
+                }
+                if (node.children == null) continue;
+                final int from = Math.max(1, distance - maxDistance);
+                final int to = Math.min(PerceptualHash.BITS, distance + maxDistance);
+                for (int i = from; i <= to; i++) {
+                    if (node.children[i] != null) pending.push(node.children[i]);
+                }
+            }
+        }
+        matches.sort(Comparator.comparingInt(match -> match.distance));
+        final List<T> result = new ArrayList<>(matches.size());
+        matches.forEach(match -> result.add(match.item));
+        return result;
+    }
+
+    /**
+     * @param item an item of the index
+     * @return the hash of the item, or null if it is not in the index
+     */
+    public synchronized Long getHash(final T item) {
+        final Node<T> node = nodes.get(item);
+        return node != null ? node.hash : null;
+    }
+
+    private void rebuild() {
+        final Map<T, Long> hashes = new IdentityHashMap<>();
+        nodes.forEach((item, node) -> hashes.put(item, node.hash));
+        clear();
+        hashes.forEach(this::add);
+    }
+
+    private static final class Node<T> {
+        private final long hash;
+        private final List<T> items = new ArrayList<>(1);
+        /**
+         * the children by their distance, null for the leaves
+         */
+        private Node<T>[] children;
+
+        private Node(final long hash) {
+            this.hash = hash;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void addChild(final int distance, final Node<T> child) {
+            if (children == null) children = (Node<T>[]) new Node<?>[PerceptualHash.BITS + 1];
+            children[distance] = child;
+        }
+    }
+
+    private static final class Match<T> {
+        private final T item;
+        private final int distance;
+
+        private Match(final T item, final int distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.jacpfx.image.canvas;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Decodes images through javax.imageio with source subsampling, so only every n-th pixel of every n-th row is
+ * decoded. Used for huge images, where a full decode would need hundreds of MB.
+ * The readers and buffers are reused per thread, see {@link ImageReaderPool}.
+ */
+public final class SubsampledDecoder {
+
+    private SubsampledDecoder() {
+
+    }
+
+    /**
+     * the largest subsampling which still delivers at least the target hight
+     *
+     * @param height      the native image height
+     * @param targetHight the target hight
+     * @return the subsampling factor
+     */
+    public static int getSubsampling(final int height, final int targetHight) {
+        return Math.max(1, height / Math.max(1, targetHight));
+    }
+
+    /**
+     * decode with subsampling and scale down to the target hight
+     *
+     * @param imagePath   the image
+     * @param targetHight the target hight
+     * @return the pixels
+     * @throws IOException
+     */
+    public static PixelBuffer decode(final Path imagePath, final int targetHight) throws IOException {
+        return decode(imagePath, targetHight, false);
+    }
+
+    /**
+     * decode with subsampling and scale down to the target hight, the decoder state is pooled per thread
+     *
+     * @param imagePath   the image
+     * @param targetHight the target hight
+     * @param square      decode only the centre square of the image (source region)
+     * @return the pixels, valid until the next decode on this thread
+     * @throws IOException
+     */
+    public static PixelBuffer decode(final Path imagePath, final int targetHight, final boolean square) throws IOException {
+        return decode(ImageSource.of(imagePath), targetHight, square);
+    }
+
+    /**
+     * decode with subsampling and scale down to the target hight, the decoder state is pooled per thread
+     *
+     * @param source      the image source
+     * @param targetHight the target hight
+     * @param square      decode only the centre square of the image (source region)
+     * @return the pixels, valid until the next decode on this thread
+     * @throws IOException
+     */
+    public static PixelBuffer decode(final ImageSource source, final int targetHight, final boolean square) throws IOException {
+        return ImageReaderPool.get().decode(source, targetHight, square);
+    }
+
+    /**
+     * convert the top left area of a decoded image to premultiplied ARGB pixels, the common decoder outputs are
+     * converted directly from the raster data. Every conversion is counted, see {@link PixelConversions}
+     *
+     * @param image  the decoded image, may be larger than the area
+     * @param width  the width of the area
+     * @param height the height of the area
+     * @param dest   the array for the pixels
+     * @return the pixels
+     */
+    static PixelBuffer toPixelBuffer(final BufferedImage image, final int width, final int height, final int[] dest) {
+        final Raster raster = image.getRaster();
+        final int stride = image.getWidth();
+        // sub images share the data buffer of the parent, use the slow path
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return fromRGB(image, width, height, dest);
+        }
+        switch (image.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                PixelConversions.count(PixelConversions.Kind.DECODE, (long) width * height);
+                final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0, i = y * width, p = y * stride * 3; x < width; x++, i++, p += 3) {
+                        dest[i] = 0xff000000 | (data[p + 2] & 0xff) << 16 | (data[p + 1] & 0xff) << 8 | (data[p] & 0xff);
+                    }
+                }
+                return new PixelBuffer(width, height, dest);
+            }
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                PixelConversions.count(PixelConversions.Kind.DECODE, (long) width * height);
+                final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0, i = y * width, p = y * stride; x < width; x++, i++, p++) {
+                        final int gray = data[p] & 0xff;
+                        dest[i] = 0xff000000 | gray << 16 | gray << 8 | gray;
+                    }
+                }
+                return new PixelBuffer(width, height, dest);
+            }
+            case BufferedImage.TYPE_INT_RGB: {
+                PixelConversions.count(PixelConversions.Kind.DECODE, (long) width * height);
+                final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0, i = y * width, p = y * stride; x < width; x++, i++, p++) {
+                        dest[i] = 0xff000000 | data[p];
+                    }
+                }
+                return new PixelBuffer(width, height, dest);
+            }
+            case BufferedImage.TYPE_INT_ARGB: {
+                copy(raster, stride, width, height, dest);
+                PixelConversions.premultiply(dest, width * height);
+                return new PixelBuffer(width, height, dest);
+            }
+            case BufferedImage.TYPE_INT_ARGB_PRE: {
+                // the buffer layout, a plain copy
+                copy(raster, stride, width, height, dest);
+                return new PixelBuffer(width, height, dest);
+            }
+            default:
+                return fromRGB(image, width, height, dest);
+        }
+    }
+
+    private static void copy(final Raster raster, final int stride, final int width, final int height, final int[] dest) {
+        final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(data, y * stride, dest, y * width, width);
+        }
+    }
+
+    /**
+     * the slow path through getRGB, which delivers straight alpha
+     */
+    private static PixelBuffer fromRGB(final BufferedImage image, final int width, final int height, final int[] dest) {
+        PixelConversions.count(PixelConversions.Kind.DECODE, (long) width * height);
+        image.getRGB(0, 0, width, height, dest, 0, width);
+        if (image.getColorModel().hasAlpha()) PixelConversions.premultiply(dest, width * height);
+        return new PixelBuffer(width, height, dest);
+    }
+}
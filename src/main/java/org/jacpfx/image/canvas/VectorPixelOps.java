@@ -0,0 +1,115 @@
+package org.jacpfx.image.canvas;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the pixel kernel loops with the Vector API, using the preferred vector width of the
+ * host (8 int lanes with AVX2, 16 with AVX-512). The remaining pixels of a row are done by the scalar code.
+ * Only loaded through {@link PixelOps#get()} when the jdk.incubator.vector module is present. Compiled only with
+ * the "vector" profile (mvn -Pvector, JDK 17), which adds the incubator module, so the default build has no incubator warning.
+ */
+final class VectorPixelOps implements PixelOps {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    /**
+     * larger divisors are packed by the scalar code
+     */
+    private static final int MAX_DIVISOR = 128;
+
+    private final ScalarPixelOps scalar = new ScalarPixelOps();
+
+    @Override
+    public void accumulate(final int[] in, final int offset, final int width,
+                           final int[] alpha, final int[] red, final int[] green, final int[] blue, final int sign) {
+        final int bound = SPECIES.loopBound(width);
+        int x = 0;
+        for (; x < bound; x += SPECIES.length()) {
+            final IntVector color = IntVector.fromArray(SPECIES, in, offset + x);
+            final IntVector a = color.lanewise(VectorOperators.LSHR, 24);
+            final IntVector r = color.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            final IntVector g = color.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            final IntVector b = color.and(0xFF);
+            if (sign > 0) {
+                IntVector.fromArray(SPECIES, alpha, x).add(a).intoArray(alpha, x);
+                IntVector.fromArray(SPECIES, red, x).add(r).intoArray(red, x);
+                IntVector.fromArray(SPECIES, green, x).add(g).intoArray(green, x);
+                IntVector.fromArray(SPECIES, blue, x).add(b).intoArray(blue, x);
+            } else {
+                IntVector.fromArray(SPECIES, alpha, x).sub(a).intoArray(alpha, x);
+                IntVector.fromArray(SPECIES, red, x).sub(r).intoArray(red, x);
+                IntVector.fromArray(SPECIES, green, x).sub(g).intoArray(green, x);
+                IntVector.fromArray(SPECIES, blue, x).sub(b).intoArray(blue, x);
+            }
+        }
+        for (; x < width; x++) {
+            final int color = in[offset + x];
+            alpha[x] += sign * (color >>> 24);
+            red[x] += sign * (color >>> 16 & 0xFF);
+            green[x] += sign * (color >>> 8 & 0xFF);
+            blue[x] += sign * (color & 0xFF);
+        }
+    }
+
+    @Override
+    public void pack(final int[] alpha, final int[] red, final int[] green, final int[] blue, final int count,
+                     final int[] out, final int offset, final int width) {
+        final int bound = count <= MAX_DIVISOR ? SPECIES.loopBound(width) : 0;
+        final int reciprocal = ((1 << 22) + count - 1) / count;
+        int x = 0;
+        for (; x < bound; x += SPECIES.length()) {
+            final IntVector a = divide(IntVector.fromArray(SPECIES, alpha, x), reciprocal);
+            final IntVector r = divide(IntVector.fromArray(SPECIES, red, x), reciprocal);
+            final IntVector g = divide(IntVector.fromArray(SPECIES, green, x), reciprocal);
+            final IntVector b = divide(IntVector.fromArray(SPECIES, blue, x), reciprocal);
+            a.lanewise(VectorOperators.LSHL, 24)
+                    .or(r.lanewise(VectorOperators.LSHL, 16))
+                    .or(g.lanewise(VectorOperators.LSHL, 8))
+                    .or(b)
+                    .intoArray(out, offset + x);
+        }
+        for (; x < width; x++) {
+            out[offset + x] = (alpha[x] / count) << 24 | (red[x] / count) << 16 | (green[x] / count) << 8 | (blue[x] / count);
+        }
+    }
+
+    @Override
+    public void premultiply(final int[] in, final int[] out, final int from, final int to) {
+        final int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += SPECIES.length()) {
+            final IntVector color = IntVector.fromArray(SPECIES, in, i);
+            final IntVector a = color.lanewise(VectorOperators.LSHR, 24);
+            final IntVector r = multiply(color.lanewise(VectorOperators.LSHR, 16).and(0xFF), a);
+            final IntVector g = multiply(color.lanewise(VectorOperators.LSHR, 8).and(0xFF), a);
+            final IntVector b = multiply(color.and(0xFF), a);
+            a.lanewise(VectorOperators.LSHL, 24)
+                    .or(r.lanewise(VectorOperators.LSHL, 16))
+                    .or(g.lanewise(VectorOperators.LSHL, 8))
+                    .or(b)
+                    .intoArray(out, i);
+        }
+        scalar.premultiply(in, out, i, to);
+    }
+
+    @Override
+    public String describe() {
+        return "vector " + SPECIES.vectorBitSize() + " bit, " + SPECIES.length() + " int lanes";
+    }
+
+    /**
+     * exact division of channel sums (at most 255 * count) by a 22 bit fixed point reciprocal, the error stays
+     * below one for divisors up to MAX_DIVISOR and the product fits into an int
+     */
+    private static IntVector divide(final IntVector sums, final int reciprocal) {
+        return sums.mul(reciprocal).lanewise(VectorOperators.LSHR, 22);
+    }
+
+    /**
+     * value * alpha / 255, rounded, same as the scalar code
+     */
+    private static IntVector multiply(final IntVector value, final IntVector alpha) {
+        final IntVector t = value.mul(alpha).add(128);
+        return t.add(t.lanewise(VectorOperators.LSHR, 8)).lanewise(VectorOperators.LSHR, 8);
+    }
+}
@@ -15,22 +15,20 @@ import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.*;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.HBox;
-import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.nio.IntBuffer;
-import java.util.Arrays;
-
 public class WritableImageDemo extends Application {
 
     private Image src;
     private WritableImage dest;
+    private PixelBuffer pixels;
+    private int[] buffer;
     private int kernelSize = 1;
     private int width;
     private int height;
 
     private RadioButton blurButton;
-    private RadioButton blur2Button;
+    private RadioButton copyButton;
     private RadioButton mosaicButton;
 
     @Override
@@ -57,6 +55,9 @@ public class WritableImageDemo extends Application {
 
         width = (int) src.getWidth();
         height = (int) src.getHeight();
+        // read the source once, the kernels work on the buffer
+        pixels = PixelKernels.read(src);
+        buffer = new int[width * height];
         root.setPrefSize(width * 2.0, height + 50);
 
         dest = new WritableImage(width, height);
@@ -82,9 +83,9 @@ public class WritableImageDemo extends Application {
                 if (intValue != kernelSize) {
                     kernelSize = intValue;
                     if (blurButton.isSelected()) {
+                        blur();
+                    } else if (copyButton.isSelected()) {
                         copy();
-                    } else if (blur2Button.isSelected()) {
-                        blur2();
                     } else {
                         mosaic();
                     }
@@ -109,9 +110,9 @@ public class WritableImageDemo extends Application {
         blurButton.setToggleGroup(group);
         blurButton.setSelected(true);
         hbox.getChildren().add(blurButton);
-        blur2Button = new RadioButton("Blur2");
-        blur2Button.setToggleGroup(group);
-        hbox.getChildren().add(blur2Button);
+        copyButton = new RadioButton("Copy");
+        copyButton.setToggleGroup(group);
+        hbox.getChildren().add(copyButton);
         mosaicButton = new RadioButton("Mosaic");
         mosaicButton.setToggleGroup(group);
         hbox.getChildren().add(mosaicButton);
@@ -120,168 +121,16 @@ public class WritableImageDemo extends Application {
     }
 
     private void blur() {
-        PixelReader reader = src.getPixelReader();
-        PixelWriter writer = dest.getPixelWriter();
-
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                double red = 0;
-                double green = 0;
-                double blue = 0;
-                double alpha = 0;
-                int count = 0;
-                for (int i = -kernelSize; i <= kernelSize; i++) {
-                    for (int j = -kernelSize; j <= kernelSize; j++) {
-                        if (x + i < 0 || x + i >= width
-                                || y + j < 0 || y + j >= height) {
-                            continue;
-                        }
-                        Color color = reader.getColor(x + i, y + j);
-                        red += color.getRed();
-                        green += color.getGreen();
-                        blue += color.getBlue();
-                        alpha += color.getOpacity();
-                        count++;
-                    }
-                }
-                Color blurColor = Color.color(red / count,
-                        green / count,
-                        blue / count,
-                        alpha / count);
-                writer.setColor(x, y, blurColor);
-            }
-        }
-    }
-
-    private void blur2() {
-        PixelReader reader = src.getPixelReader();
-        PixelWriter writer = dest.getPixelWriter();
-        WritablePixelFormat<IntBuffer> format
-                = WritablePixelFormat.getIntArgbInstance();
-
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int centerX = x - kernelSize;
-                int centerY = y - kernelSize;
-                int kernelWidth = kernelSize * 2 + 1;
-                int kernelHeight = kernelSize * 2 + 1;
-
-                if (centerX < 0) {
-                    centerX = 0;
-                    kernelWidth = x + kernelSize;
-                } else if (x + kernelSize >= width) {
-                    kernelWidth = width - centerX;
-                }
-
-                if (centerY < 0) {
-                    centerY = 0;
-                    kernelHeight = y + kernelSize;
-                } else if (y + kernelSize >= height) {
-                    kernelHeight = height - centerY;
-                }
-
-                int[] buffer = new int[kernelWidth * kernelHeight];
-                reader.getPixels(centerX, centerY,
-                        kernelWidth, kernelHeight,
-                        format, buffer, 0, kernelWidth);
-
-                int alpha = 0;
-                int red = 0;
-                int green = 0;
-                int blue = 0;
-
-                for (int color : buffer) {
-                    alpha += (color >>> 24);
-                    red += (color >>> 16 & 0xFF);
-                    green += (color >>> 8 & 0xFF);
-                    blue += (color & 0xFF);
-                }
-                alpha = alpha / kernelWidth / kernelHeight;
-                red = red / kernelWidth / kernelHeight;
-                green = green / kernelWidth / kernelHeight;
-                blue = blue / kernelWidth / kernelHeight;
-
-                int blurColor = (alpha << 24)
-                        + (red << 16)
-                        + (green << 8)
-                        + blue;
-                writer.setArgb(x, y, blurColor);
-            }
-        }
+        PixelKernels.write(PixelKernels.boxBlur(pixels, kernelSize, buffer), dest);
     }
 
     private void mosaic() {
-        PixelReader reader = src.getPixelReader();
-        PixelWriter writer = dest.getPixelWriter();
-        WritablePixelFormat<IntBuffer> format
-                = WritablePixelFormat.getIntArgbInstance();
-
-        for (int x = kernelSize; x < width - kernelSize * 2; x += kernelSize * 2 + 1) {
-            for (int y = kernelSize; y < height - kernelSize * 2; y += kernelSize * 2 + 1) {
-                int kernelWidth = kernelSize * 2 + 1;
-                int kernelHeight = kernelSize * 2 + 1;
-
-                int[] buffer = new int[kernelWidth * kernelHeight];
-                reader.getPixels(x, y,
-                        kernelWidth, kernelHeight,
-                        format, buffer, 0, kernelWidth);
-
-                int alpha = 0;
-                int red = 0;
-                int green = 0;
-                int blue = 0;
-
-                for (int color : buffer) {
-                    alpha += (color >>> 24);
-                    red += (color >>> 16 & 0xFF);
-                    green += (color >>> 8 & 0xFF);
-                    blue += (color & 0xFF);
-                }
-                alpha = alpha / kernelWidth / kernelHeight;
-                red = red / kernelWidth / kernelHeight;
-                green = green / kernelWidth / kernelHeight;
-                blue = blue / kernelWidth / kernelHeight;
-
-                int blurColor = (alpha << 24)
-                        + (red << 16)
-                        + (green << 8)
-                        + blue;
-                Arrays.fill(buffer, blurColor);
-                writer.setPixels(x, y,
-                        kernelWidth, kernelHeight,
-                        format, buffer, 0, kernelWidth);
-            }
-        }
+        PixelKernels.write(PixelKernels.mosaic(pixels, kernelSize * 2 + 1, buffer), dest);
     }
 
     private void copy() {
         final long startTime = System.currentTimeMillis();
-        PixelReader reader = src.getPixelReader();
-        PixelWriter writer = dest.getPixelWriter();
-        WritablePixelFormat<IntBuffer> format
-                = WritablePixelFormat.getIntArgbInstance();
-
-        PixelFormat f = reader.getPixelFormat();
-
-        WritablePixelFormat wf = f.getIntArgbInstance(); //???
-
-        int[] buffer = new int[(int)src.getWidth()*(int)src.getHeight()*4];
-
-        reader.getPixels(0,0, (int)src.getWidth(), (int)src.getHeight(), wf, buffer, 0, 0);
-
-       // writer.setPixels();
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                // reading a pixel from src image,
-                // then writing a pixel to dest image
-                //Color color = reader.getColor(x, y);
-                //writer.setColor(x, y, color);
-
-                // this way is also OK
-            int argb = reader.getArgb(x, y);
-            writer.setArgb(x, y, argb);
-            }
-        }
+        PixelKernels.write(PixelKernels.copy(pixels, buffer), dest);
         final long stopTime = System.currentTimeMillis();
         final long elapsedTime = stopTime - startTime;
         System.out.println("copy time : "+elapsedTime);
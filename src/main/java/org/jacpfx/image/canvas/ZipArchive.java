@@ -0,0 +1,249 @@
+package org.jacpfx.image.canvas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.ZipException;
+
+/**
+ * A ZIP archive read in place, nothing is extracted. The central directory is read once (ZIP64 for archives and
+ * entries beyond 4 GB), the archive is mapped in segments on demand. Stored entries are slices of the mapped
+ * archive, deflated entries are inflated on read, the header probe inflates only the first bytes.
+ */
+public final class ZipArchive implements Closeable {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    /**
+     * the archive is mapped in segments of this size
+     */
+    private static final long SEGMENT = 1L << 30;
+    /**
+     * the segments overlap, so the ranges up to this length are always slices of one segment
+     */
+    private static final long OVERLAP = 64L << 20;
+    private static final Charset CP437 = Charset.isSupported("IBM437") ? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+
+    private final Path path;
+    private final String uri;
+    private final FileChannel channel;
+    private final long size;
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+    private final List<ZipImageSource> entries;
+
+    private ZipArchive(final Path path) throws IOException {
+        this.path = path;
+        this.uri = path.toAbsolutePath().toUri().toString();
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            this.segments = new AtomicReferenceArray<>((int) ((size + SEGMENT - 1) / SEGMENT));
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * open the archive and read its central directory
+     *
+     * @param path the archive
+     * @return the archive, close it when the images are no longer shown
+     * @throws IOException if the file is no ZIP archive
+     */
+    public static ZipArchive open(final Path path) throws IOException {
+        return new ZipArchive(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the file URI of the archive
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return all stored and deflated files of the archive, in central directory order
+     */
+    public List<ZipImageSource> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the images of the archive, hidden files and resource forks are skipped
+     */
+    public List<ZipImageSource> getImages() {
+        final List<ZipImageSource> images = new ArrayList<>();
+        for (final ZipImageSource entry : entries) {
+            final String name = entry.getEntryName();
+            final String fileName = name.substring(name.lastIndexOf('/') + 1);
+            if (fileName.startsWith(".") || name.startsWith("__MACOSX/")) continue;
+            if (DirectoryScanner.hasImageExtension(fileName)) images.add(entry);
+        }
+        return images;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * a range of the archive, a slice of the mapped segment if the range fits in one segment, a copy otherwise
+     *
+     * @param position the archive offset
+     * @param length   the length
+     * @return the bytes, position 0 and limit at the end of the range
+     */
+    ByteBuffer slice(final long position, final int length) throws IOException {
+        if (position < 0 || position + length > size) throw new ZipException("Range outside of " + path);
+        final int index = (int) (position / SEGMENT);
+        final long start = index * SEGMENT;
+        final long segmentLength = Math.min(size - start, SEGMENT + OVERLAP);
+        if (position + length > start + segmentLength) {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, offset);
+                if (read < 0) throw new ZipException("Truncated " + path);
+                offset += read;
+            }
+            buffer.flip();
+            return buffer;
+        }
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, start, segmentLength);
+            if (!segments.compareAndSet(index, null, segment)) segment = segments.get(index);
+        }
+        final ByteBuffer slice = segment.duplicate();
+        slice.position((int) (position - start)).limit((int) (position - start) + length);
+        return slice.slice();
+    }
+
+    /**
+     * the start of the entry data, behind the local header, whose extra field may differ from the central directory
+     *
+     * @param localHeaderOffset the offset of the local header
+     * @return the offset of the data
+     */
+    long getDataOffset(final long localHeaderOffset) throws IOException {
+        final ByteBuffer header = slice(localHeaderOffset, 30).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) throw new ZipException("Bad local header in " + path);
+        return localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private List<ZipImageSource> readCentralDirectory() throws IOException {
+        final long end = findEndOfCentralDirectory();
+        final ByteBuffer eocd = slice(end, 22).order(ByteOrder.LITTLE_ENDIAN);
+        long count = eocd.getShort(10) & 0xFFFF;
+        long directorySize = eocd.getInt(12) & MAX_32;
+        long directoryOffset = eocd.getInt(16) & MAX_32;
+        if ((count == 0xFFFF || directorySize == MAX_32 || directoryOffset == MAX_32) && end >= 20) {
+            final ByteBuffer locator = slice(end - 20, 20).order(ByteOrder.LITTLE_ENDIAN);
+            if (locator.getInt(0) == ZIP64_LOCATOR) {
+                final ByteBuffer zip64 = slice(locator.getLong(8), 56).order(ByteOrder.LITTLE_ENDIAN);
+                if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) throw new ZipException("Bad ZIP64 directory in " + path);
+                count = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE) throw new ZipException("Central directory too large in " + path);
+        final ByteBuffer directory = slice(directoryOffset, (int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        final List<ZipImageSource> result = new ArrayList<>((int) Math.min(count, 1 << 16));
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (position + 46 > directory.limit() || directory.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                throw new ZipException("Bad central directory in " + path);
+            }
+            final int flags = directory.getShort(position + 8) & 0xFFFF;
+            final int method = directory.getShort(position + 10) & 0xFFFF;
+            final long crc = directory.getInt(position + 16) & MAX_32;
+            long compressedSize = directory.getInt(position + 20) & MAX_32;
+            long uncompressedSize = directory.getInt(position + 24) & MAX_32;
+            final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & MAX_32;
+            final byte[] name = new byte[nameLength];
+            final ByteBuffer nameBuffer = directory.duplicate();
+            nameBuffer.position(position + 46);
+            nameBuffer.get(name);
+            // the ZIP64 extra field holds the values, which do not fit in 32 bits
+            int extra = position + 46 + nameLength;
+            final int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int id = directory.getShort(extra) & 0xFFFF;
+                final int length = directory.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA) {
+                    int field = extra + 4;
+                    if (uncompressedSize == MAX_32 && field + 8 <= extra + 4 + length) {
+                        uncompressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == MAX_32 && field + 8 <= extra + 4 + length) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == MAX_32 && field + 8 <= extra + 4 + length) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                    break;
+                }
+                extra += 4 + length;
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+            final String entryName = new String(name, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : CP437);
+            // folders, encrypted entries and unsupported compression methods
+            if (entryName.endsWith("/") || (flags & FLAG_ENCRYPTED) != 0 || (method != STORED && method != DEFLATED)) continue;
+            result.add(new ZipImageSource(this, entryName, method, crc, compressedSize, uncompressedSize, localHeaderOffset));
+        }
+        return result;
+    }
+
+    /**
+     * the end of central directory record is at the end of the archive, followed by a comment of up to 64 KB
+     */
+    private long findEndOfCentralDirectory() throws IOException {
+        if (size < 22) throw new ZipException("No ZIP archive " + path);
+        final int length = (int) Math.min(size, 22 + 0xFFFF);
+        final ByteBuffer tail = slice(size - length, length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int position = length - 22; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY) return size - length + position;
+        }
+        throw new ZipException("No ZIP archive " + path);
+    }
+
+    @Override
+    public String toString() {
+        return "ZipArchive{" +
+                "path=" + path +
+                ", entries=" + entries.size() +
+                '}';
+    }
+}
@@ -0,0 +1,166 @@
+package org.jacpfx.image.canvas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * An image in a ZIP archive, see {@link ZipArchive#getImages()}. Stored entries are read as slices of the mapped
+ * archive without a copy, deflated entries are inflated up to the requested bytes. The key is the jar URI of the
+ * entry.
+ */
+public final class ZipImageSource implements ImageSource {
+    private final ZipArchive archive;
+    private final String entryName;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private volatile URI key;
+    private volatile long dataOffset = -1;
+
+    ZipImageSource(final ZipArchive archive, final String entryName, final int method, final long crc, final long compressedSize,
+                   final long size, final long localHeaderOffset) {
+        this.archive = archive;
+        this.entryName = entryName;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    /**
+     * @return the jar URI of the entry, created on first use, the directory of large archives has many entries
+     */
+    @Override
+    public URI getKey() {
+        URI uri = key;
+        if (uri == null) {
+            try {
+                // the archive URI is already encoded, only the entry name is quoted
+                final String entry = new URI(null, null, "/" + entryName, null).getRawPath();
+                uri = URI.create("jar:" + archive.getUri() + "!" + entry);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(e);
+            }
+            key = uri;
+        }
+        return uri;
+    }
+
+    @Override
+    public String getName() {
+        return entryName;
+    }
+
+    public String getEntryName() {
+        return entryName;
+    }
+
+    public ZipArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return true if the entry is stored, and read without a copy
+     */
+    public boolean isStored() {
+        return method == ZipArchive.STORED;
+    }
+
+    /**
+     * @return the CRC-32 of the uncompressed entry, from the central directory
+     */
+    public long getCrc() {
+        return crc;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public ByteBuffer read(final long position, final int length) throws IOException {
+        if (position >= size || length <= 0) return ByteBuffer.allocate(0);
+        final int count = (int) Math.min(length, size - position);
+        if (isStored()) return archive.slice(getDataOffset() + position, count);
+        // inflate from the start of the entry, up to the end of the range
+        try (InputStream in = openStream()) {
+            long skip = position;
+            while (skip > 0) {
+                final long skipped = in.skip(skip);
+                if (skipped <= 0) throw new ZipException("Truncated " + getKey());
+                skip -= skipped;
+            }
+            final byte[] bytes = new byte[count];
+            int read = 0;
+            while (read < count) {
+                final int n = in.read(bytes, read, count - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return ByteBuffer.wrap(bytes, 0, read);
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        if (compressedSize > Integer.MAX_VALUE) throw new ZipException("Entry too large " + getKey());
+        final InputStream data = new ByteBufferInputStream(archive.slice(getDataOffset(), (int) compressedSize));
+        if (isStored()) return data;
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(data, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * @return the archive and the offset of the entry
+     */
+    @Override
+    public IoLocation getLocation() {
+        return new IoLocation(archive.getUri(), localHeaderOffset, entryName);
+    }
+
+    private long getDataOffset() throws IOException {
+        long offset = dataOffset;
+        if (offset < 0) {
+            offset = archive.getDataOffset(localHeaderOffset);
+            dataOffset = offset;
+        }
+        return offset;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ZipImageSource)) return false;
+        final ZipImageSource other = (ZipImageSource) o;
+        return localHeaderOffset == other.localHeaderOffset && entryName.equals(other.entryName) && archive.getPath().equals(other.archive.getPath());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(archive.getPath(), entryName, localHeaderOffset);
+    }
+
+    @Override
+    public String toString() {
+        return "ZipImageSource{" +
+                "key=" + getKey() +
+                '}';
+    }
+}
@@ -8,6 +8,7 @@ import javafx.scene.image.ImageView;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import org.jacpfx.image.canvas.ImageFactory;
+import org.jacpfx.image.canvas.ImageSource;
 
 import java.io.IOException;
 import java.lang.ref.SoftReference;
@@ -51,9 +52,9 @@ public class ImageNodeContainer implements Cloneable {
      */
     private double scaleFactor = 1;
     /**
-     * the path to image
+     * the source of the image
      */
-    private Path imagePath;
+    private ImageSource source;
 
     /**
      * The image creation factory
@@ -87,14 +88,18 @@ public class ImageNodeContainer implements Cloneable {
     private boolean selected;
 
     public ImageNodeContainer(Path imagePath, ImageFactory factory, double maxHight, double maxWidth) {
-        this.imagePath = imagePath;
+        this(imagePath != null ? ImageSource.of(imagePath) : null, factory, maxHight, maxWidth);
+    }
+
+    public ImageNodeContainer(ImageSource source, ImageFactory factory, double maxHight, double maxWidth) {
+        this.source = source;
         this.factory = factory;
         this.maxHight = maxHight;
         this.maxWidth = maxWidth;
-        if (this.imagePath != null) {
+        if (this.source != null) {
 
             try {
-                final Map.Entry<Double, Double> entry = factory.getImageSize(imagePath, maxHight);
+                final Map.Entry<Double, Double> entry = factory.getImageSize(source, maxHight);
                 endX = entry.getKey() ;
                 endY = entry.getValue();
                 this.landsScape = endX > endY;
@@ -111,7 +116,7 @@ public class ImageNodeContainer implements Cloneable {
         if (imageRef.get() == null) {
 
             try {
-                final Image img = factory.createImage(imagePath, maxWidth, maxHight);
+                final Image img = factory.createImage(source, maxWidth, maxHight);
                 img.progressProperty().addListener((ov, oldVal, newVal) -> {
                     if (newVal.doubleValue() >= 1.0) {
 
@@ -159,7 +164,7 @@ public class ImageNodeContainer implements Cloneable {
         if (imageRef.get() == null) {
 
             try {
-                final Image img = factory.createImage(imagePath, maxWidth, maxHight);
+                final Image img = factory.createImage(source, maxWidth, maxHight);
                 img.progressProperty().addListener((ov, oldVal, newVal) -> {
                     if (newVal.doubleValue() >= 1.0) {
                         gc.save();
@@ -249,8 +254,15 @@ public class ImageNodeContainer implements Cloneable {
         return selected;
     }
 
+    /**
+     * @return the image file, null if the source is no local file
+     */
     public Path getImagePath() {
-        return imagePath;
+        return source != null ? source.getPath() : null;
+    }
+
+    public ImageSource getSource() {
+        return source;
     }
 
     public int getPosition() {
@@ -272,7 +284,7 @@ public class ImageNodeContainer implements Cloneable {
                 ", scaledY=" + scaledY +
                 ", landsScape=" + landsScape +
                 ", scaleFactor=" + scaleFactor +
-                ", imagePath=" + imagePath +
+                ", source=" + source +
                 ", factory=" + factory +
                 ", maxHight=" + maxHight +
                 ", maxWidth=" + maxWidth +
@@ -9,6 +9,7 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.FlowPane;
 import org.jacpfx.image.canvas.ImageFactory;
+import org.jacpfx.image.canvas.ImageSource;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -45,7 +46,7 @@ public class NodePanel extends FlowPane {
     };
 
 
-    private NodePanel(int x, int y, double padding, double lineBreakLimit, double maxHight, double maxWidth, final List<Path> imageFolder, final ImageFactory factory, NodeSelectionListener selectionListener) {
+    private NodePanel(int x, int y, double padding, double lineBreakLimit, double maxHight, double maxWidth, final List<? extends ImageSource> imageFolder, final ImageFactory factory, NodeSelectionListener selectionListener) {
         super(x, y);
 
         this.setPrefWrapLength(padding);
@@ -76,7 +77,11 @@ public class NodePanel extends FlowPane {
 
     // Builder
     interface ImagePathBuilder {
-        FactoryBuilder imagePath(final List<Path> imageFolder);
+        FactoryBuilder imageSource(final List<? extends ImageSource> sources);
+
+        default FactoryBuilder imagePath(final List<Path> imageFolder) {
+            return imageSource(imageFolder.stream().map(ImageSource::of).collect(Collectors.toList()));
+        }
     }
 
     interface FactoryBuilder {
@@ -112,7 +117,7 @@ public class NodePanel extends FlowPane {
     }
 
     public static ImagePathBuilder createCanvasPanel() {
-        return imagePath -> imageFactory -> width -> hight -> padding -> lineBreakLimit -> maxImageWidth -> maxImageHight -> selectionListsner -> new NodePanel(width, hight, padding, lineBreakLimit, maxImageHight, maxImageWidth, imagePath, imageFactory, selectionListsner);
+        return imageSource -> imageFactory -> width -> hight -> padding -> lineBreakLimit -> maxImageWidth -> maxImageHight -> selectionListsner -> new NodePanel(width, hight, padding, lineBreakLimit, maxImageHight, maxImageWidth, imageSource, imageFactory, selectionListsner);
     }
 
     private void registerMouseClickListener(NodeSelectionListener selectionListener) {
@@ -131,14 +136,14 @@ public class NodePanel extends FlowPane {
         }));
     }
 
-    private void addImages(double maxHight, double maxWidth, List<Path> imageFolder, ImageFactory factory) {
-        final List<ImageNodeContainer> all = imageFolder.parallelStream().map(path -> getConatiner(path, factory, maxHight, maxWidth)).collect(Collectors.toList());
+    private void addImages(double maxHight, double maxWidth, List<? extends ImageSource> imageFolder, ImageFactory factory) {
+        final List<ImageNodeContainer> all = imageFolder.parallelStream().map(source -> getConatiner(source, factory, maxHight, maxWidth)).collect(Collectors.toList());
         children.addAll(all);
     }
 
 
-    private ImageNodeContainer getConatiner(Path path, ImageFactory factory, double maxHight, double maxWidth) {
-        return new ImageNodeContainer(path, factory, maxHight, maxWidth);
+    private ImageNodeContainer getConatiner(ImageSource source, ImageFactory factory, double maxHight, double maxWidth) {
+        return new ImageNodeContainer(source, factory, maxHight, maxWidth);
     }
 
 
@@ -0,0 +1,66 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Fingerprints of files differing only between the sampled blocks.
+ */
+public class ContentFingerprintTest extends TestCase {
+    private static final int SIZE = 100000;
+
+    private Path first;
+    private Path second;
+
+    @Override
+    protected void setUp() throws Exception {
+        first = Files.createTempFile("fingerprint", ".img");
+        second = Files.createTempFile("fingerprint", ".img");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(first);
+        Files.deleteIfExists(second);
+    }
+
+    public void testUncompressedImagesDifferingBetweenSamples() throws Exception {
+        assertDifferentBetweenSamples(new byte[]{'B', 'M'}, false);
+        assertDifferentBetweenSamples(new byte[]{'I', 'I', 42, 0}, false);
+        assertDifferentBetweenSamples(new byte[]{'M', 'M', 0, 42}, false);
+    }
+
+    public void testCompressedImagesAreSampled() throws Exception {
+        assertDifferentBetweenSamples(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}, true);
+    }
+
+    public void testCopiesAreEqual() throws Exception {
+        final byte[] content = createContent(new byte[]{'B', 'M'});
+        Files.write(first, content);
+        Files.write(second, content);
+        assertEquals(ContentFingerprint.of(ImageSource.of(first)), ContentFingerprint.of(ImageSource.of(second)));
+    }
+
+    /**
+     * @param equal true if the fingerprints are expected to collide
+     */
+    private void assertDifferentBetweenSamples(final byte[] header, final boolean equal) throws Exception {
+        final byte[] content = createContent(header);
+        Files.write(first, content);
+        // between the first and the middle block
+        content[20000]++;
+        Files.write(second, content);
+        assertEquals(equal, ContentFingerprint.of(ImageSource.of(first)).equals(ContentFingerprint.of(ImageSource.of(second))));
+    }
+
+    private static byte[] createContent(final byte[] header) {
+        final byte[] content = new byte[SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        System.arraycopy(header, 0, content, 0, header.length);
+        return content;
+    }
+}
@@ -0,0 +1,91 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the queued tasks on a single free worker, the second worker is held by a selection task, so the tasks run in
+ * the order they are taken from the lanes.
+ */
+public class DecodeSchedulerTest extends TestCase {
+    private DecodeScheduler scheduler;
+    private CountDownLatch hold;
+    private CountDownLatch start;
+    private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected void setUp() throws Exception {
+        scheduler = new DecodeScheduler(2);
+        scheduler.setViewport(0, 1000);
+        hold = new CountDownLatch(1);
+        start = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(2);
+        scheduler.submitSelection(() -> {
+            running.countDown();
+            return hold.await(10, TimeUnit.SECONDS);
+        });
+        scheduler.submitSelection(() -> {
+            running.countDown();
+            return start.await(10, TimeUnit.SECONDS);
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        hold.countDown();
+        start.countDown();
+        scheduler.shutdown();
+    }
+
+    public void testVisiblePreviewsBeforeThumbnails() throws Exception {
+        final List<CompletableFuture<?>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final String name = "thumbnail" + i;
+            results.add(scheduler.submit(500 + i, () -> order.add(name)));
+        }
+        for (int i = 0; i < 4; i++) {
+            final String name = "preview" + i;
+            final double position = 990 + i;
+            // at the edge of the viewport, far from the centre
+            results.add(scheduler.submitPreview(() -> position, null, () -> order.add(name)));
+        }
+        start.countDown();
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(order.get(i), order.get(i).startsWith("preview"));
+        }
+    }
+
+    public void testPreviewOutsideViewportIsPrefetch() throws Exception {
+        final CompletableFuture<?> preview = scheduler.submitPreview(() -> 5000, null, () -> order.add("preview"));
+        final CompletableFuture<?> thumbnail = scheduler.submit(500, () -> order.add("thumbnail"));
+        start.countDown();
+        CompletableFuture.allOf(preview, thumbnail).get(10, TimeUnit.SECONDS);
+        assertEquals("thumbnail", order.get(0));
+        assertEquals("preview", order.get(1));
+    }
+
+    public void testShutdownCancelsPendingDecodes() throws Exception {
+        final CompletableFuture<?> pending = scheduler.submit(500, () -> order.add("thumbnail"));
+        scheduler.shutdown();
+        assertTrue(pending.isCancelled());
+        try {
+            scheduler.submitSelection(() -> order.add("selection")).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        start.countDown();
+        hold.countDown();
+        assertTrue(order.isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Looks up thumbnails in a temporary cache folder. The PNGs only consist of the chunks read by the lookup, their CRCs
+ * are not checked.
+ */
+public class FreedesktopThumbnailFactoryTest extends TestCase {
+    private static final long MTIME = 1500000000L;
+
+    private Path root;
+    private Path image;
+    private Path thumbnail;
+    private FreedesktopThumbnailFactory factory;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("thumbnails");
+        image = Files.write(root.resolve("image.jpg"), new byte[]{1});
+        Files.setLastModifiedTime(image, FileTime.from(MTIME, TimeUnit.SECONDS));
+        final String uri = FreedesktopThumbnailFactory.getUri(image);
+        thumbnail = Files.createDirectories(root.resolve("normal")).resolve(FreedesktopThumbnailFactory.getName(uri));
+        factory = new FreedesktopThumbnailFactory(null, root, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public void testValidThumbnail() throws Exception {
+        Files.write(thumbnail, png(13, 128, 0));
+        assertEquals(thumbnail, factory.findThumbnail(image, 100));
+    }
+
+    public void testTooLowThumbnail() throws Exception {
+        Files.write(thumbnail, png(13, 64, 0));
+        assertNull(factory.findThumbnail(image, 100));
+    }
+
+    public void testShortHeader() throws Exception {
+        Files.write(thumbnail, png(4, 128, 0));
+        assertNull(factory.findThumbnail(image, 100));
+    }
+
+    public void testNegativeChunkLength() throws Exception {
+        Files.write(thumbnail, png(13, 128, -1));
+        assertNull(factory.findThumbnail(image, 100));
+    }
+
+    public void testHugeChunkLength() throws Exception {
+        Files.write(thumbnail, png(13, 128, Integer.MAX_VALUE));
+        assertNull(factory.findThumbnail(image, 100));
+    }
+
+    public void testTruncatedThumbnail() throws Exception {
+        final byte[] png = png(13, 128, 0);
+        Files.write(thumbnail, Arrays.copyOf(png, png.length - 20));
+        assertNull(factory.findThumbnail(image, 100));
+    }
+
+    /**
+     * @param headerLength the declared and written length of the IHDR chunk
+     * @param hight        the hight in the IHDR chunk
+     * @param textLength   the declared length of the tEXt chunks, 0 for their actual length
+     */
+    private byte[] png(final int headerLength, final int hight, final int textLength) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[]{(byte) 137, 80, 78, 71, 13, 10, 26, 10});
+        final byte[] header = new byte[Math.max(8, headerLength)];
+        header[3] = (byte) 128;
+        header[6] = (byte) (hight >> 8);
+        header[7] = (byte) hight;
+        chunk(out, "IHDR", headerLength, Arrays.copyOf(header, headerLength));
+        text(out, "Thumb::URI", FreedesktopThumbnailFactory.getUri(image), textLength);
+        text(out, "Thumb::MTime", String.valueOf(MTIME), textLength);
+        chunk(out, "IEND", 0, new byte[0]);
+        return bytes.toByteArray();
+    }
+
+    private static void text(final DataOutputStream out, final String key, final String value, final int length) throws IOException {
+        final byte[] content = (key + '\0' + value).getBytes(StandardCharsets.ISO_8859_1);
+        chunk(out, "tEXt", length != 0 ? length : content.length, content);
+    }
+
+    private static void chunk(final DataOutputStream out, final String type, final int length, final byte[] content) throws IOException {
+        out.writeInt(length);
+        out.write(type.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(content);
+        out.writeInt(0);
+    }
+}
@@ -0,0 +1,170 @@
+package org.jacpfx.image.canvas;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the layout probe of remote images by range requests with a download of the complete images, and the
+ * revalidation by conditional GETs. The images of the folder are served by a local HTTP server, which supports
+ * ranges and ETags and adds a latency to each request.
+ * Usage: HttpImageSourceBenchmark folder [latency ms] [rounds], run with --add-modules jdk.httpserver. The folder may
+ * also be set with -Djacpfx.benchmark.folder
+ */
+public class HttpImageSourceBenchmark {
+
+    private static final String FOLDER_PROPERTY = "jacpfx.benchmark.folder";
+    private static final int LATENCY = 1;
+    private static final int ROUNDS = 3;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final Path folder;
+    private final int latency;
+
+    private HttpImageSourceBenchmark(final Path folder, final int latency) {
+        this.folder = folder;
+        this.latency = latency;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String folder = args.length > 0 ? args[0] : System.getProperty(FOLDER_PROPERTY);
+        if (folder == null || !Files.isDirectory(FileSystems.getDefault().getPath(folder))) {
+            System.err.println("Usage: HttpImageSourceBenchmark folder [latency ms] [rounds], or -D" + FOLDER_PROPERTY + "=folder");
+            System.exit(1);
+        }
+        final Path rootFolder = FileSystems.getDefault().getPath(folder);
+        final int latency = args.length > 1 ? Integer.parseInt(args[1]) : LATENCY;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : ROUNDS;
+        new HttpImageSourceBenchmark(rootFolder, latency).run(rounds);
+    }
+
+    private void run(final int rounds) throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        try {
+            final List<Path> images;
+            try (Stream<Path> files = Files.list(folder)) {
+                images = files.filter(DirectoryScanner::hasImageExtension).sorted().collect(Collectors.toList());
+            }
+            final URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+            System.out.println("images: " + images.size() + ", latency: " + latency + " ms");
+            // first round warms up the JIT and the connections
+            for (int round = 0; round <= rounds; round++) {
+                final boolean warmup = round == 0;
+                final List<HttpImageSource> sources = images.stream().
+                        map(image -> new HttpImageSource(base.resolve(image.getFileName().toString()))).
+                        collect(Collectors.toList());
+                measure("probe (range)", warmup, sources, source -> source.probe());
+                measure("probe (download)", warmup, sources, source -> {
+                    try (InputStream in = source.openStream()) {
+                        new ImageMetadata(in.readAllBytes());
+                    }
+                });
+                measure("revalidate (etag)", warmup, sources, source -> {
+                    if (source.isModified()) throw new IOException("Modified " + source.getName());
+                });
+            }
+        } finally {
+            server.stop(0);
+        }
+        System.exit(0);
+    }
+
+    private void measure(final String name, final boolean warmup, final List<HttpImageSource> sources, final Task task) {
+        bytesSent.set(0);
+        requests.set(0);
+        final long startTime = System.nanoTime();
+        // like the layout of the panel, all sources are probed in parallel
+        final long failed = sources.parallelStream().filter(source -> {
+            try {
+                task.run(source);
+                return false;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return true;
+            }
+        }).count();
+        final long elapsedTime = System.nanoTime() - startTime;
+        if (warmup || sources.isEmpty()) return;
+        System.out.println(String.format("%-20s total: %8.1f ms, per image: %6.2f ms, requests: %d, bytes: %d, failed: %d",
+                name, elapsedTime / 1e6, elapsedTime / 1e6 / sources.size(), requests.get(), bytesSent.get(), failed));
+    }
+
+    /**
+     * serve a file of the folder, with single byte ranges and ETags
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latency > 0) TimeUnit.MILLISECONDS.sleep(latency);
+            final Path file = folder.resolve(exchange.getRequestURI().getPath().substring(1)).normalize();
+            if (!file.startsWith(folder) || !Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            final long size = Files.size(file);
+            final String etag = "\"" + Long.toHexString(Files.getLastModifiedTime(file).toMillis()) + "-" + Long.toHexString(size) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            long start = 0;
+            long end = size - 1;
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && range.startsWith("bytes=")) {
+                final String[] bounds = range.substring(6).split("-");
+                start = Long.parseLong(bounds[0]);
+                if (bounds.length > 1) end = Math.min(end, Long.parseLong(bounds[1]));
+                if (start >= size) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+            final long length = end - start + 1;
+            exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                 OutputStream out = exchange.getResponseBody()) {
+                final WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                while (position <= end) {
+                    position += channel.transferTo(position, end - position + 1, target);
+                }
+            }
+            bytesSent.addAndGet(length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private interface Task {
+        void run(HttpImageSource source) throws IOException;
+    }
+}
@@ -0,0 +1,178 @@
+package org.jacpfx.image.canvas;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the HTTP image source against a local server, which answers range requests with 206 (or ignores them),
+ * ranges behind the end with 416 and conditional requests with a matching ETag with 304.
+ */
+public class HttpImageSourceTest extends TestCase {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int SIZE = 100 * 1024;
+
+    private HttpServer server;
+    private URI uri;
+    private volatile byte[] content;
+    private volatile String etag;
+    private volatile boolean ranges;
+    /**
+     * the status codes and the body bytes sent by the server
+     */
+    private final List<Integer> statuses = new CopyOnWriteArrayList<>();
+    private final List<Integer> sent = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        content = createPng(WIDTH, HEIGHT, SIZE);
+        etag = "\"v1\"";
+        ranges = true;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/image.png");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    public void testProbeReadsHeaderWindowWithRangeRequest() throws Exception {
+        final HttpImageSource source = new HttpImageSource(uri);
+        final ImageMetadata metadata = source.probe();
+        assertEquals(WIDTH, metadata.getWidth());
+        assertEquals(HEIGHT, metadata.getHeight());
+        assertEquals(Integer.valueOf(206), statuses.get(0));
+        assertTrue("probe transferred " + sent.get(0) + " bytes", sent.get(0) < SIZE / 4);
+        // the size is taken from Content-Range
+        assertEquals(SIZE, source.getSize());
+    }
+
+    public void testReadRange() throws Exception {
+        final HttpImageSource source = new HttpImageSource(uri);
+        assertRange(source.read(1000, 64), 1000, 64);
+        assertEquals(Integer.valueOf(206), statuses.get(0));
+    }
+
+    public void testReadWithoutRangeSupportSkipsToRange() throws Exception {
+        ranges = false;
+        final HttpImageSource source = new HttpImageSource(uri);
+        assertRange(source.read(5000, 128), 5000, 128);
+        assertEquals(Integer.valueOf(200), statuses.get(0));
+        // the size is taken from Content-Length
+        assertEquals(SIZE, source.getSize());
+    }
+
+    public void testReadBehindEndIsEmpty() throws Exception {
+        final HttpImageSource source = new HttpImageSource(uri);
+        assertEquals(0, source.read(SIZE + 10, 16).remaining());
+        assertEquals(Integer.valueOf(416), statuses.get(0));
+    }
+
+    public void testNotModified() throws Exception {
+        final HttpImageSource source = new HttpImageSource(uri);
+        source.probe();
+        assertEquals("\"v1\"", source.getETag());
+        assertFalse(source.isModified());
+        assertEquals(Integer.valueOf(304), statuses.get(statuses.size() - 1));
+    }
+
+    public void testModifiedKeepsNewValidators() throws Exception {
+        final HttpImageSource source = new HttpImageSource(uri);
+        source.probe();
+        content = createPng(WIDTH * 2, HEIGHT, SIZE * 2);
+        etag = "\"v2\"";
+        assertTrue(source.isModified());
+        assertEquals("\"v2\"", source.getETag());
+        assertEquals(SIZE * 2, source.getSize());
+        // revalidated with the new ETag
+        assertFalse(source.isModified());
+        assertEquals(WIDTH * 2, source.probe().getWidth());
+    }
+
+    public void testNoValidatorsIsModified() throws Exception {
+        etag = null;
+        final HttpImageSource source = new HttpImageSource(uri);
+        source.probe();
+        assertNull(source.getETag());
+        assertTrue(source.isModified());
+    }
+
+    private void assertRange(final ByteBuffer buffer, final int position, final int length) {
+        assertEquals(length, buffer.remaining());
+        for (int i = 0; i < length; i++) {
+            assertEquals(content[position + i], buffer.get(buffer.position() + i));
+        }
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        try {
+            final byte[] body = content;
+            final String tag = etag;
+            if (tag != null) {
+                if (tag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    respond(exchange, 304, null, 0, 0);
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", tag);
+            }
+            final String range = ranges ? exchange.getRequestHeaders().getFirst("Range") : null;
+            if (range == null) {
+                respond(exchange, 200, body, 0, body.length);
+                return;
+            }
+            // bytes=start-end
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            final int start = Integer.parseInt(bounds[0]);
+            if (start >= body.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                respond(exchange, 416, null, 0, 0);
+                return;
+            }
+            final int end = Math.min(body.length - 1, Integer.parseInt(bounds[1]));
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            respond(exchange, 206, body, start, end - start + 1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final byte[] body, final int offset, final int length) throws IOException {
+        statuses.add(status);
+        sent.add(length);
+        exchange.sendResponseHeaders(status, body != null ? length : -1);
+        if (body == null) return;
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, offset, length);
+        } catch (IOException e) {
+            // the client aborts downloads without range support
+        }
+    }
+
+    /**
+     * a PNG signature and header, padded to the size
+     */
+    private static byte[] createPng(final int width, final int height, final int size) {
+        final ByteBuffer png = ByteBuffer.allocate(size);
+        png.put(new byte[]{(byte) 137, 80, 78, 71, 13, 10, 26, 10});
+        png.putInt(13).put(new byte[]{'I', 'H', 'D', 'R'}).putInt(width).putInt(height);
+        for (int i = png.position(); i < size; i++) {
+            png.put((byte) i);
+        }
+        return png.array();
+    }
+}
@@ -0,0 +1,112 @@
+package org.jacpfx.image.canvas;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.stage.Stage;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the thumbnail decode time of the ImageFactory implementations.
+ * Usage: ImageFactoryBenchmark folder [maxHight] [rounds], the folder may also be set with -Djacpfx.benchmark.folder
+ */
+public class ImageFactoryBenchmark extends Application {
+
+    private static final String FOLDER_PROPERTY = "jacpfx.benchmark.folder";
+    private static final double MAX_HIGHT = 150;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+
+    @Override
+    public void start(Stage stage) throws Exception {
+        final List<String> args = getParameters().getRaw();
+        final String folder = args.size() > 0 ? args.get(0) : System.getProperty(FOLDER_PROPERTY);
+        if (folder == null || !Files.isDirectory(FileSystems.getDefault().getPath(folder))) {
+            System.err.println("Usage: ImageFactoryBenchmark folder [maxHight] [rounds], or -D" + FOLDER_PROPERTY + "=folder");
+            Platform.exit();
+            return;
+        }
+        final Path rootFolder = FileSystems.getDefault().getPath(folder);
+        final double maxHight = args.size() > 1 ? Double.parseDouble(args.get(1)) : MAX_HIGHT;
+        final int rounds = args.size() > 2 ? Integer.parseInt(args.get(2)) : ROUNDS;
+        final List<Path> images = getSubfolders(rootFolder).stream().filter(file -> file.toString().toLowerCase().endsWith("jpg")).collect(Collectors.toList());
+
+        // decode off the FX thread, so all factories load synchronously
+        final Thread benchmark = new Thread(() -> {
+            System.out.println("images: " + images.size() + ", maxHight: " + maxHight);
+            // first round warms up the JIT and the file system cache
+            for (int round = 0; round <= rounds; round++) {
+                final boolean warmup = round == 0;
+                measure("DefaultImageFactory", new DefaultImageFactory(), images, maxHight, warmup);
+                measure("ImageIOImageFactory", new ImageIOImageFactory(), images, maxHight, warmup);
+                // without the crop, SquareImageFactory.postProcess needs the FX thread
+                measure("SquareImageFactory", new SquareImageFactory(), images, maxHight, warmup);
+                measure("ImageIOImageFactory(square)", new ImageIOImageFactory(true), images, maxHight, warmup);
+                measurePreview("ExifPreviewImageFactory", new ExifPreviewImageFactory(new DefaultImageFactory()), images, maxHight, warmup);
+            }
+            Platform.exit();
+        }, "benchmark");
+        benchmark.setDaemon(true);
+        benchmark.start();
+    }
+
+    private void measure(final String name, final ImageFactory factory, final List<Path> images, final double maxHight, final boolean warmup) {
+        PixelConversions.reset();
+        final long startTime = System.nanoTime();
+        long pixels = 0;
+        for (final Path image : images) {
+            try {
+                final Image img = factory.createImage(image, maxHight, maxHight);
+                pixels += (long) img.getWidth() * (long) img.getHeight();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        final long elapsedTime = System.nanoTime() - startTime;
+        if (warmup || images.isEmpty()) return;
+        System.out.println(String.format("%-28s total: %8.1f ms, per image: %6.2f ms, thumbnail pixels: %d, conversion passes: %d",
+                name, elapsedTime / 1e6, elapsedTime / 1e6 / images.size(), pixels, PixelConversions.getPasses()));
+    }
+
+    /**
+     * the time to the first drawable stand-in: probe and embedded thumbnail of each image
+     */
+    private void measurePreview(final String name, final ImageFactory factory, final List<Path> images, final double maxHight, final boolean warmup) {
+        final long startTime = System.nanoTime();
+        int previews = 0;
+        for (final Path image : images) {
+            try {
+                final ImageSource source = ImageSource.of(image);
+                if (factory.createPreview(source, source.probe(), maxHight, maxHight) != null) previews++;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        final long elapsedTime = System.nanoTime() - startTime;
+        if (warmup || images.isEmpty()) return;
+        System.out.println(String.format("%-28s total: %8.1f ms, per image: %6.2f ms, previews: %d",
+                name, elapsedTime / 1e6, elapsedTime / 1e6 / images.size(), previews));
+    }
+
+    private List<Path> getSubfolders(Path root) {
+        final List<Path> roots = new ArrayList<>();
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root)) {
+            for (final Path pathElement : folders) {
+                roots.add(pathElement);
+            }
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+        return roots;
+    }
+}
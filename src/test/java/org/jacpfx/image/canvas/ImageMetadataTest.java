@@ -0,0 +1,165 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+
+/**
+ * Probes synthetic JPEG headers with an EXIF segment: IFD0 with orientation and EXIF sub IFD, IFD1 with the
+ * thumbnail, followed by the frame header.
+ */
+public class ImageMetadataTest extends TestCase {
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 800;
+    private static final int THUMBNAIL_LENGTH = 10;
+    /**
+     * SOI, APP1 marker and length, "Exif\0\0" and the TIFF data before the thumbnail
+     */
+    private static final int THUMBNAIL_OFFSET = 2 + 4 + 6 + 118;
+
+    public void testOrientationSwapsSize() throws Exception {
+        final ImageMetadata metadata = new ImageMetadata(createJpeg(6, 1, false));
+        assertEquals("image/jpeg", metadata.getMimeType());
+        assertEquals(6, metadata.getOrientation());
+        assertEquals(HEIGHT, metadata.getWidth());
+        assertEquals(WIDTH, metadata.getHeight());
+    }
+
+    public void testCaptureTimeFromExifIfd() throws Exception {
+        final ImageMetadata metadata = new ImageMetadata(createJpeg(1, 1, false));
+        assertEquals(LocalDateTime.of(2020, 5, 17, 10, 20, 30), metadata.getTimestamp());
+        assertEquals(WIDTH, metadata.getWidth());
+        assertEquals(HEIGHT, metadata.getHeight());
+    }
+
+    public void testThumbnailFromIfd1() throws Exception {
+        final byte[] jpeg = createJpeg(1, 1, false);
+        final ImageMetadata metadata = new ImageMetadata(jpeg);
+        assertTrue(metadata.hasThumbnail());
+        assertEquals(THUMBNAIL_OFFSET, metadata.getThumbnailOffset());
+        assertEquals(THUMBNAIL_LENGTH, metadata.getThumbnailLength());
+        assertEquals((byte) 0xFF, jpeg[THUMBNAIL_OFFSET]);
+        assertEquals((byte) 0xD8, jpeg[THUMBNAIL_OFFSET + 1]);
+    }
+
+    public void testIfd1OrientationIsIgnored() throws Exception {
+        final ImageMetadata metadata = new ImageMetadata(createJpeg(1, 8, false));
+        assertEquals(1, metadata.getOrientation());
+        assertEquals(WIDTH, metadata.getWidth());
+    }
+
+    public void testExifIfdPointingToIfd0() throws Exception {
+        final ImageMetadata metadata = new ImageMetadata(createJpeg(3, 1, true));
+        assertEquals(3, metadata.getOrientation());
+        assertEquals(WIDTH, metadata.getWidth());
+    }
+
+    public void testHeaderWindow() throws Exception {
+        final byte[] jpeg = createJpeg(6, 1, false);
+        final ImageMetadata metadata = new ImageMetadata(ByteBuffer.wrap(jpeg));
+        assertEquals(6, metadata.getOrientation());
+        assertEquals(THUMBNAIL_OFFSET, metadata.getThumbnailOffset());
+    }
+
+    public void testFileWithLargeSegment() throws Exception {
+        final File file = File.createTempFile("metadata", ".jpg");
+        try {
+            Files.write(file.toPath(), withSegment(createJpeg(6, 1, false), 0xE2, 20 * 1024));
+            final ImageMetadata metadata = new ImageMetadata(file);
+            assertEquals("image/jpeg", metadata.getMimeType());
+            assertEquals(HEIGHT, metadata.getWidth());
+            assertEquals(WIDTH, metadata.getHeight());
+            assertEquals(THUMBNAIL_OFFSET, metadata.getThumbnailOffset());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testBufferedStreamWithLargeSegment() throws Exception {
+        final byte[] jpeg = withSegment(createJpeg(1, 1, false), 0xE2, 20 * 1024);
+        // the buffer ends within the segment, a single skip stops there
+        final ImageMetadata metadata = new ImageMetadata(new BufferedInputStream(new ByteArrayInputStream(jpeg), 512));
+        assertEquals(WIDTH, metadata.getWidth());
+        assertEquals(HEIGHT, metadata.getHeight());
+    }
+
+    /**
+     * insert an APPn segment, e.g. an ICC profile, between the EXIF segment and the frame header
+     */
+    private static byte[] withSegment(final byte[] jpeg, final int marker, final int length) {
+        final int frame = THUMBNAIL_OFFSET + THUMBNAIL_LENGTH;
+        final ByteBuffer result = ByteBuffer.allocate(jpeg.length + 2 + length);
+        result.put(jpeg, 0, frame);
+        result.put((byte) 0xFF).put((byte) marker).putShort((short) length);
+        result.position(result.position() + length - 2);
+        result.put(jpeg, frame, jpeg.length - frame);
+        return result.array();
+    }
+
+    /**
+     * @param orientation          the orientation in IFD0, 1 writes no tag
+     * @param thumbnailOrientation the orientation in IFD1, 1 writes no tag
+     * @param loop                 true if the EXIF sub IFD pointer points back to IFD0
+     */
+    private static byte[] createJpeg(final int orientation, final int thumbnailOrientation, final boolean loop) {
+        // offsets relative to the TIFF header
+        final int ifd0 = 8;
+        final int exifIfd = 38;
+        final int date = 56;
+        final int ifd1 = 76;
+        final int thumbnail = 118;
+        final ByteBuffer tiff = ByteBuffer.allocate(thumbnail + THUMBNAIL_LENGTH);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(ifd0);
+
+        tiff.position(ifd0);
+        tiff.putShort((short) 2);
+        entry(tiff, 0x0112, 3, 1, orientation);
+        entry(tiff, 0x8769, 4, 1, loop ? ifd0 : exifIfd);
+        tiff.putInt(ifd1);
+
+        tiff.position(exifIfd);
+        tiff.putShort((short) 1);
+        entry(tiff, 0x9003, 2, 20, date);
+        tiff.putInt(0);
+        tiff.position(date);
+        tiff.put("2020:05:17 10:20:30\0".getBytes(StandardCharsets.ISO_8859_1));
+
+        tiff.position(ifd1);
+        tiff.putShort((short) 3);
+        entry(tiff, 0x0112, 3, 1, thumbnailOrientation);
+        entry(tiff, 0x0201, 4, 1, thumbnail);
+        entry(tiff, 0x0202, 4, 1, THUMBNAIL_LENGTH);
+        tiff.putInt(0);
+
+        tiff.position(thumbnail);
+        tiff.put(new byte[]{(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, 5, 6, (byte) 0xFF, (byte) 0xD9});
+
+        final ByteBuffer jpeg = ByteBuffer.allocate(2 + 4 + 6 + tiff.capacity() + 2 + 17 + 2);
+        jpeg.putShort((short) 0xFFD8);
+        jpeg.putShort((short) 0xFFE1).putShort((short) (2 + 6 + tiff.capacity()));
+        jpeg.put("Exif\0\0".getBytes(StandardCharsets.ISO_8859_1)).put(tiff.array());
+        // baseline frame header with three components
+        jpeg.putShort((short) 0xFFC0).putShort((short) 17).put((byte) 8).putShort((short) HEIGHT).putShort((short) WIDTH).put((byte) 3);
+        jpeg.put(new byte[9]);
+        jpeg.putShort((short) 0xFFD9);
+        return jpeg.array();
+    }
+
+    /**
+     * an IFD entry, short values are stored left aligned in the value field
+     */
+    private static void entry(final ByteBuffer tiff, final int tag, final int type, final int count, final int value) {
+        tiff.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3) {
+            tiff.putShort((short) value).putShort((short) 0);
+        } else {
+            tiff.putInt(value);
+        }
+    }
+}
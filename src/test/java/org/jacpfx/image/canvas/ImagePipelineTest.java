@@ -0,0 +1,62 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs pipelines on the sampled source region only and compares the result with the pipeline on the full source.
+ */
+public class ImagePipelineTest extends TestCase {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    public void testCentreSquareReadsTheSquare() {
+        final int[] region = ImagePipeline.create().centreSquare().getSourceRegion(WIDTH, HEIGHT);
+        assertTrue(Arrays.toString(region), Arrays.equals(new int[]{50, 0, 200, 200}, region));
+        assertRegionResult(ImagePipeline.create().centreSquare());
+    }
+
+    public void testCropReadsTheCrop() {
+        final int[] region = ImagePipeline.create().crop(100, 50, 40, 30).getSourceRegion(WIDTH, HEIGHT);
+        assertTrue(Arrays.toString(region), Arrays.equals(new int[]{100, 50, 40, 30}, region));
+        assertRegionResult(ImagePipeline.create().crop(100, 50, 40, 30));
+    }
+
+    public void testOrientedAndScaledCrop() {
+        assertRegionResult(ImagePipeline.create().orient(6).centreSquare().resizeToHight(64));
+        assertRegionResult(ImagePipeline.create().orient(8).crop(10, 20, 90, 150).sharpen(0.5d));
+        assertRegionResult(ImagePipeline.create().crop(33, 17, 101, 77).resize(40, 25));
+    }
+
+    public void testResizeReadsAll() {
+        final int[] region = ImagePipeline.create().resizeToHight(50).getSourceRegion(WIDTH, HEIGHT);
+        assertTrue(Arrays.toString(region), Arrays.equals(new int[]{0, 0, WIDTH, HEIGHT}, region));
+    }
+
+    private static void assertRegionResult(final ImagePipeline pipeline) {
+        final PixelBuffer full = createSource();
+        final PixelBuffer expected = pipeline.apply(full);
+        final int[] region = pipeline.getSourceRegion(WIDTH, HEIGHT);
+        final int[] pixels = new int[region[2] * region[3]];
+        for (int y = 0; y < region[3]; y++) {
+            System.arraycopy(full.getPixels(), (region[1] + y) * WIDTH + region[0], pixels, y * region[2], region[2]);
+        }
+        final int[] size = pipeline.getSize(WIDTH, HEIGHT);
+        final PixelBuffer actual = pipeline.apply(new PixelBuffer(region[2], region[3], pixels), region[0], region[1],
+                WIDTH, HEIGHT, new int[size[0] * size[1]]);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertTrue(Arrays.equals(expected.getPixels(), actual.getPixels()));
+    }
+
+    private static PixelBuffer createSource() {
+        final Random random = new Random(7);
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new PixelBuffer(WIDTH, HEIGHT, pixels);
+    }
+}
@@ -0,0 +1,87 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Decodes a PNG from a file and from a stored and a deflated ZIP entry, and checks the bytes admitted for the
+ * file content.
+ */
+public class ImageReaderPoolTest extends TestCase {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    private Path file;
+    private Path archive;
+    private byte[] png;
+
+    @Override
+    protected void setUp() throws Exception {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, x * 0x10101 ^ y << 8);
+            }
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        png = out.toByteArray();
+        file = Files.write(Files.createTempFile("pool", ".png"), png);
+        archive = Files.createTempFile("pool", ".zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            final ZipEntry stored = new ZipEntry("stored.png");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(png.length);
+            final CRC32 crc = new CRC32();
+            crc.update(png);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(png);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("deflated.png"));
+            zip.write(png);
+            zip.closeEntry();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(archive);
+    }
+
+    public void testFile() throws Exception {
+        final ImageSource source = ImageSource.of(file);
+        assertEquals(png.length, ImageReaderPool.getBufferedBytes(source));
+        assertDecoded(source);
+    }
+
+    public void testZipEntries() throws Exception {
+        try (ZipArchive zip = ZipArchive.open(archive)) {
+            final ZipImageSource stored = zip.getImages().get(0);
+            assertTrue(stored.isStored());
+            // decoded from the mapped archive
+            assertEquals(0, ImageReaderPool.getBufferedBytes(stored));
+            assertDecoded(stored);
+
+            final ZipImageSource deflated = zip.getImages().get(1);
+            assertFalse(deflated.isStored());
+            assertEquals(png.length, ImageReaderPool.getBufferedBytes(deflated));
+            assertDecoded(deflated);
+        }
+    }
+
+    private static void assertDecoded(final ImageSource source) throws Exception {
+        final PixelBuffer decoded = ImageReaderPool.get().decode(source, HEIGHT / 2, false);
+        assertEquals(WIDTH / 2, decoded.getWidth());
+        assertEquals(HEIGHT / 2, decoded.getHeight());
+    }
+}
@@ -0,0 +1,186 @@
+package org.jacpfx.image.canvas;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the pixel kernels with the per pixel implementations of the former WritableImageDemo.
+ * Usage: PixelKernelBenchmark image [radius] [rounds], the image may also be set with -Djacpfx.benchmark.image
+ */
+public class PixelKernelBenchmark extends Application {
+
+    private static final String IMAGE_PROPERTY = "jacpfx.benchmark.image";
+    private static final int RADIUS = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+
+    @Override
+    public void start(Stage stage) throws Exception {
+        final List<String> args = getParameters().getRaw();
+        final String file = args.size() > 0 ? args.get(0) : System.getProperty(IMAGE_PROPERTY);
+        if (file == null || !new File(file).isFile()) {
+            System.err.println("Usage: PixelKernelBenchmark image [radius] [rounds], or -D" + IMAGE_PROPERTY + "=image");
+            Platform.exit();
+            return;
+        }
+        final int radius = args.size() > 1 ? Integer.parseInt(args.get(1)) : RADIUS;
+        final int rounds = args.size() > 2 ? Integer.parseInt(args.get(2)) : ROUNDS;
+        final Image src = new Image(new File(file).toURI().toString(), 640, 480, false, false);
+        final int width = (int) src.getWidth();
+        final int height = (int) src.getHeight();
+
+        final Thread benchmark = new Thread(() -> {
+            final WritableImage dest = new WritableImage(width, height);
+            final int[] buffer = new int[width * height];
+            System.out.println("image: " + width + "x" + height + ", radius: " + radius);
+            // first round warms up the JIT
+            for (int round = 0; round <= rounds; round++) {
+                final boolean warmup = round == 0;
+                measure("blur (getColor)", warmup, width, height, () -> blur(src, dest, radius));
+                measure("blur2 (getPixels per pixel)", warmup, width, height, () -> blur2(src, dest, radius));
+                measure("PixelKernels.boxBlur", warmup, width, height,
+                        () -> PixelKernels.write(PixelKernels.boxBlur(PixelKernels.read(src), radius, buffer), dest));
+                measure("mosaic (getPixels per block)", warmup, width, height, () -> mosaic(src, dest, radius));
+                measure("PixelKernels.mosaic", warmup, width, height,
+                        () -> PixelKernels.write(PixelKernels.mosaic(PixelKernels.read(src), radius * 2 + 1, buffer), dest));
+                measure("copy (getArgb/setArgb)", warmup, width, height, () -> copy(src, dest));
+                measure("PixelKernels.copy", warmup, width, height,
+                        () -> PixelKernels.write(PixelKernels.copy(PixelKernels.read(src), buffer), dest));
+            }
+            Platform.exit();
+        }, "benchmark");
+        benchmark.setDaemon(true);
+        benchmark.start();
+    }
+
+    private void measure(final String name, final boolean warmup, final int width, final int height, final Runnable kernel) {
+        final long startTime = System.nanoTime();
+        kernel.run();
+        final long elapsedTime = System.nanoTime() - startTime;
+        if (warmup) return;
+        System.out.println(String.format("%-30s %8.2f ms, %8.1f Mpixel/s",
+                name, elapsedTime / 1e6, (double) width * height / (elapsedTime / 1e3)));
+    }
+
+    private static void blur(final Image src, final WritableImage dest, final int kernelSize) {
+        final int width = (int) src.getWidth();
+        final int height = (int) src.getHeight();
+        PixelReader reader = src.getPixelReader();
+        PixelWriter writer = dest.getPixelWriter();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                double red = 0;
+                double green = 0;
+                double blue = 0;
+                double alpha = 0;
+                int count = 0;
+                for (int i = -kernelSize; i <= kernelSize; i++) {
+                    for (int j = -kernelSize; j <= kernelSize; j++) {
+                        if (x + i < 0 || x + i >= width
+                                || y + j < 0 || y + j >= height) {
+                            continue;
+                        }
+                        Color color = reader.getColor(x + i, y + j);
+                        red += color.getRed();
+                        green += color.getGreen();
+                        blue += color.getBlue();
+                        alpha += color.getOpacity();
+                        count++;
+                    }
+                }
+                writer.setColor(x, y, Color.color(red / count, green / count, blue / count, alpha / count));
+            }
+        }
+    }
+
+    private static void blur2(final Image src, final WritableImage dest, final int kernelSize) {
+        final int width = (int) src.getWidth();
+        final int height = (int) src.getHeight();
+        PixelReader reader = src.getPixelReader();
+        PixelWriter writer = dest.getPixelWriter();
+        WritablePixelFormat<IntBuffer> format = WritablePixelFormat.getIntArgbInstance();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int centerX = x - kernelSize;
+                int centerY = y - kernelSize;
+                int kernelWidth = kernelSize * 2 + 1;
+                int kernelHeight = kernelSize * 2 + 1;
+                if (centerX < 0) {
+                    centerX = 0;
+                    kernelWidth = x + kernelSize;
+                } else if (x + kernelSize >= width) {
+                    kernelWidth = width - centerX;
+                }
+                if (centerY < 0) {
+                    centerY = 0;
+                    kernelHeight = y + kernelSize;
+                } else if (y + kernelSize >= height) {
+                    kernelHeight = height - centerY;
+                }
+                int[] buffer = new int[kernelWidth * kernelHeight];
+                reader.getPixels(centerX, centerY, kernelWidth, kernelHeight, format, buffer, 0, kernelWidth);
+                writer.setArgb(x, y, mean(buffer));
+            }
+        }
+    }
+
+    private static void mosaic(final Image src, final WritableImage dest, final int kernelSize) {
+        final int width = (int) src.getWidth();
+        final int height = (int) src.getHeight();
+        PixelReader reader = src.getPixelReader();
+        PixelWriter writer = dest.getPixelWriter();
+        WritablePixelFormat<IntBuffer> format = WritablePixelFormat.getIntArgbInstance();
+        for (int x = kernelSize; x < width - kernelSize * 2; x += kernelSize * 2 + 1) {
+            for (int y = kernelSize; y < height - kernelSize * 2; y += kernelSize * 2 + 1) {
+                int kernelWidth = kernelSize * 2 + 1;
+                int kernelHeight = kernelSize * 2 + 1;
+                int[] buffer = new int[kernelWidth * kernelHeight];
+                reader.getPixels(x, y, kernelWidth, kernelHeight, format, buffer, 0, kernelWidth);
+                Arrays.fill(buffer, mean(buffer));
+                writer.setPixels(x, y, kernelWidth, kernelHeight, format, buffer, 0, kernelWidth);
+            }
+        }
+    }
+
+    private static void copy(final Image src, final WritableImage dest) {
+        final int width = (int) src.getWidth();
+        final int height = (int) src.getHeight();
+        PixelReader reader = src.getPixelReader();
+        PixelWriter writer = dest.getPixelWriter();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                writer.setArgb(x, y, reader.getArgb(x, y));
+            }
+        }
+    }
+
+    private static int mean(final int[] buffer) {
+        int alpha = 0;
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        for (int color : buffer) {
+            alpha += (color >>> 24);
+            red += (color >>> 16 & 0xFF);
+            green += (color >>> 8 & 0xFF);
+            blue += (color & 0xFF);
+        }
+        final int count = buffer.length;
+        return (alpha / count) << 24 | (red / count) << 16 | (green / count) << 8 | (blue / count);
+    }
+}
@@ -0,0 +1,116 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Encodes and decodes pixel patterns which use each QOI operation: runs, index hits, small and luma differences,
+ * RGB and RGBA pixels. The premultiplied pixels must survive the round trip unchanged, the BGRA bytes of images
+ * must encode to the same stream as the ARGB ints.
+ */
+public class QoiCodecTest extends TestCase {
+
+    public void testRandomTranslucentPixels() {
+        final Random random = new Random(42);
+        final PixelBuffer buffer = new PixelBuffer(37, 23);
+        final int[] pixels = buffer.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = PixelConversions.premultiply(random.nextInt());
+        }
+        assertRoundTrip(buffer);
+    }
+
+    public void testGradient() {
+        final PixelBuffer buffer = new PixelBuffer(64, 48);
+        final int[] pixels = buffer.getPixels();
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) {
+                // steps of 1 (diff) and of 5 to 20 (luma) in the rows
+                pixels[y * 64 + x] = 0xFF000000 | (x * 3 + y) << 16 | (x * (y % 5 + 1)) << 8 | (x + y * 2);
+            }
+        }
+        assertRoundTrip(buffer);
+    }
+
+    public void testRunsAndIndex() {
+        final int[] palette = {0xFF102030, 0x80402010, 0xFFFFFFFF, 0x00000000};
+        final PixelBuffer buffer = new PixelBuffer(200, 10);
+        final int[] pixels = buffer.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            // runs longer than the 62 pixels of one run operation, the palette colours return from the index
+            pixels[i] = palette[i / 70 % palette.length];
+        }
+        final byte[] encoded = assertRoundTrip(buffer);
+        assertTrue("encoded to " + encoded.length + " bytes", encoded.length < 200);
+    }
+
+    public void testUniformImage() {
+        final PixelBuffer buffer = new PixelBuffer(100, 100);
+        Arrays.fill(buffer.getPixels(), 0xFF000000);
+        assertRoundTrip(buffer);
+    }
+
+    public void testSinglePixel() {
+        assertRoundTrip(new PixelBuffer(1, 1, new int[]{0x7F3F1F0F}));
+    }
+
+    public void testHeader() {
+        final byte[] encoded = QoiCodec.encode(new PixelBuffer(300, 2));
+        assertEquals('q', encoded[0]);
+        assertEquals('o', encoded[1]);
+        assertEquals('i', encoded[2]);
+        assertEquals('f', encoded[3]);
+        assertEquals(300, (encoded[4] & 0xFF) << 24 | (encoded[5] & 0xFF) << 16 | (encoded[6] & 0xFF) << 8 | encoded[7] & 0xFF);
+        assertEquals(2, encoded[11]);
+        // the end marker
+        assertEquals(1, encoded[encoded.length - 1]);
+    }
+
+    public void testNoQoiImage() {
+        final byte[] encoded = QoiCodec.encode(new PixelBuffer(4, 4));
+        encoded[0] = 'x';
+        assertRejected(encoded);
+    }
+
+    public void testCorruptSize() {
+        final byte[] encoded = QoiCodec.encode(new PixelBuffer(4, 4));
+        // 65536 x 65536 pixels cannot be encoded in a few bytes
+        encoded[5] = 1;
+        encoded[9] = 1;
+        assertRejected(encoded);
+        encoded[4] = (byte) 0x80;
+        assertRejected(encoded);
+    }
+
+    private static byte[] assertRoundTrip(final PixelBuffer buffer) {
+        final byte[] encoded = QoiCodec.encode(buffer);
+        final PixelBuffer decoded = QoiCodec.decode(encoded);
+        assertEquals(buffer.getWidth(), decoded.getWidth());
+        assertEquals(buffer.getHeight(), decoded.getHeight());
+        final int[] expected = buffer.getPixels();
+        final int[] actual = decoded.getPixels();
+        final int size = buffer.getWidth() * buffer.getHeight();
+        final byte[] bgra = new byte[size * 4];
+        for (int i = 0; i < size; i++) {
+            assertEquals("pixel " + i, Integer.toHexString(expected[i]), Integer.toHexString(actual[i]));
+            bgra[i * 4] = (byte) expected[i];
+            bgra[i * 4 + 1] = (byte) (expected[i] >>> 8);
+            bgra[i * 4 + 2] = (byte) (expected[i] >>> 16);
+            bgra[i * 4 + 3] = (byte) (expected[i] >>> 24);
+        }
+        assertTrue(Arrays.equals(encoded, QoiCodec.encode(buffer.getWidth(), buffer.getHeight(), bgra)));
+        assertTrue(Arrays.equals(bgra, QoiCodec.decodeBgra(encoded)));
+        return encoded;
+    }
+
+    private static void assertRejected(final byte[] encoded) {
+        try {
+            QoiCodec.decode(encoded);
+            fail("decoded a corrupt image");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes a snapshot of two local images with a layout and a thumbnail, reads it back and checks that corrupt
+ * snapshots fail with an IOException.
+ */
+public class SessionSnapshotTest extends TestCase {
+    private Path directory;
+    private Path first;
+    private Path second;
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("snapshot");
+        first = Files.write(directory.resolve("first.png"), createPng(150, 100));
+        second = Files.write(directory.resolve("second.png"), createPng(100, 150));
+        file = directory.resolve("session.snapshot");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public void testWriteRead() throws Exception {
+        final PixelBuffer pixels = createPixels(12, 8);
+        createSnapshot(pixels).write(file);
+        final SessionSnapshot snapshot = SessionSnapshot.read(file);
+
+        assertEquals(2, snapshot.size());
+        assertEquals(800d, snapshot.getWidth());
+        assertEquals(200d, snapshot.getMaxHight());
+        assertEquals(300d, snapshot.getMaxWidth());
+        assertEquals(42d, snapshot.getOffset());
+        assertTrue(snapshot.hasLayout(800, 200, 5, 1, 0.5));
+        assertFalse(snapshot.hasLayout(640, 200, 5, 1, 0.5));
+
+        final List<SessionSnapshot.Entry> entries = snapshot.getEntries();
+        assertEquals(first, entries.get(0).getSource().getPath());
+        assertEquals(second, entries.get(1).getSource().getPath());
+        final ImageContainer restored = entries.get(0).createContainer(new DefaultImageFactory(), new ImageCache(), null, 200, 300);
+        assertEquals(150d, restored.getEndX());
+        assertEquals(100d, restored.getEndY());
+        assertEquals(0x1234L, restored.getPerceptualHash());
+        entries.get(0).layout(restored);
+        assertEquals(5d, restored.getStartX());
+        assertEquals(1, restored.getPosition());
+
+        final SessionSnapshot.Row row = snapshot.getRows().get(0);
+        assertEquals(2, row.getSize());
+        assertEquals(0d, row.getStart());
+        assertEquals(105d, row.getEnd());
+
+        final SessionSnapshot.Thumbnail thumbnail = snapshot.getThumbnails().get(0);
+        assertEquals(1, thumbnail.getIndex());
+        assertEquals(8, thumbnail.getHight());
+        assertEquals(12, thumbnail.getPixels().getWidth());
+        assertTrue(Arrays.equals(pixels.getPixels(), thumbnail.getPixels().getPixels()));
+    }
+
+    public void testValidate() throws Exception {
+        createSnapshot(createPixels(4, 4)).write(file);
+        final List<SessionSnapshot.Entry> entries = SessionSnapshot.read(file).getEntries();
+        assertEquals(SessionSnapshot.Validation.VALID, entries.get(0).validate());
+        Files.write(first, new byte[101]);
+        assertEquals(SessionSnapshot.Validation.MODIFIED, entries.get(0).validate());
+        Files.delete(second);
+        assertEquals(SessionSnapshot.Validation.REMOVED, entries.get(1).validate());
+    }
+
+    public void testValidatorsOfTheProbe() throws Exception {
+        final SessionSnapshot snapshot = createSnapshot(createPixels(4, 4));
+        // changed after the probe, before the snapshot is written
+        Files.write(first, new byte[101]);
+        snapshot.write(file);
+        final List<SessionSnapshot.Entry> entries = SessionSnapshot.read(file).getEntries();
+        assertEquals(SessionSnapshot.Validation.MODIFIED, entries.get(0).validate());
+        assertEquals(SessionSnapshot.Validation.VALID, entries.get(1).validate());
+    }
+
+    public void testNoSnapshot() throws Exception {
+        Files.write(file, new byte[64]);
+        assertCorrupt();
+    }
+
+    public void testTruncated() throws Exception {
+        createSnapshot(createPixels(4, 4)).write(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        assertCorrupt();
+    }
+
+    public void testNegativeThumbnailLength() throws Exception {
+        writeThumbnailLength(-1);
+        assertCorrupt();
+    }
+
+    public void testHugeThumbnailLength() throws Exception {
+        writeThumbnailLength(Integer.MAX_VALUE);
+        assertCorrupt();
+    }
+
+    public void testHugeLocationLength() throws Exception {
+        createSnapshot(createPixels(4, 4)).write(file);
+        // the location length follows the header and the kind and flags of the first entry
+        overwriteInt(4 + 4 + 7 * 8 + 3 * 4 + 2, Integer.MAX_VALUE - 8);
+        assertCorrupt();
+    }
+
+    public void testHugeEntryCount() throws Exception {
+        createSnapshot(createPixels(4, 4)).write(file);
+        overwriteInt(4 + 4 + 7 * 8, Integer.MAX_VALUE);
+        assertCorrupt();
+    }
+
+    private void assertCorrupt() {
+        try {
+            SessionSnapshot.read(file);
+            fail("corrupt snapshot read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * the thumbnail is the last element: index, hight, length and the QOI data
+     */
+    private void writeThumbnailLength(final int length) throws IOException {
+        final PixelBuffer pixels = createPixels(4, 4);
+        createSnapshot(pixels).write(file);
+        overwriteInt(Files.size(file) - QoiCodec.encode(pixels).length - 4, length);
+    }
+
+    private void overwriteInt(final long position, final int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(value).flip(), position);
+        }
+    }
+
+    private SessionSnapshot createSnapshot(final PixelBuffer pixels) throws IOException {
+        final List<SessionSnapshot.Entry> entries = new ArrayList<>();
+        entries.add(SessionSnapshot.Entry.of(createContainer(first, 150, 100, 5, 1)));
+        entries.add(SessionSnapshot.Entry.of(createContainer(second, 100, 150, 160, 2)));
+        final List<SessionSnapshot.Row> rows = new ArrayList<>();
+        rows.add(new SessionSnapshot.Row(2, 0, 105));
+        final List<SessionSnapshot.Thumbnail> thumbnails = new ArrayList<>();
+        thumbnails.add(new SessionSnapshot.Thumbnail(1, pixels.getHeight(), pixels));
+        return new SessionSnapshot(800, 200, 300, 5, 1, 0.5, 42, entries, rows, thumbnails);
+    }
+
+    private static ImageContainer createContainer(final Path path, final double width, final double hight,
+                                                  final double startX, final int position) throws IOException {
+        final ImageSource source = ImageSource.of(path);
+        source.probe();
+        final ImageContainer container = new ImageContainer(source, null, width, hight,
+                new DefaultImageFactory(), new ImageCache(), null, 200, 300);
+        container.setStartX(startX);
+        container.setPosition(position);
+        container.setPerceptualHash(0x1234L);
+        return container;
+    }
+
+    private static byte[] createPng(final int width, final int height) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private static PixelBuffer createPixels(final int width, final int height) {
+        final PixelBuffer buffer = new PixelBuffer(width, height);
+        final int[] pixels = buffer.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            // opaque, so the premultiplied pixels survive the round trip
+            pixels[i] = 0xFF000000 | (i * 40503) & 0xFFFFFF;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,50 @@
+package org.jacpfx.image.canvas;
+
+import java.util.Random;
+
+/**
+ * Reports the throughput of the pixel kernels in pixels per second. Run it once with
+ * --add-modules jdk.incubator.vector for the SIMD kernels and once with -Djacpfx.image.vector=false for the
+ * scalar kernels; the vector width (AVX2 or AVX-512) is printed with the results.
+ * Usage: VectorKernelBenchmark [width] [height] [rounds]
+ */
+public class VectorKernelBenchmark {
+
+    private static final int WIDTH = 3000;
+    private static final int HEIGHT = 2000;
+    private static final int ROUNDS = 10;
+    private static final int RADIUS = 5;
+
+    public static void main(String[] args) {
+        final int width = args.length > 0 ? Integer.parseInt(args[0]) : WIDTH;
+        final int height = args.length > 1 ? Integer.parseInt(args[1]) : HEIGHT;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : ROUNDS;
+        final int[] pixels = new int[width * height];
+        final Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        final PixelBuffer src = new PixelBuffer(width, height, pixels);
+        final int[] dest = new int[width * height];
+        System.out.println("image: " + width + "x" + height + ", kernels: " + PixelOps.get().describe()
+                + ", cores: " + Runtime.getRuntime().availableProcessors());
+        measure("boxBlur(" + RADIUS + ")", rounds, width * height, () -> PixelKernels.boxBlur(src, RADIUS, dest));
+        measure("mosaic(" + (RADIUS * 2 + 1) + ")", rounds, width * height, () -> PixelKernels.mosaic(src, RADIUS * 2 + 1, dest));
+        measure("premultiply", rounds, width * height, () -> PixelKernels.premultiply(src, dest));
+        measure("area downscale 1/4", rounds, width * height, () -> ImageScaler.scale(src, width / 4, height / 4, dest));
+    }
+
+    /**
+     * the first round warms up the JIT, the average of the following rounds is reported
+     */
+    private static void measure(final String name, final int rounds, final long pixels, final Runnable kernel) {
+        long elapsedTime = 0;
+        for (int round = 0; round <= rounds; round++) {
+            final long startTime = System.nanoTime();
+            kernel.run();
+            if (round > 0) elapsedTime += System.nanoTime() - startTime;
+        }
+        final double average = (double) elapsedTime / Math.max(1, rounds);
+        System.out.println(String.format("%-22s %8.2f ms, %8.1f Mpixel/s", name, average / 1e6, pixels / (average / 1e3)));
+    }
+}
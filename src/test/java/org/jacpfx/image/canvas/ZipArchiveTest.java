@@ -0,0 +1,218 @@
+package org.jacpfx.image.canvas;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Reads the central directory of archives written by ZipOutputStream and of a ZIP64 archive written by hand, whose
+ * sizes, offsets and entry count are only in the ZIP64 records.
+ */
+public class ZipArchiveTest extends TestCase {
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("archive", ".zip");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testStoredAndDeflatedEntries() throws Exception {
+        final byte[] first = createContent(5000, 1);
+        final byte[] second = createContent(20000, 7);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            zip.setComment("an archive comment, which follows the end of central directory record");
+            putStored(zip, "images/first.jpg", first);
+            zip.putNextEntry(new ZipEntry("images/"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("images/second.png"));
+            zip.write(second);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("readme.txt"));
+            zip.write("text".getBytes(StandardCharsets.US_ASCII));
+            zip.closeEntry();
+        }
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            // the folder is skipped
+            assertEquals(3, archive.getEntries().size());
+            final List<ZipImageSource> images = archive.getImages();
+            assertEquals(2, images.size());
+
+            final ZipImageSource stored = images.get(0);
+            assertEquals("images/first.jpg", stored.getEntryName());
+            assertTrue(stored.isStored());
+            assertEquals(first.length, stored.getSize());
+            assertContent(first, stored);
+
+            final ZipImageSource deflated = images.get(1);
+            assertEquals("images/second.png", deflated.getEntryName());
+            assertFalse(deflated.isStored());
+            assertEquals(second.length, deflated.getSize());
+            assertContent(second, deflated);
+        }
+    }
+
+    public void testKeyIsTheJarUri() throws Exception {
+        final Path folder = Files.createTempDirectory("zip folder");
+        final Path spaced = folder.resolve("my archive.zip");
+        try {
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(spaced))) {
+                putStored(zip, "my images/first #1.jpg", new byte[10]);
+            }
+            try (ZipArchive archive = ZipArchive.open(spaced)) {
+                final URI key = archive.getImages().get(0).getKey();
+                assertEquals("jar:" + spaced.toAbsolutePath().toUri() + "!/my%20images/first%20%231.jpg", key.toString());
+                assertFalse(key.toString().contains("%25"));
+            }
+        } finally {
+            Files.deleteIfExists(spaced);
+            Files.deleteIfExists(folder);
+        }
+    }
+
+    public void testHiddenFilesAreNoImages() throws Exception {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            putStored(zip, "__MACOSX/images/._first.jpg", new byte[10]);
+            putStored(zip, "images/.hidden.jpg", new byte[10]);
+            putStored(zip, "images/first.jpg", new byte[10]);
+        }
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            assertEquals(3, archive.getEntries().size());
+            assertEquals(1, archive.getImages().size());
+            assertEquals("images/first.jpg", archive.getImages().get(0).getEntryName());
+        }
+    }
+
+    public void testZip64() throws Exception {
+        final List<byte[]> contents = new ArrayList<>();
+        contents.add(createContent(3000, 3));
+        contents.add(createContent(100, 5));
+        Files.write(file, createZip64(contents));
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            final List<ZipImageSource> images = archive.getImages();
+            assertEquals(2, images.size());
+            for (int i = 0; i < images.size(); i++) {
+                assertEquals("image" + i + ".jpg", images.get(i).getEntryName());
+                assertEquals(contents.get(i).length, images.get(i).getSize());
+                assertContent(contents.get(i), images.get(i));
+            }
+        }
+    }
+
+    public void testNoArchive() throws Exception {
+        Files.write(file, createContent(1000, 1));
+        try {
+            ZipArchive.open(file).close();
+            fail("opened a file without central directory");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    private static void assertContent(final byte[] expected, final ZipImageSource source) throws IOException {
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (InputStream in = source.openStream()) {
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                actual.write(buffer, 0, read);
+            }
+        }
+        assertTrue(Arrays.equals(expected, actual.toByteArray()));
+        // a range in the middle and a range over the end
+        final ByteBuffer range = source.read(expected.length / 2, 64);
+        assertEquals(Math.min(64, expected.length - expected.length / 2), range.remaining());
+        assertEquals(expected[expected.length / 2], range.get(range.position()));
+        assertEquals(1, source.read(expected.length - 1, 64).remaining());
+        assertEquals(0, source.read(expected.length, 64).remaining());
+    }
+
+    private static void putStored(final ZipOutputStream zip, final String name, final byte[] content) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc(content));
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * a ZIP64 archive of stored entries: the central directory has the sizes and offsets in ZIP64 extra fields, the
+     * end of central directory record points to the ZIP64 record with its locator
+     */
+    private static byte[] createZip64(final List<byte[]> contents) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        for (int i = 0; i < contents.size(); i++) {
+            final byte[] content = contents.get(i);
+            final byte[] name = ("image" + i + ".jpg").getBytes(StandardCharsets.US_ASCII);
+            final long offset = out.size();
+            write(out, little(30).putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) 0)
+                    .putInt(0).putInt((int) crc(content)).putInt(-1).putInt(-1)
+                    .putShort((short) name.length).putShort((short) 20));
+            out.write(name);
+            write(out, little(20).putShort((short) 1).putShort((short) 16).putLong(content.length).putLong(content.length));
+            out.write(content);
+
+            write(directory, little(46).putInt(0x02014b50).putShort((short) 45).putShort((short) 45)
+                    .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) crc(content)).putInt(-1).putInt(-1)
+                    .putShort((short) name.length).putShort((short) 28).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1));
+            directory.write(name);
+            write(directory, little(28).putShort((short) 1).putShort((short) 24)
+                    .putLong(content.length).putLong(content.length).putLong(offset));
+        }
+        final long directoryOffset = out.size();
+        out.write(directory.toByteArray());
+        final long zip64 = out.size();
+        write(out, little(56).putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+                .putLong(contents.size()).putLong(contents.size()).putLong(directory.size()).putLong(directoryOffset));
+        write(out, little(20).putInt(0x07064b50).putInt(0).putLong(zip64).putInt(1));
+        write(out, little(22).putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+                .putShort((short) -1).putShort((short) -1).putInt(-1).putInt(-1).putShort((short) 0));
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer little(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void write(final OutputStream out, final ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    private static long crc(final byte[] content) {
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static byte[] createContent(final int length, final int step) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * step % 251);
+        }
+        return content;
+    }
+}